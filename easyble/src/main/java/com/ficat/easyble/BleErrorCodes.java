@@ -115,11 +115,39 @@ public class BleErrorCodes {
      */
     public static final int DATA_LENGTH_GREATER_THAN_MTU = 1037;
 
+    /**
+     * Failed to read data from the input stream or channel while writing data in batches
+     */
+    public static final int BATCH_DATA_READ_FAILED = 1038;
+
+    /**
+     * The operation waiting in the queue has been superseded by a newer one, see
+     * {@link BleManager.OperationOptions#coalesce(boolean)}
+     */
+    public static final int OPERATION_SUPERSEDED = 1039;
+
     /**
      * Other unknown reason
      */
     public static final int UNKNOWN = 1040;
 
+    /**
+     * The operation queue of the device is full, see
+     * {@link BleManager#setOperationQueueLimit(int, int)}
+     */
+    public static final int OPERATION_QUEUE_FULL = 1041;
+
+    /**
+     * The deadline of the operation passed before it completed, see
+     * {@link BleManager.OperationOptions#deadline(long)}
+     */
+    public static final int DEADLINE_EXCEEDED = 1042;
+
+    /**
+     * The operation has been canceled, see {@link com.ficat.easyble.gatt.Cancelable#cancel()}
+     */
+    public static final int OPERATION_CANCELED = 1043;
+
 
     /**********************{@link BluetoothGatt}GATT error constants*************************/
     /**
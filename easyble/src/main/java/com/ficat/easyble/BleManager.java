@@ -14,20 +14,30 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.text.TextUtils;
 
 import com.ficat.easyble.gatt.BleGatt;
 import com.ficat.easyble.gatt.BleGattAccessor;
+import com.ficat.easyble.gatt.BleRetryPolicy;
+import com.ficat.easyble.gatt.Cancelable;
+import com.ficat.easyble.gatt.NotificationRingBuffer;
+import com.ficat.easyble.gatt.ResponseMatcher;
+import com.ficat.easyble.gatt.RetryBudget;
 import com.ficat.easyble.gatt.callback.BleConnectCallback;
 import com.ficat.easyble.gatt.callback.BleConnectionPriorityCallback;
 import com.ficat.easyble.gatt.callback.BleDescriptorReadCallback;
 import com.ficat.easyble.gatt.callback.BleDescriptorWriteCallback;
+import com.ficat.easyble.gatt.callback.BleFrameCallback;
 import com.ficat.easyble.gatt.callback.BleMtuCallback;
+import com.ficat.easyble.gatt.callback.BleNotifyBatchCallback;
 import com.ficat.easyble.gatt.callback.BleNotifyCallback;
 import com.ficat.easyble.gatt.callback.BlePhyPreferenceCallback;
 import com.ficat.easyble.gatt.callback.BlePhyReadCallback;
 import com.ficat.easyble.gatt.callback.BleReadCallback;
 import com.ficat.easyble.gatt.callback.BleRssiCallback;
+import com.ficat.easyble.gatt.callback.BleTransactionCallback;
 import com.ficat.easyble.gatt.callback.BleWriteByBatchCallback;
 import com.ficat.easyble.gatt.callback.BleWriteCallback;
 import com.ficat.easyble.scan.BleScan;
@@ -35,20 +45,72 @@ import com.ficat.easyble.scan.BleScanAccessor;
 import com.ficat.easyble.scan.BleScanCallback;
 import com.ficat.easyble.scan.BleScanFilter;
 import com.ficat.easyble.scan.BleScanRecord;
+import com.ficat.easyble.utils.BatchDataCursor;
 import com.ficat.easyble.utils.BluetoothGattUtils;
+import com.ficat.easyble.utils.FrameDecoder;
 import com.ficat.easyble.utils.Logger;
 import com.ficat.easyble.utils.Utils;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
 public final class BleManager {
+    /**
+     * Policies for a new operation when the operation queue of the device is full, see
+     * {@link #setOperationQueueLimit(int, int)}.
+     * <p>
+     * Reject: the new operation fails with {@link BleErrorCodes#OPERATION_QUEUE_FULL}
+     * Drop oldest: the operation that has waited for the longest time fails with
+     * {@link BleErrorCodes#OPERATION_QUEUE_FULL}, and the new one is queued. A batch writing
+     * suspended halfway is never dropped, if nothing else is waiting it's the same as reject
+     * Block: the calling thread waits for free space for at most the gatt operation timeout,
+     * then it's the same as reject. Note that it never blocks the worker thread (see
+     * {@link #setWorkerLooper(Looper)}) or the main thread, on which it's the same as reject
+     * </p>
+     */
+    public static final int QUEUE_FULL_POLICY_REJECT = 0;
+    public static final int QUEUE_FULL_POLICY_DROP_OLDEST = 1;
+    public static final int QUEUE_FULL_POLICY_BLOCK = 2;
+
+    /**
+     * Policies for a new connection when all connection slots are in use, see
+     * {@link #setConnectionSlots(int, int)}.
+     * <p>
+     * None: the new connection fails with {@link BleErrorCodes#CONNECTION_REACH_MAX_NUM}
+     * LRU idle: disconnect from the connected device that has no gatt operation in progress
+     * or waiting and has been idle for the longest time
+     * Lowest priority: disconnect from the connected device with the lowest
+     * {@link ConnectionOptions#schedulingPriority(int)}, only if it's lower than the one of
+     * the new connection
+     * Oldest: disconnect from the device that has been connected for the longest time
+     * </p>
+     * If no device can be evicted, it's the same as none. The evicted device gets
+     * {@link BleConnectCallback#onDisconnected(BleDevice, int)}.
+     */
+    public static final int EVICTION_POLICY_NONE = 0;
+    public static final int EVICTION_POLICY_LRU_IDLE = 1;
+    public static final int EVICTION_POLICY_LOWEST_PRIORITY = 2;
+    public static final int EVICTION_POLICY_OLDEST = 3;
+
     private Context mContext;
     private ScanOptions mScanOptions;
     private ConnectionOptions mConnectionOptions;
     private long mGattOperationTimeoutMillis = BleGatt.DEFAULT_OPERATION_TIMEOUT_MILLIS;
+    private int mOperationQueueLimit = Integer.MAX_VALUE;
+    private int mOperationQueueFullPolicy = QUEUE_FULL_POLICY_REJECT;
+    private volatile boolean mOperationPriorityEnabled;
+    private int mMaxConcurrentConnections; // 0 means the default of the OS level
+    private int mMaxConnectionNum = BleGatt.MAX_CONNECTION_NUM;
+    private int mConnectionEvictionPolicy = EVICTION_POLICY_NONE;
+    private long mConnectionIntervalMillis = BleGatt.DEFAULT_CONNECTION_INTERVAL_MILLIS;
+    private Looper mWorkerLooper; // Set by users, or the looper of mWorkerThread
+    private HandlerThread mWorkerThread; // Created and quit by BleManager
     private BleScan<BleScanCallback> mScan;
     private BleGatt mGatt;
     private BleReceiver mReceiver;
@@ -113,6 +175,119 @@ public final class BleManager {
         return this;
     }
 
+    /**
+     * Set the max number of operations waiting in the queue of each device, the operation in
+     * progress is not counted. By default the queue is unbounded.
+     *
+     * @param limit      max number of waiting operations per device
+     * @param fullPolicy what to do with a new operation when the queue is full, one of
+     *                   {@link #QUEUE_FULL_POLICY_REJECT}, {@link #QUEUE_FULL_POLICY_DROP_OLDEST}
+     *                   and {@link #QUEUE_FULL_POLICY_BLOCK}
+     */
+    public BleManager setOperationQueueLimit(int limit, int fullPolicy) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Invalid operation queue limit: " + limit);
+        }
+        if (fullPolicy != QUEUE_FULL_POLICY_REJECT && fullPolicy != QUEUE_FULL_POLICY_DROP_OLDEST &&
+                fullPolicy != QUEUE_FULL_POLICY_BLOCK) {
+            throw new IllegalArgumentException("Invalid queue-full policy: " + fullPolicy);
+        }
+        mOperationQueueLimit = limit;
+        mOperationQueueFullPolicy = fullPolicy;
+        return this;
+    }
+
+    /**
+     * Execute gatt operations of each device by priority rather than in the order they are
+     * called. By default all operations are executed in order.
+     * <p>
+     * If enabled, link-level configurations (MTU, PHY preference and connection priority) go
+     * before reads, writes and notifications waiting in the queue, and writing in batches
+     * goes after them and yields to them between two batches. Don't enable it if an operation
+     * relies on the result of an earlier one of lower priority, e.g. a write followed by
+     * {@link #setMtu(BleDevice, int, BleMtuCallback)}. It applies to operations called after
+     * this method.
+     * </p>
+     *
+     * @param enable whether to execute operations by priority
+     */
+    public BleManager setOperationPriority(boolean enable) {
+        mOperationPriorityEnabled = enable;
+        return this;
+    }
+
+    /**
+     * Set the number of connection slots, i.e. the max number of devices connected or
+     * connecting at a time, and what to do when a new connection needs a slot but all slots
+     * are in use. It lets a gateway rotate through more devices than the controller supports
+     * at once, e.g. with {@link #EVICTION_POLICY_LRU_IDLE}.
+     *
+     * @param maxConnections max number of connection slots, {@link #getDefaultMaxConnectionNum()}
+     *                       by default. Note that the controller may not support as many
+     *                       connections as set here
+     * @param evictionPolicy one of {@link #EVICTION_POLICY_NONE}, {@link #EVICTION_POLICY_LRU_IDLE},
+     *                       {@link #EVICTION_POLICY_LOWEST_PRIORITY} and {@link #EVICTION_POLICY_OLDEST}
+     */
+    public BleManager setConnectionSlots(int maxConnections, int evictionPolicy) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("Invalid max connection number: " + maxConnections);
+        }
+        if (evictionPolicy != EVICTION_POLICY_NONE && evictionPolicy != EVICTION_POLICY_LRU_IDLE &&
+                evictionPolicy != EVICTION_POLICY_LOWEST_PRIORITY && evictionPolicy != EVICTION_POLICY_OLDEST) {
+            throw new IllegalArgumentException("Invalid eviction policy: " + evictionPolicy);
+        }
+        mMaxConnectionNum = maxConnections;
+        mConnectionEvictionPolicy = evictionPolicy;
+        return this;
+    }
+
+    /**
+     * Set how direct connection requests are scheduled, auto-connection is not scheduled.
+     * <p>
+     * Connection requests are queued and at most maxConcurrent of them are in progress at a
+     * time, a request is in progress until the connection is established or it finally fails
+     * (connection retries included). Waiting requests are started in order of
+     * {@link ConnectionOptions#schedulingPriority(int)}, then
+     * {@link ConnectionOptions#lastSeenRssi(int)}, then arrival.
+     * </p>
+     *
+     * @param maxConcurrent  max number of connection requests in progress, 0 to use the
+     *                       default: 1 below Android 10, which handles one connection request
+     *                       at a time, otherwise {@link #getMaxConnectionNum()}
+     * @param intervalMillis min interval between starting two connection requests
+     */
+    public BleManager setConnectionScheduling(int maxConcurrent, long intervalMillis) {
+        if (maxConcurrent < 0) {
+            throw new IllegalArgumentException("Invalid max concurrent connection number: " + maxConcurrent);
+        }
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("Invalid connection interval: " + intervalMillis);
+        }
+        mMaxConcurrentConnections = maxConcurrent;
+        mConnectionIntervalMillis = intervalMillis;
+        return this;
+    }
+
+    /**
+     * Set the looper that runs internal gatt work, like timeouts, connection retries, batch
+     * pacing and advancing operation queues. By default a background thread shared by all
+     * devices is started on demand and quit on {@link #destroy()}.
+     * <p>
+     * Results are always delivered on the main thread. Note that it only takes effect for
+     * devices connected after it's called, and the looper set here will not be quit by
+     * BleManager.
+     * </p>
+     *
+     * @param looper worker looper, null to use the default background thread
+     */
+    public synchronized BleManager setWorkerLooper(Looper looper) {
+        if (looper == Looper.getMainLooper()) {
+            Logger.i("The main looper is set as the worker looper, gatt timers may be delayed by UI work");
+        }
+        mWorkerLooper = looper;
+        return this;
+    }
+
     public boolean isScanning() {
         return mScan.isScanning();
     }
@@ -134,7 +309,8 @@ public final class BleManager {
         if (Build.VERSION.SDK_INT >= 24 && !Utils.isGpsOn(mContext)) {
             Logger.i("You'd better turn on GPS to avoid that scan doesn't work");
         }
-        mScan.startScan(options.getScanPeriod(), options.getScanFilters(), callback);
+        mScan.startScan(options.getScanPeriod(), options.getScanFilters(), options.getReportInterval(),
+                options.getRssiChangeThreshold(), options.isReportOnPayloadChange(), callback);
     }
 
     /**
@@ -169,8 +345,7 @@ public final class BleManager {
         if (options == null) {
             options = ConnectionOptions.newInstance();
         }
-        mGatt.connect(options.mConnectionPeriod, options.mRetryCount, options.mRetryDelay,
-                options.mAutoConnect, device, callback);
+        mGatt.connect(device, options, callback);
     }
 
     /**
@@ -239,8 +414,24 @@ public final class BleManager {
      *                    the characteristic must support notification or indication, or it
      *                    will call back onFailureure()
      * @param callback    notification callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable notify(BleDevice device, UUID serviceUuid, UUID notifyUuid, BleNotifyCallback callback) {
+        return notify(device, serviceUuid, notifyUuid, null, callback);
+    }
+
+    /**
+     * Listen notification/indication with the specified options, see {@link OperationOptions}
+     *
+     * @param device      remote device
+     * @param serviceUuid service uuid which the notification or indication uuid belongs to
+     * @param notifyUuid  characteristic uuid that you wanna notify or indicate
+     * @param options     operation options
+     * @param callback    notification callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
      */
-    public void notify(BleDevice device, UUID serviceUuid, UUID notifyUuid, BleNotifyCallback callback) {
+    public Cancelable notify(BleDevice device, UUID serviceUuid, UUID notifyUuid, OperationOptions options,
+                             BleNotifyCallback callback) {
         if (device == null) {
             throw new IllegalArgumentException("BleDevice is null");
         }
@@ -250,7 +441,159 @@ public final class BleManager {
         if (callback == null) {
             throw new IllegalArgumentException("BleNotifyCallback is null");
         }
-        mGatt.notify(device, serviceUuid, notifyUuid, callback);
+        if (options == null) {
+            options = OperationOptions.newInstance();
+        }
+        return mGatt.notify(device, serviceUuid, notifyUuid, options, callback);
+    }
+
+    /**
+     * Listen notification/indication and receive notifications in batches rather than one by
+     * one, it's useful if the remote device notifies frequently and notifications are
+     * processed in bulk, see {@link NotifyBatchOptions}
+     * <p>
+     * Once notifications are disabled, or the device disconnects or is released, a partial
+     * batch that is still waiting for its time window is dropped.
+     *
+     * @param device      remote device
+     * @param serviceUuid service uuid which the notification or indication uuid belongs to
+     * @param notifyUuid  characteristic uuid that you wanna notify or indicate
+     * @param options     batch options, null means the default options
+     * @param callback    batched notification callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable notifyByBatch(BleDevice device, UUID serviceUuid, UUID notifyUuid, NotifyBatchOptions options,
+                                    BleNotifyBatchCallback callback) {
+        if (device == null) {
+            throw new IllegalArgumentException("BleDevice is null");
+        }
+        if (serviceUuid == null || notifyUuid == null) {
+            throw new IllegalArgumentException("UUID is null");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("BleNotifyBatchCallback is null");
+        }
+        if (options == null) {
+            options = NotifyBatchOptions.newInstance();
+        }
+        return mGatt.notifyByBatch(device, serviceUuid, notifyUuid, options, callback);
+    }
+
+    /**
+     * Listen notification/indication and receive whole frames reassembled from notifications
+     * by the decoder, it's the receiving counterpart of
+     * {@link #writeByBatch(BleDevice, UUID, UUID, byte[], BatchWriteOptions, BleWriteByBatchCallback)}
+     *
+     * @param device      remote device
+     * @param serviceUuid service uuid which the notification or indication uuid belongs to
+     * @param notifyUuid  characteristic uuid that you wanna notify or indicate
+     * @param decoder     frame decoder, like {@link com.ficat.easyble.utils.LengthFieldFrameDecoder},
+     *                    {@link com.ficat.easyble.utils.DelimiterFrameDecoder},
+     *                    {@link com.ficat.easyble.utils.SlipFrameDecoder},
+     *                    {@link com.ficat.easyble.utils.CobsFrameDecoder} or your own. Note that
+     *                    a decoder is stateful, do not share it between characteristics
+     * @param callback    frame callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable notifyByFrame(BleDevice device, UUID serviceUuid, UUID notifyUuid, FrameDecoder decoder,
+                                    BleFrameCallback callback) {
+        return notifyByFrame(device, serviceUuid, notifyUuid, decoder, null, callback);
+    }
+
+    /**
+     * Listen notification/indication and receive whole frames with the specified options,
+     * see {@link #notifyByFrame(BleDevice, UUID, UUID, FrameDecoder, BleFrameCallback)}
+     *
+     * @param device      remote device
+     * @param serviceUuid service uuid which the notification or indication uuid belongs to
+     * @param notifyUuid  characteristic uuid that you wanna notify or indicate
+     * @param decoder     frame decoder
+     * @param options     operation options
+     * @param callback    frame callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable notifyByFrame(BleDevice device, UUID serviceUuid, UUID notifyUuid, FrameDecoder decoder,
+                                    OperationOptions options, BleFrameCallback callback) {
+        if (device == null) {
+            throw new IllegalArgumentException("BleDevice is null");
+        }
+        if (serviceUuid == null || notifyUuid == null) {
+            throw new IllegalArgumentException("UUID is null");
+        }
+        if (decoder == null) {
+            throw new IllegalArgumentException("FrameDecoder is null");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("BleFrameCallback is null");
+        }
+        if (options == null) {
+            options = OperationOptions.newInstance();
+        }
+        return mGatt.notifyByFrame(device, serviceUuid, notifyUuid, decoder, options, callback);
+    }
+
+    /**
+     * Write a request and wait for its response notified by the remote device.
+     * <p>
+     * The response characteristic is notified automatically if notification hasn't been
+     * enabled, and it's disabled again once no outstanding transaction needs it, unless the app
+     * has enabled it itself meanwhile. Every notification of the response characteristic is checked by the matcher
+     * against outstanding transactions whose requests have been written, in the order they
+     * were issued, and the first match completes that transaction, in this case the
+     * notification is not passed to the notification callback. Outstanding transactions fail
+     * once the connection is lost or released. Several transactions can be outstanding at the same time, their
+     * requests are written in order without waiting for former responses.
+     * </p>
+     *
+     * @param device      remote device
+     * @param serviceUuid service uuid which both characteristics belong to
+     * @param writeUuid   characteristic uuid the request is written to
+     * @param notifyUuid  characteristic uuid the response is notified by
+     * @param request     request data
+     * @param matcher     pairs a notification with the request, see {@link ResponseMatcher.ById}
+     * @param callback    transaction callback
+     * @return a handle to cancel the transaction, see {@link Cancelable#cancel()}
+     */
+    public Cancelable transact(BleDevice device, UUID serviceUuid, UUID writeUuid, UUID notifyUuid, byte[] request,
+                               ResponseMatcher matcher, BleTransactionCallback callback) {
+        return transact(device, serviceUuid, writeUuid, notifyUuid, request, matcher, null, callback);
+    }
+
+    /**
+     * Write a request and wait for its response with the specified options, see
+     * {@link #transact(BleDevice, UUID, UUID, UUID, byte[], ResponseMatcher, BleTransactionCallback)}
+     *
+     * @param device      remote device
+     * @param serviceUuid service uuid which both characteristics belong to
+     * @param writeUuid   characteristic uuid the request is written to
+     * @param notifyUuid  characteristic uuid the response is notified by
+     * @param request     request data
+     * @param matcher     pairs a notification with the request
+     * @param options     transaction options
+     * @param callback    transaction callback
+     * @return a handle to cancel the transaction, see {@link Cancelable#cancel()}
+     */
+    public Cancelable transact(BleDevice device, UUID serviceUuid, UUID writeUuid, UUID notifyUuid, byte[] request,
+                               ResponseMatcher matcher, TransactionOptions options, BleTransactionCallback callback) {
+        if (device == null) {
+            throw new IllegalArgumentException("BleDevice is null");
+        }
+        if (serviceUuid == null || writeUuid == null || notifyUuid == null) {
+            throw new IllegalArgumentException("UUID is null");
+        }
+        if (request == null) {
+            throw new IllegalArgumentException("Request data is null");
+        }
+        if (matcher == null) {
+            throw new IllegalArgumentException("ResponseMatcher is null");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("BleTransactionCallback is null");
+        }
+        if (options == null) {
+            options = TransactionOptions.newInstance();
+        }
+        return mGatt.transact(device, serviceUuid, writeUuid, notifyUuid, request, matcher, options, callback);
     }
 
     /**
@@ -259,15 +602,16 @@ public final class BleManager {
      * @param device             remote device
      * @param serviceUuid        service uuid
      * @param characteristicUuid characteristic uuid you want to stop notifying or indicating
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
      */
-    public void cancelNotify(BleDevice device, UUID serviceUuid, UUID characteristicUuid) {
+    public Cancelable cancelNotify(BleDevice device, UUID serviceUuid, UUID characteristicUuid) {
         if (device == null) {
             throw new IllegalArgumentException("BleDevice is null");
         }
         if (serviceUuid == null) {
             throw new IllegalArgumentException("Service uuid is null");
         }
-        mGatt.cancelNotify(device, serviceUuid, characteristicUuid);
+        return mGatt.cancelNotify(device, serviceUuid, characteristicUuid);
     }
 
     /**
@@ -279,9 +623,26 @@ public final class BleManager {
      *                    characteristic must be writable, or it will call back onFailure()
      * @param data        data
      * @param callback    result callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable write(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data,
+                            BleWriteCallback callback) {
+        return write(device, serviceUuid, writeUuid, data, null, callback);
+    }
+
+    /**
+     * Write data with the specified options, see {@link OperationOptions}
+     *
+     * @param device      remote device
+     * @param serviceUuid service uuid that the writable characteristic belongs to
+     * @param writeUuid   characteristic uuid which you write data
+     * @param data        data
+     * @param options     operation options
+     * @param callback    result callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
      */
-    public void write(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data,
-                      BleWriteCallback callback) {
+    public Cancelable write(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data,
+                            OperationOptions options, BleWriteCallback callback) {
         if (device == null) {
             throw new IllegalArgumentException("BleDevice is null");
         }
@@ -294,12 +655,15 @@ public final class BleManager {
         if (data == null || data.length <= 0) {
             throw new IllegalArgumentException("Data is null");
         }
-        mGatt.write(device, serviceUuid, writeUuid, data, callback);
+        if (options == null) {
+            options = OperationOptions.newInstance();
+        }
+        return mGatt.write(device, serviceUuid, writeUuid, data, options, callback);
     }
 
-    public void writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data,
-                             int lengthPerPackage, BleWriteByBatchCallback callback) {
-        writeByBatch(device, serviceUuid, writeUuid, data, lengthPerPackage, 0L, callback);
+    public Cancelable writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data,
+                                   int lengthPerPackage, BleWriteByBatchCallback callback) {
+        return writeByBatch(device, serviceUuid, writeUuid, data, lengthPerPackage, 0L, callback);
     }
 
     /**
@@ -314,9 +678,114 @@ public final class BleManager {
      * @param lengthPerBatch data length per batch
      * @param batchInterval  the interval of batches
      * @param callback       result callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data,
+                                   int lengthPerBatch, long batchInterval, BleWriteByBatchCallback callback) {
+        return writeByBatch(device, serviceUuid, writeUuid, data, BatchWriteOptions.newInstance()
+                .lengthPerBatch(lengthPerBatch)
+                .batchInterval(batchInterval), callback);
+    }
+
+    /**
+     * Write by batch with the specified options, see {@link BatchWriteOptions}
+     *
+     * @param device      remote device
+     * @param serviceUuid service uuid that the writable characteristic belongs to
+     * @param writeUuid   characteristic uuid which you write data, note that the
+     *                    characteristic must be writable, or it will call back onFailure()
+     * @param data        data
+     * @param options     batch options, like length per batch, batch interval and whether
+     *                    to write without response
+     * @param callback    result callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data,
+                                   BatchWriteOptions options, BleWriteByBatchCallback callback) {
+        if (data == null || data.length <= 0) {
+            throw new IllegalArgumentException("Data is null");
+        }
+        return writeByBatch(device, serviceUuid, writeUuid, new BatchDataCursor(data), options, callback);
+    }
+
+    /**
+     * Write by batch, the data is taken from the remaining part of the buffer, it is useful
+     * for writing a memory-mapped file region ({@link java.nio.MappedByteBuffer}) without
+     * copying it into a byte array. Note that the originalData of callback will be null.
+     *
+     * @param device      remote device
+     * @param serviceUuid service uuid that the writable characteristic belongs to
+     * @param writeUuid   characteristic uuid which you write data
+     * @param data        data buffer, its position and limit will not be changed
+     * @param options     batch options, see {@link BatchWriteOptions}
+     * @param callback    result callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, ByteBuffer data,
+                                   BatchWriteOptions options, BleWriteByBatchCallback callback) {
+        if (data == null || !data.hasRemaining()) {
+            throw new IllegalArgumentException("Data is null");
+        }
+        return writeByBatch(device, serviceUuid, writeUuid, new BatchDataCursor(data), options, callback);
+    }
+
+    /**
+     * Write by batch, the data is pulled from the input stream batch by batch rather than
+     * being loaded into memory at once, so it is suitable for large data like firmware files.
+     * The stream is only read on the worker thread of EasyBle, see {@link #setWorkerLooper(Looper)}.
+     * Note that the input stream will not be closed after writing, and the originalData of
+     * callback will be null.
+     *
+     * @param device      remote device
+     * @param serviceUuid service uuid that the writable characteristic belongs to
+     * @param writeUuid   characteristic uuid which you write data
+     * @param in          input stream
+     * @param length      the length of data to write, it's used to calculate the progress,
+     *                    if the stream ends early it will call back onWriteBatchFailed() with
+     *                    {@link BleErrorCodes#BATCH_DATA_READ_FAILED}
+     * @param options     batch options, see {@link BatchWriteOptions}
+     * @param callback    result callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, InputStream in,
+                                   int length, BatchWriteOptions options, BleWriteByBatchCallback callback) {
+        if (in == null) {
+            throw new IllegalArgumentException("InputStream is null");
+        }
+        if (length <= 0) {
+            throw new IllegalArgumentException("Invalid length=" + length);
+        }
+        return writeByBatch(device, serviceUuid, writeUuid, new BatchDataCursor(in, length), options, callback);
+    }
+
+    /**
+     * Write by batch, the data is pulled from the channel (e.g. {@link java.nio.channels.FileChannel})
+     * batch by batch. The channel must be blocking, and it's only read on the worker thread of
+     * EasyBle, see {@link #setWorkerLooper(Looper)}. Note that the channel will not be closed
+     * after writing, and the originalData of callback will be null.
+     *
+     * @param device      remote device
+     * @param serviceUuid service uuid that the writable characteristic belongs to
+     * @param writeUuid   characteristic uuid which you write data
+     * @param channel     readable channel
+     * @param length      the length of data to write
+     * @param options     batch options, see {@link BatchWriteOptions}
+     * @param callback    result callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
      */
-    public void writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data,
-                             int lengthPerBatch, long batchInterval, BleWriteByBatchCallback callback) {
+    public Cancelable writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, ReadableByteChannel channel,
+                                   int length, BatchWriteOptions options, BleWriteByBatchCallback callback) {
+        if (channel == null) {
+            throw new IllegalArgumentException("ReadableByteChannel is null");
+        }
+        if (length <= 0) {
+            throw new IllegalArgumentException("Invalid length=" + length);
+        }
+        return writeByBatch(device, serviceUuid, writeUuid, new BatchDataCursor(channel, length), options, callback);
+    }
+
+    private Cancelable writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, BatchDataCursor data,
+                                    BatchWriteOptions options, BleWriteByBatchCallback callback) {
         if (device == null) {
             throw new IllegalArgumentException("BleDevice is null");
         }
@@ -326,10 +795,10 @@ public final class BleManager {
         if (serviceUuid == null || writeUuid == null) {
             throw new IllegalArgumentException("UUID is null");
         }
-        if (data == null || data.length <= 0) {
-            throw new IllegalArgumentException("Data is null");
+        if (options == null) {
+            options = BatchWriteOptions.newInstance();
         }
-        mGatt.writeByBatch(device, serviceUuid, writeUuid, data, lengthPerBatch, batchInterval, callback);
+        return mGatt.writeByBatch(device, serviceUuid, writeUuid, data, options, callback);
     }
 
     /**
@@ -340,8 +809,24 @@ public final class BleManager {
      * @param readUuid    characteristic uuid you wanna read, note that the characteristic
      *                    must be readable, or it will call back onFailure()
      * @param callback    the read callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable read(BleDevice device, UUID serviceUuid, UUID readUuid, BleReadCallback callback) {
+        return read(device, serviceUuid, readUuid, null, callback);
+    }
+
+    /**
+     * Read data with the specified options, see {@link OperationOptions}
+     *
+     * @param device      remote device
+     * @param serviceUuid service uuid that the readable characteristic belongs to
+     * @param readUuid    characteristic uuid you wanna read
+     * @param options     operation options
+     * @param callback    the read callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
      */
-    public void read(BleDevice device, UUID serviceUuid, UUID readUuid, BleReadCallback callback) {
+    public Cancelable read(BleDevice device, UUID serviceUuid, UUID readUuid, OperationOptions options,
+                           BleReadCallback callback) {
         if (device == null) {
             throw new IllegalArgumentException("BleDevice is null");
         }
@@ -351,7 +836,10 @@ public final class BleManager {
         if (callback == null) {
             throw new IllegalArgumentException("BleReadCallback is null");
         }
-        mGatt.read(device, serviceUuid, readUuid, callback);
+        if (options == null) {
+            options = OperationOptions.newInstance();
+        }
+        return mGatt.read(device, serviceUuid, readUuid, options, callback);
     }
 
     /**
@@ -359,15 +847,31 @@ public final class BleManager {
      *
      * @param device   remote device
      * @param callback result callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable readRssi(BleDevice device, BleRssiCallback callback) {
+        return readRssi(device, null, callback);
+    }
+
+    /**
+     * Read the remote device rssi with the specified options, see {@link OperationOptions}
+     *
+     * @param device   remote device
+     * @param options  operation options
+     * @param callback result callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
      */
-    public void readRssi(BleDevice device, BleRssiCallback callback) {
+    public Cancelable readRssi(BleDevice device, OperationOptions options, BleRssiCallback callback) {
         if (device == null) {
             throw new IllegalArgumentException("BleDevice is null");
         }
         if (callback == null) {
             throw new IllegalArgumentException("BleRssiCallback is null");
         }
-        mGatt.readRssi(device, callback);
+        if (options == null) {
+            options = OperationOptions.newInstance();
+        }
+        return mGatt.readRssi(device, options, callback);
     }
 
     /**
@@ -378,15 +882,32 @@ public final class BleManager {
      *                 maximum transmission is (MTU - 3). For example, if the mtu we requested
      *                 is 23, the max data length that we can write/read is 20 (23 - 3)
      * @param callback result callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable setMtu(BleDevice device, int mtu, BleMtuCallback callback) {
+        return setMtu(device, mtu, null, callback);
+    }
+
+    /**
+     * Set MTU with the specified options, see {@link OperationOptions}
+     *
+     * @param device   remote device
+     * @param mtu      MTU, rang from 23 to 515
+     * @param options  operation options
+     * @param callback result callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
      */
-    public void setMtu(BleDevice device, int mtu, BleMtuCallback callback) {
+    public Cancelable setMtu(BleDevice device, int mtu, OperationOptions options, BleMtuCallback callback) {
         if (device == null) {
             throw new IllegalArgumentException("BleDevice is null");
         }
         if (callback == null) {
             throw new IllegalArgumentException("BleMtuCallback is null");
         }
-        mGatt.setMtu(device, mtu, callback);
+        if (options == null) {
+            options = OperationOptions.newInstance();
+        }
+        return mGatt.setMtu(device, mtu, options, callback);
     }
 
     /**
@@ -401,9 +922,28 @@ public final class BleManager {
      * @param descriptorUuid     target descriptor uuid
      * @param data               data
      * @param callback           callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable descriptorWrite(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
+                                      UUID descriptorUuid, byte[] data, BleDescriptorWriteCallback callback) {
+        return descriptorWrite(device, serviceUuid, characteristicUuid, descriptorUuid, data, null, callback);
+    }
+
+    /**
+     * Write the value of a given descriptor with the specified options, see {@link OperationOptions}
+     *
+     * @param device             the remote device
+     * @param serviceUuid        service uuid
+     * @param characteristicUuid characteristic uuid
+     * @param descriptorUuid     target descriptor uuid
+     * @param data               data
+     * @param options            operation options
+     * @param callback           callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
      */
-    public void descriptorWrite(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
-                                UUID descriptorUuid, byte[] data, BleDescriptorWriteCallback callback) {
+    public Cancelable descriptorWrite(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
+                                      UUID descriptorUuid, byte[] data, OperationOptions options,
+                                      BleDescriptorWriteCallback callback) {
         if (device == null) {
             throw new IllegalArgumentException("BleDevice is null");
         }
@@ -416,7 +956,10 @@ public final class BleManager {
         if (callback == null) {
             throw new IllegalArgumentException("BleDescriptorWriteCallback is null");
         }
-        mGatt.descriptorWrite(device, serviceUuid, characteristicUuid, descriptorUuid, data, callback);
+        if (options == null) {
+            options = OperationOptions.newInstance();
+        }
+        return mGatt.descriptorWrite(device, serviceUuid, characteristicUuid, descriptorUuid, data, options, callback);
     }
 
     /**
@@ -430,9 +973,27 @@ public final class BleManager {
      * @param characteristicUuid characteristic uuid
      * @param descriptorUuid     target descriptor uuid
      * @param callback           callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable descriptorRead(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
+                                     UUID descriptorUuid, BleDescriptorReadCallback callback) {
+        return descriptorRead(device, serviceUuid, characteristicUuid, descriptorUuid, null, callback);
+    }
+
+    /**
+     * Read the value of a given descriptor with the specified options, see {@link OperationOptions}
+     *
+     * @param device             the remote device
+     * @param serviceUuid        service uuid
+     * @param characteristicUuid characteristic uuid
+     * @param descriptorUuid     target descriptor uuid
+     * @param options            operation options
+     * @param callback           callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
      */
-    public void descriptorRead(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
-                               UUID descriptorUuid, BleDescriptorReadCallback callback) {
+    public Cancelable descriptorRead(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
+                                     UUID descriptorUuid, OperationOptions options,
+                                     BleDescriptorReadCallback callback) {
         if (device == null) {
             throw new IllegalArgumentException("BleDevice is null");
         }
@@ -442,7 +1003,10 @@ public final class BleManager {
         if (callback == null) {
             throw new IllegalArgumentException("BleDescriptorReadCallback is null");
         }
-        mGatt.descriptorRead(device, serviceUuid, characteristicUuid, descriptorUuid, callback);
+        if (options == null) {
+            options = OperationOptions.newInstance();
+        }
+        return mGatt.descriptorRead(device, serviceUuid, characteristicUuid, descriptorUuid, options, callback);
     }
 
     /**
@@ -451,15 +1015,31 @@ public final class BleManager {
      *
      * @param device   the remote device
      * @param callback callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable readPhy(BleDevice device, BlePhyReadCallback callback) {
+        return readPhy(device, null, callback);
+    }
+
+    /**
+     * Read the current PHY with the specified options, see {@link OperationOptions}
+     *
+     * @param device   the remote device
+     * @param options  operation options
+     * @param callback callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
      */
-    public void readPhy(BleDevice device, BlePhyReadCallback callback) {
+    public Cancelable readPhy(BleDevice device, OperationOptions options, BlePhyReadCallback callback) {
         if (device == null) {
             throw new IllegalArgumentException("BleDevice is null");
         }
         if (callback == null) {
             throw new IllegalArgumentException("BlePhyReadCallback is null");
         }
-        mGatt.readPhy(device, callback);
+        if (options == null) {
+            options = OperationOptions.newInstance();
+        }
+        return mGatt.readPhy(device, options, callback);
     }
 
     /**
@@ -487,16 +1067,36 @@ public final class BleManager {
      *                   {@link BluetoothDevice#PHY_OPTION_S2},
      *                   {@link BluetoothDevice#PHY_OPTION_S8}.
      * @param callback   callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
      */
-    public void setPreferencePhy(BleDevice device, int txPhy, int rxPhy, int phyOptions,
-                                 BlePhyPreferenceCallback callback) {
-        if (device == null) {
-            throw new IllegalArgumentException("BleDevice is null");
-        }
+    public Cancelable setPreferencePhy(BleDevice device, int txPhy, int rxPhy, int phyOptions,
+                                       BlePhyPreferenceCallback callback) {
+        return setPreferencePhy(device, txPhy, rxPhy, phyOptions, null, callback);
+    }
+
+    /**
+     * Set the preferred connection PHY with the specified options, see {@link OperationOptions}
+     *
+     * @param device     the remote device
+     * @param txPhy      preferred transmitter PHY
+     * @param rxPhy      preferred receiver PHY
+     * @param phyOptions preferred coding to use when transmitting on the LE Coded PHY
+     * @param options    operation options
+     * @param callback   callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable setPreferencePhy(BleDevice device, int txPhy, int rxPhy, int phyOptions,
+                                       OperationOptions options, BlePhyPreferenceCallback callback) {
+        if (device == null) {
+            throw new IllegalArgumentException("BleDevice is null");
+        }
         if (callback == null) {
             throw new IllegalArgumentException("BlePhyPreferenceCallback is null");
         }
-        mGatt.setPreferencePhy(device, txPhy, rxPhy, phyOptions, callback);
+        if (options == null) {
+            options = OperationOptions.newInstance();
+        }
+        return mGatt.setPreferencePhy(device, txPhy, rxPhy, phyOptions, options, callback);
     }
 
     /**
@@ -513,9 +1113,24 @@ public final class BleManager {
      *                     {@link BluetoothGatt#CONNECTION_PRIORITY_LOW_POWER}
      *                     {@link BluetoothGatt#CONNECTION_PRIORITY_DCK}
      * @param callback     callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
+     */
+    public Cancelable requestConnectionPriority(BleDevice device, int connPriority,
+                                                BleConnectionPriorityCallback callback) {
+        return requestConnectionPriority(device, connPriority, null, callback);
+    }
+
+    /**
+     * Request a connection parameter update with the specified options, see {@link OperationOptions}
+     *
+     * @param device       the remote device
+     * @param connPriority request a specific connection priority
+     * @param options      operation options
+     * @param callback     callback
+     * @return a handle to cancel the operation, see {@link Cancelable#cancel()}
      */
-    public void requestConnectionPriority(BleDevice device, int connPriority,
-                                          BleConnectionPriorityCallback callback) {
+    public Cancelable requestConnectionPriority(BleDevice device, int connPriority, OperationOptions options,
+                                                BleConnectionPriorityCallback callback) {
         if (device == null) {
             throw new IllegalArgumentException("BleDevice is null");
         }
@@ -530,7 +1145,10 @@ public final class BleManager {
                     "Invalid connection priority=%d, it must be from %d to %d",
                     connPriority, 0, 3));
         }
-        mGatt.requestConnectionPriority(device, connPriority, callback);
+        if (options == null) {
+            options = OperationOptions.newInstance();
+        }
+        return mGatt.requestConnectionPriority(device, connPriority, options, callback);
     }
 
     /**
@@ -566,6 +1184,22 @@ public final class BleManager {
         return mGatt.getConnectingDevices();
     }
 
+    /**
+     * Get the number of connected devices, it's cheaper than {@link #getConnectedDevices()}
+     * since no list is created
+     */
+    public int getConnectedDeviceCount() {
+        return mGatt.getConnectedDeviceCount();
+    }
+
+    /**
+     * Get the number of connecting devices, it's cheaper than {@link #getConnectingDevices()}
+     * since no list is created
+     */
+    public int getConnectingDeviceCount() {
+        return mGatt.getConnectingDeviceCount();
+    }
+
     /**
      * Return true if the remote device has connected with local device
      *
@@ -638,6 +1272,14 @@ public final class BleManager {
         mScanOptions = null;
         mConnectionOptions = null;
         mContext = null;
+        synchronized (this) {
+            if (mWorkerThread != null) {
+                // Let the internal work that is already due finish
+                mWorkerThread.quitSafely();
+                mWorkerThread = null;
+            }
+            mWorkerLooper = null;
+        }
     }
 
     /**
@@ -873,10 +1515,64 @@ public final class BleManager {
         return mConnectionOptions == null ? ConnectionOptions.newInstance() : mConnectionOptions;
     }
 
+    public synchronized Looper getWorkerLooper() {
+        if (mWorkerLooper == null) {
+            if (mWorkerThread == null) {
+                mWorkerThread = new HandlerThread("EasyBle-Worker");
+                mWorkerThread.start();
+            }
+            mWorkerLooper = mWorkerThread.getLooper();
+        }
+        return mWorkerLooper;
+    }
+
     public long getGattOperationTimeout() {
         return mGattOperationTimeoutMillis;
     }
 
+    public int getOperationQueueLimit() {
+        return mOperationQueueLimit;
+    }
+
+    public int getOperationQueueFullPolicy() {
+        return mOperationQueueFullPolicy;
+    }
+
+    public boolean isOperationPriorityEnabled() {
+        return mOperationPriorityEnabled;
+    }
+
+    public int getMaxConcurrentConnections() {
+        if (mMaxConcurrentConnections > 0) {
+            return mMaxConcurrentConnections;
+        }
+        return Build.VERSION.SDK_INT < 29 ? 1 : mMaxConnectionNum;
+    }
+
+    public long getConnectionInterval() {
+        return mConnectionIntervalMillis;
+    }
+
+    public int getMaxConnectionNum() {
+        return mMaxConnectionNum;
+    }
+
+    public int getConnectionEvictionPolicy() {
+        return mConnectionEvictionPolicy;
+    }
+
+    /**
+     * Get the number of operations waiting in the queue of the device, the operation in
+     * progress is not counted
+     *
+     * @param address mac address
+     * @return the number of waiting operations
+     */
+    public int getPendingOperationCount(String address) {
+        checkBluetoothAddress(address);
+        return mGatt.getPendingOperationCount(address);
+    }
+
     /**
      * Get the BluetoothGatt object of specific remote device
      *
@@ -950,6 +1646,9 @@ public final class BleManager {
         private long mScanPeriod = 12000;
         private final BleScanFilter.Builder mScanFilterBuilder = new BleScanFilter.Builder();
         private List<BleScanFilter> mScanFilters;
+        private long mReportInterval;
+        private int mRssiChangeThreshold;
+        private boolean mReportOnPayloadChange;
 
         private ScanOptions() {
 
@@ -1031,6 +1730,48 @@ public final class BleManager {
             return this;
         }
 
+        /**
+         * Report a device at most once per interval, i.e. scan results of a device received
+         * within the interval since its last report are dropped unless another report rule
+         * ({@link #rssiChangeThreshold(int)}, {@link #reportOnPayloadChange(boolean)}) is met.
+         * <p>
+         * Once any report rule is set, the first scan result of every device is always
+         * reported, later ones are reported only if a rule is met, and the same
+         * {@link BleDevice} instance is reported for a device during a scan. By default no
+         * rule is set and every scan result is reported.
+         * </p>
+         *
+         * @param millis min interval between two reports of a device, 0 to disable
+         */
+        public ScanOptions reportInterval(long millis) {
+            if (millis >= 0) {
+                this.mReportInterval = millis;
+            }
+            return this;
+        }
+
+        /**
+         * Report a device once its rssi differs from the last reported one by at least
+         * the threshold, see {@link #reportInterval(long)}
+         *
+         * @param dB rssi change threshold, 0 to disable
+         */
+        public ScanOptions rssiChangeThreshold(int dB) {
+            if (dB >= 0) {
+                this.mRssiChangeThreshold = dB;
+            }
+            return this;
+        }
+
+        /**
+         * Report a device once its scan record differs from the last reported one, see
+         * {@link #reportInterval(long)}
+         */
+        public ScanOptions reportOnPayloadChange(boolean reportOnPayloadChange) {
+            this.mReportOnPayloadChange = reportOnPayloadChange;
+            return this;
+        }
+
         public ScanOptions addScanFilter(BleScanFilter filter) {
             if (filter == null) {
                 return this;
@@ -1083,6 +1824,18 @@ public final class BleManager {
             return mScanPeriod;
         }
 
+        public long getReportInterval() {
+            return mReportInterval;
+        }
+
+        public int getRssiChangeThreshold() {
+            return mRssiChangeThreshold;
+        }
+
+        public boolean isReportOnPayloadChange() {
+            return mReportOnPayloadChange;
+        }
+
         public String getScanDeviceName() {
             return mScanFilterBuilder.build().getDeviceName();
         }
@@ -1104,7 +1857,12 @@ public final class BleManager {
         private long mConnectionPeriod = 10000;
         private int mRetryCount = 0;
         private long mRetryDelay = 3000;
+        private BleRetryPolicy mRetryPolicy;
+        private RetryBudget mRetryBudget;
         private boolean mAutoConnect = false;
+        private int mSchedulingPriority = 0;
+        private int mLastSeenRssi = Integer.MIN_VALUE;
+        private Executor mCallbackExecutor;
 
         private ConnectionOptions() {
 
@@ -1195,6 +1953,83 @@ public final class BleManager {
             }
             this.mRetryCount = retryCount;
             this.mRetryDelay = retryDelayMillis;
+            this.mRetryPolicy = null;
+            return this;
+        }
+
+        /**
+         * Retry connection if connection failed, waiting a delay decided by the retry policy
+         * before every retry, e.g. {@link BleRetryPolicy.Exponential} or
+         * {@link BleRetryPolicy.DecorrelatedJitter} so that devices failed at the same time
+         * don't retry in lockstep. See {@link #retryWhenConnectionFailed(int, long)} for what
+         * triggers a retry.
+         *
+         * @param retryCount  retry count, from 0 to 8
+         * @param retryPolicy retry policy
+         */
+        public ConnectionOptions retryWhenConnectionFailed(int retryCount, BleRetryPolicy retryPolicy) {
+            if (retryPolicy == null) {
+                throw new IllegalArgumentException("BleRetryPolicy is null");
+            }
+            retryWhenConnectionFailed(retryCount, mRetryDelay);
+            this.mRetryPolicy = retryPolicy;
+            return this;
+        }
+
+        /**
+         * Set a budget that every connection retry takes from, a retry is not made if the
+         * budget is used up. Share one budget among the connection options of a fleet of
+         * devices to limit their retries in total.
+         *
+         * @param budget retry budget, null means unlimited
+         */
+        public ConnectionOptions retryBudget(RetryBudget budget) {
+            this.mRetryBudget = budget;
+            return this;
+        }
+
+        /**
+         * Set the priority of this connection request when it waits for other connection
+         * requests, see {@link BleManager#setConnectionScheduling(int, long)}. It's also the
+         * priority of the connection for {@link BleManager#EVICTION_POLICY_LOWEST_PRIORITY}
+         *
+         * @param priority the greater, the earlier, 0 by default
+         */
+        public ConnectionOptions schedulingPriority(int priority) {
+            this.mSchedulingPriority = priority;
+            return this;
+        }
+
+        /**
+         * Set the rssi at which the device was last seen, e.g. the one reported by
+         * {@link BleScanCallback#onScanning(BleDevice, int, byte[])}. Among waiting connection
+         * requests of the same priority, the device with the strongest signal is connected first
+         *
+         * @param rssi last seen rssi
+         */
+        public ConnectionOptions lastSeenRssi(int rssi) {
+            this.mLastSeenRssi = rssi;
+            return this;
+        }
+
+        /**
+         * Set the executor that runs the callbacks of this device.
+         * <p>
+         * By default all callbacks are called on the main thread. If an executor is set here,
+         * the connection callback and the results of gatt operations on this device are
+         * delivered by it instead, unless an operation sets its own executor, see
+         * {@link OperationOptions#callbackExecutor(Executor)}. Notifications are delivered by
+         * it as well, otherwise they are called on the bluetooth binder thread directly.
+         * </p>
+         * The executor should run tasks one at a time in order, otherwise notifications and
+         * the progress of writing in batches may be called concurrently or out of order.
+         * A direct executor (Runnable::run) runs callbacks on the bluetooth binder thread or
+         * the worker thread of EasyBle, so the callbacks must return quickly and never block.
+         *
+         * @param executor callback executor, null means the main thread
+         */
+        public ConnectionOptions callbackExecutor(Executor executor) {
+            this.mCallbackExecutor = executor;
             return this;
         }
 
@@ -1210,9 +2045,426 @@ public final class BleManager {
             return mRetryDelay;
         }
 
+        public BleRetryPolicy getRetryPolicy() {
+            return mRetryPolicy != null ? mRetryPolicy : new BleRetryPolicy.Fixed(mRetryDelay);
+        }
+
+        public RetryBudget getRetryBudget() {
+            return mRetryBudget;
+        }
+
         public boolean isAutoConnect() {
             return mAutoConnect;
         }
+
+        public Executor getCallbackExecutor() {
+            return mCallbackExecutor;
+        }
+
+        public int getSchedulingPriority() {
+            return mSchedulingPriority;
+        }
+
+        public int getLastSeenRssi() {
+            return mLastSeenRssi;
+        }
+    }
+
+    public static final class BatchWriteOptions {
+        private int mLengthPerBatch = BleGatt.MTU_MIN - BleGatt.ATT_OCCUPY_BYTES_NUM;
+        private long mBatchInterval = 0;
+        private boolean mWriteWithoutResponse = false;
+        private boolean mAutoMtu = false;
+        private long mTimeoutMillis = 0;
+        private long mDeadline = 0;
+        private Executor mCallbackExecutor;
+
+        private BatchWriteOptions() {
+
+        }
+
+        public static BatchWriteOptions newInstance() {
+            return new BatchWriteOptions();
+        }
+
+        /**
+         * Set data length per batch, note that it must not be greater than (MTU - 3). It's
+         * ignored if {@link #autoMtu(boolean)} is enabled.
+         *
+         * @param length data length per batch
+         */
+        public BatchWriteOptions lengthPerBatch(int length) {
+            this.mLengthPerBatch = length;
+            return this;
+        }
+
+        /**
+         * Set the interval of batches
+         *
+         * @param millis batch interval, unit: millisecond
+         */
+        public BatchWriteOptions batchInterval(long millis) {
+            this.mBatchInterval = Math.max(millis, 0);
+            return this;
+        }
+
+        /**
+         * Write batches without response (streaming mode).
+         * <p>
+         * If true, batches are written with
+         * {@link BluetoothGattCharacteristic#WRITE_TYPE_NO_RESPONSE}, the next batch is sent
+         * as soon as the bluetooth stack has accepted the previous one instead of waiting for
+         * the remote device to acknowledge it. If the stack is busy or the connection is
+         * congested, the pending batch is retried a little later rather than failed.
+         * <p>
+         * Note that the target characteristic must support
+         * {@link BluetoothGattCharacteristic#PROPERTY_WRITE_NO_RESPONSE}, otherwise
+         * {@link BleErrorCodes#WRITE_UNSUPPORTED} will be called back, and the remote device
+         * may drop batches silently if it can not keep up, so it's up to your protocol to
+         * verify the transferred data.
+         * </p>
+         *
+         * @param writeWithoutResponse whether to write without response
+         */
+        public BatchWriteOptions writeWithoutResponse(boolean writeWithoutResponse) {
+            this.mWriteWithoutResponse = writeWithoutResponse;
+            return this;
+        }
+
+        /**
+         * Size batches from the MTU automatically.
+         * <p>
+         * If true, the largest MTU ({@link BleGatt#MTU_MAX}) will be requested before the first
+         * batch if the current MTU is smaller, and every batch is filled up to (MTU - 3) of the
+         * current MTU rather than {@link #lengthPerBatch(int)}. If the MTU changes during the
+         * transfer, the rest of data is re-chunked with the new MTU. Note that the MTU
+         * negotiated here does not trigger any {@link BleMtuCallback}.
+         * </p>
+         *
+         * @param autoMtu whether to size batches from the MTU automatically
+         */
+        public BatchWriteOptions autoMtu(boolean autoMtu) {
+            this.mAutoMtu = autoMtu;
+            return this;
+        }
+
+        /**
+         * Set the timeout of each batch, the whole transfer is allowed to take as long as
+         * the remaining batches need.
+         *
+         * @param millis timeout per batch, unit: millisecond. If it's not greater than 0,
+         *               the gatt operation timeout of the device will be used
+         */
+        public BatchWriteOptions timeout(long millis) {
+            this.mTimeoutMillis = Math.max(millis, 0);
+            return this;
+        }
+
+        /**
+         * Set the absolute deadline of the whole transfer, see
+         * {@link OperationOptions#deadline(long)}
+         *
+         * @param uptimeMillis deadline based on {@link android.os.SystemClock#uptimeMillis()}, 0 means
+         *                     no deadline
+         */
+        public BatchWriteOptions deadline(long uptimeMillis) {
+            this.mDeadline = Math.max(uptimeMillis, 0);
+            return this;
+        }
+
+        /**
+         * Set the executor that runs the callback of the transfer, see
+         * {@link OperationOptions#callbackExecutor(Executor)}.
+         * <p>
+         * The executor must run tasks one at a time in order, like the main thread, a
+         * {@link android.os.Handler} or a single thread executor. With a thread pool,
+         * progress callbacks may run concurrently or out of order, and the final result may
+         * be called before the last progress.
+         * </p>
+         *
+         * @param executor serial callback executor, null means the executor of the device
+         */
+        public BatchWriteOptions callbackExecutor(Executor executor) {
+            this.mCallbackExecutor = executor;
+            return this;
+        }
+
+        public int getLengthPerBatch() {
+            return mLengthPerBatch;
+        }
+
+        public long getBatchInterval() {
+            return mBatchInterval;
+        }
+
+        public boolean isWriteWithoutResponse() {
+            return mWriteWithoutResponse;
+        }
+
+        public boolean isAutoMtu() {
+            return mAutoMtu;
+        }
+
+        public long getTimeout() {
+            return mTimeoutMillis;
+        }
+
+        public long getDeadline() {
+            return mDeadline;
+        }
+
+        public Executor getCallbackExecutor() {
+            return mCallbackExecutor;
+        }
+    }
+
+    public static final class OperationOptions {
+        private boolean mCoalesce = false;
+        private long mTimeoutMillis = 0;
+        private long mDeadline = 0;
+        private Executor mCallbackExecutor;
+        private NotificationRingBuffer mNotificationSink;
+
+        private OperationOptions() {
+
+        }
+
+        public static OperationOptions newInstance() {
+            return new OperationOptions();
+        }
+
+        /**
+         * Coalesce the operation with an identical one waiting in the queue.
+         * <p>
+         * For reading characteristic, RSSI and PHY, if an identical read (the same
+         * characteristic, or RSSI/PHY of the same device) that is also coalescible is still
+         * waiting in the queue, the new one joins it instead of being queued, only one request
+         * is sent and all of their callbacks get the same result.
+         * <p>
+         * For writing characteristic, if a coalescible write to the same characteristic is
+         * still waiting in the queue, the waiting one is superseded and fails with
+         * {@link BleErrorCodes#OPERATION_SUPERSEDED}, and the new one is queued, so only the
+         * latest data is written. Don't enable it if every write matters.
+         * </p>
+         * It's not applicable to other operations, and an operation already in progress is
+         * never coalesced.
+         *
+         * @param coalesce whether to coalesce the operation
+         */
+        public OperationOptions coalesce(boolean coalesce) {
+            this.mCoalesce = coalesce;
+            return this;
+        }
+
+        /**
+         * Set the timeout of the operation, it's counted from the time the request is sent to
+         * the remote device rather than the time it's queued.
+         *
+         * @param millis timeout, unit: millisecond. If it's not greater than 0, the gatt
+         *               operation timeout of the device will be used
+         */
+        public OperationOptions timeout(long millis) {
+            this.mTimeoutMillis = Math.max(millis, 0);
+            return this;
+        }
+
+        /**
+         * Set the absolute deadline of the operation.
+         * <p>
+         * If the deadline passes while the operation is still waiting in the queue, it's
+         * removed from the queue and fails with {@link BleErrorCodes#DEADLINE_EXCEEDED}
+         * immediately instead of occupying the connection for a result nobody needs. Once the
+         * request has been sent, the timeout is shortened so that it never outlives the
+         * deadline.
+         * </p>
+         * For example, deadline(SystemClock.uptimeMillis() + 2000) means the operation must
+         * finish within 2 seconds, queueing time included.
+         *
+         * @param uptimeMillis deadline based on {@link android.os.SystemClock#uptimeMillis()}, 0 means
+         *                     no deadline
+         */
+        public OperationOptions deadline(long uptimeMillis) {
+            this.mDeadline = Math.max(uptimeMillis, 0);
+            return this;
+        }
+
+        /**
+         * Set the executor that runs the callback of the operation.
+         * <p>
+         * By default the callback is called by the executor of the device, i.e. the one set by
+         * {@link ConnectionOptions#callbackExecutor(Executor)}, or on the main thread if there
+         * isn't. For {@link BleManager#notify(BleDevice, UUID, UUID, OperationOptions, BleNotifyCallback)},
+         * the executor delivers notifications as well, without an executor of the operation or
+         * the device, notifications are called on the bluetooth binder thread directly.
+         * </p>
+         * A direct executor (Runnable::run) avoids a thread hop for every result, but the
+         * callback runs on the bluetooth binder thread or the worker thread of EasyBle then,
+         * so it must return quickly and never block.
+         *
+         * @param executor callback executor, null means the executor of the device
+         */
+        public OperationOptions callbackExecutor(Executor executor) {
+            this.mCallbackExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Write notifications into a ring buffer instead of calling
+         * {@link BleNotifyCallback#onCharacteristicChanged(byte[], UUID, BleDevice)}.
+         * <p>
+         * It's only applicable to
+         * {@link BleManager#notify(BleDevice, UUID, UUID, OperationOptions, BleNotifyCallback)}, and it's
+         * meant for remote devices that notify at a high rate, like IMU sensors: every
+         * notification is copied into the buffer on the bluetooth binder thread with no
+         * thread hop and no object created, and one consumer thread of yours drains the
+         * buffer. The callback still gets the result of enabling notification.
+         * </p>
+         *
+         * @param sink the ring buffer notifications are written into, null to call the callback
+         */
+        public OperationOptions notificationSink(NotificationRingBuffer sink) {
+            this.mNotificationSink = sink;
+            return this;
+        }
+
+        public boolean isCoalesce() {
+            return mCoalesce;
+        }
+
+        public long getTimeout() {
+            return mTimeoutMillis;
+        }
+
+        public long getDeadline() {
+            return mDeadline;
+        }
+
+        public Executor getCallbackExecutor() {
+            return mCallbackExecutor;
+        }
+
+        public NotificationRingBuffer getNotificationSink() {
+            return mNotificationSink;
+        }
+    }
+
+    public static final class TransactionOptions {
+        private long mTimeoutMillis = 3000;
+        private Executor mCallbackExecutor;
+
+        private TransactionOptions() {
+
+        }
+
+        public static TransactionOptions newInstance() {
+            return new TransactionOptions();
+        }
+
+        /**
+         * Set the timeout of the transaction, it's counted from the time the transaction is
+         * issued, and covers queueing, writing the request and waiting for the response
+         *
+         * @param millis timeout, unit: millisecond, 3000 by default
+         */
+        public TransactionOptions timeout(long millis) {
+            if (millis > 0) {
+                this.mTimeoutMillis = millis;
+            }
+            return this;
+        }
+
+        /**
+         * Set the executor that runs the callback, see {@link OperationOptions#callbackExecutor(Executor)}
+         *
+         * @param executor callback executor, null means the executor of the device
+         */
+        public TransactionOptions callbackExecutor(Executor executor) {
+            this.mCallbackExecutor = executor;
+            return this;
+        }
+
+        public long getTimeout() {
+            return mTimeoutMillis;
+        }
+
+        public Executor getCallbackExecutor() {
+            return mCallbackExecutor;
+        }
+    }
+
+    public static final class NotifyBatchOptions {
+        private int mBatchSize = 32;
+        private long mWindowMillis = 100;
+        private long mTimeoutMillis = 0;
+        private Executor mCallbackExecutor;
+
+        private NotifyBatchOptions() {
+
+        }
+
+        public static NotifyBatchOptions newInstance() {
+            return new NotifyBatchOptions();
+        }
+
+        /**
+         * Set the max number of notifications in a batch, a batch is delivered as soon as it's
+         * full even if its time window hasn't elapsed
+         *
+         * @param size max batch size, at least 1
+         */
+        public NotifyBatchOptions batchSize(int size) {
+            this.mBatchSize = Math.max(size, 1);
+            return this;
+        }
+
+        /**
+         * Set the time window of a batch, it starts with the first notification of the batch,
+         * and the batch is delivered when it elapses even if the batch isn't full
+         *
+         * @param millis time window, unit: millisecond. If it's not greater than 0, batches are
+         *               delivered only when they are full
+         */
+        public NotifyBatchOptions window(long millis) {
+            this.mWindowMillis = Math.max(millis, 0);
+            return this;
+        }
+
+        /**
+         * Set the timeout of enabling notification, see {@link OperationOptions#timeout(long)}
+         *
+         * @param millis timeout, unit: millisecond
+         */
+        public NotifyBatchOptions timeout(long millis) {
+            this.mTimeoutMillis = Math.max(millis, 0);
+            return this;
+        }
+
+        /**
+         * Set the executor that runs the callback, batches are delivered on the main thread by
+         * default, see {@link OperationOptions#callbackExecutor(Executor)}
+         *
+         * @param executor callback executor, null means the executor of the device
+         */
+        public NotifyBatchOptions callbackExecutor(Executor executor) {
+            this.mCallbackExecutor = executor;
+            return this;
+        }
+
+        public int getBatchSize() {
+            return mBatchSize;
+        }
+
+        public long getWindow() {
+            return mWindowMillis;
+        }
+
+        public long getTimeout() {
+            return mTimeoutMillis;
+        }
+
+        public Executor getCallbackExecutor() {
+            return mCallbackExecutor;
+        }
     }
 
     public static final class AccessKey {
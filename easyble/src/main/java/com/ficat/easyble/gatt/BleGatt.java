@@ -4,18 +4,28 @@ package com.ficat.easyble.gatt;
 import android.bluetooth.BluetoothGatt;
 
 import com.ficat.easyble.BleDevice;
+import com.ficat.easyble.BleManager.BatchWriteOptions;
+import com.ficat.easyble.BleManager.ConnectionOptions;
+import com.ficat.easyble.BleManager.NotifyBatchOptions;
+import com.ficat.easyble.BleManager.OperationOptions;
+import com.ficat.easyble.BleManager.TransactionOptions;
 import com.ficat.easyble.gatt.callback.BleConnectCallback;
 import com.ficat.easyble.gatt.callback.BleConnectionPriorityCallback;
 import com.ficat.easyble.gatt.callback.BleDescriptorReadCallback;
 import com.ficat.easyble.gatt.callback.BleDescriptorWriteCallback;
+import com.ficat.easyble.gatt.callback.BleFrameCallback;
 import com.ficat.easyble.gatt.callback.BleMtuCallback;
+import com.ficat.easyble.gatt.callback.BleNotifyBatchCallback;
 import com.ficat.easyble.gatt.callback.BleNotifyCallback;
 import com.ficat.easyble.gatt.callback.BlePhyPreferenceCallback;
 import com.ficat.easyble.gatt.callback.BlePhyReadCallback;
 import com.ficat.easyble.gatt.callback.BleReadCallback;
 import com.ficat.easyble.gatt.callback.BleRssiCallback;
+import com.ficat.easyble.gatt.callback.BleTransactionCallback;
 import com.ficat.easyble.gatt.callback.BleWriteByBatchCallback;
 import com.ficat.easyble.gatt.callback.BleWriteCallback;
+import com.ficat.easyble.utils.BatchDataCursor;
+import com.ficat.easyble.utils.FrameDecoder;
 
 import java.util.List;
 import java.util.UUID;
@@ -23,56 +33,74 @@ import java.util.UUID;
 public interface BleGatt {
     long DEFAULT_OPERATION_TIMEOUT_MILLIS = 600; // Default operation timeout
     int MAX_CONNECTION_NUM = 7;
+    long DEFAULT_CONNECTION_INTERVAL_MILLIS = 100; // Min interval between starting two connections
     int MTU_MAX = 515;
     int MTU_MIN = 23;
     int ATT_OCCUPY_BYTES_NUM = 3;
     String CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID = "00002902-0000-1000-8000-00805f9b34fb";
 
-    void connect(long timeoutMillis, int retryCount, long retryDelay, boolean autoConnect,
-                 BleDevice device, BleConnectCallback callback);
+    void connect(BleDevice device, ConnectionOptions options, BleConnectCallback callback);
 
     void disconnect(String address, boolean closeGattImmediately);
 
     void disconnectAll(boolean closeGattImmediately);
 
-    void notify(BleDevice device, UUID serviceUuid, UUID notifyUuid, BleNotifyCallback callback);
+    Cancelable notify(BleDevice device, UUID serviceUuid, UUID notifyUuid, OperationOptions options,
+                      BleNotifyCallback callback);
 
-    void cancelNotify(BleDevice device, UUID serviceUuid, UUID characteristicUuid);
+    Cancelable notifyByBatch(BleDevice device, UUID serviceUuid, UUID notifyUuid, NotifyBatchOptions options,
+                             BleNotifyBatchCallback callback);
 
-    void read(BleDevice device, UUID serviceUuid, UUID readUuid, BleReadCallback callback);
+    Cancelable notifyByFrame(BleDevice device, UUID serviceUuid, UUID notifyUuid, FrameDecoder decoder,
+                             OperationOptions options, BleFrameCallback callback);
 
-    void write(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data, BleWriteCallback callback);
+    Cancelable transact(BleDevice device, UUID serviceUuid, UUID writeUuid, UUID notifyUuid, byte[] request,
+                        ResponseMatcher matcher, TransactionOptions options, BleTransactionCallback callback);
 
-    void writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data,
-                      int lengthPerBatch, long batchInterval, BleWriteByBatchCallback callback);
+    Cancelable cancelNotify(BleDevice device, UUID serviceUuid, UUID characteristicUuid);
 
-    void readRssi(BleDevice device, BleRssiCallback callback);
+    Cancelable read(BleDevice device, UUID serviceUuid, UUID readUuid, OperationOptions options, BleReadCallback callback);
 
-    void setMtu(BleDevice device, int mtu, BleMtuCallback callback);
+    Cancelable write(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data, OperationOptions options,
+                     BleWriteCallback callback);
 
-    void descriptorWrite(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
-                         UUID descriptorUuid, byte[] data, BleDescriptorWriteCallback callback);
+    Cancelable writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, BatchDataCursor data,
+                            BatchWriteOptions options, BleWriteByBatchCallback callback);
 
-    void descriptorRead(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
-                        UUID descriptorUuid, BleDescriptorReadCallback callback);
+    Cancelable readRssi(BleDevice device, OperationOptions options, BleRssiCallback callback);
 
-    void readPhy(BleDevice device, BlePhyReadCallback callback);
+    Cancelable setMtu(BleDevice device, int mtu, OperationOptions options, BleMtuCallback callback);
 
-    void setPreferencePhy(BleDevice device, int txPhy, int rxPhy, int phyOptions,
-                          BlePhyPreferenceCallback callback);
+    Cancelable descriptorWrite(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
+                               UUID descriptorUuid, byte[] data, OperationOptions options,
+                               BleDescriptorWriteCallback callback);
 
-    void requestConnectionPriority(BleDevice device, int connPriority,
-                                   BleConnectionPriorityCallback callback);
+    Cancelable descriptorRead(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
+                              UUID descriptorUuid, OperationOptions options, BleDescriptorReadCallback callback);
+
+    Cancelable readPhy(BleDevice device, OperationOptions options, BlePhyReadCallback callback);
+
+    Cancelable setPreferencePhy(BleDevice device, int txPhy, int rxPhy, int phyOptions,
+                                OperationOptions options, BlePhyPreferenceCallback callback);
+
+    Cancelable requestConnectionPriority(BleDevice device, int connPriority, OperationOptions options,
+                                         BleConnectionPriorityCallback callback);
 
     List<BleDevice> getConnectedDevices();
 
     List<BleDevice> getConnectingDevices();
 
+    int getConnectedDeviceCount();
+
+    int getConnectingDeviceCount();
+
     BluetoothGatt getBluetoothGatt(String address);
 
     boolean isConnecting(String address);
 
     boolean isConnected(String address);
 
+    int getPendingOperationCount(String address);
+
     void destroy(boolean callbackEnabledOnDestroy);
 }
@@ -13,33 +13,48 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 
 import com.ficat.easyble.BleDevice;
 import com.ficat.easyble.BleErrorCodes;
 import com.ficat.easyble.BleManager;
+import com.ficat.easyble.BleManager.BatchWriteOptions;
+import com.ficat.easyble.BleManager.NotifyBatchOptions;
+import com.ficat.easyble.BleManager.OperationOptions;
+import com.ficat.easyble.BleManager.TransactionOptions;
 import com.ficat.easyble.gatt.callback.BleConnectCallback;
 import com.ficat.easyble.gatt.callback.BleConnectionPriorityCallback;
 import com.ficat.easyble.gatt.callback.BleDescriptorReadCallback;
 import com.ficat.easyble.gatt.callback.BleDescriptorWriteCallback;
+import com.ficat.easyble.gatt.callback.BleFrameCallback;
 import com.ficat.easyble.gatt.callback.BleMtuCallback;
+import com.ficat.easyble.gatt.callback.BleNotifyBatchCallback;
 import com.ficat.easyble.gatt.callback.BleNotifyCallback;
 import com.ficat.easyble.gatt.callback.BlePhyPreferenceCallback;
 import com.ficat.easyble.gatt.callback.BlePhyReadCallback;
 import com.ficat.easyble.gatt.callback.BleReadCallback;
 import com.ficat.easyble.gatt.callback.BleRssiCallback;
+import com.ficat.easyble.gatt.callback.BleTransactionCallback;
 import com.ficat.easyble.gatt.callback.BleWriteByBatchCallback;
 import com.ficat.easyble.gatt.callback.BleWriteCallback;
-import com.ficat.easyble.utils.BleDataUtils;
+import com.ficat.easyble.utils.BatchDataCursor;
 import com.ficat.easyble.utils.BluetoothGattUtils;
+import com.ficat.easyble.utils.FrameDecoder;
 import com.ficat.easyble.utils.Logger;
 
+import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 @SuppressLint("MissingPermission")
 public final class BleGattCommunicator extends BluetoothGattCallback {
@@ -80,6 +95,31 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
      */
     private static final long BONDING_TIMEOUT_MILLIS = 40 * 1000;
 
+    /**
+     * In write-without-response batch mode, the delay before retrying a batch the bluetooth
+     * stack refused because it is busy or the connection is congested
+     */
+    private static final long WRITE_BATCH_BUSY_RETRY_DELAY_MILLIS = 10;
+
+    /**
+     * In write-without-response batch mode, the max consecutive retries of a refused batch
+     */
+    private static final int WRITE_BATCH_BUSY_MAX_RETRY_COUNT = 50;
+
+    /**
+     * Operation priorities, an operation waits until all operations with higher priority in
+     * the queue are done, and operations with the same priority are executed in order. They
+     * apply only if enabled by {@link BleManager#setOperationPriority(boolean)}, otherwise all
+     * operations are queued in the interactive lane in order.
+     * <p>
+     * Control: link-level configurations, like MTU, PHY preference and connection priority
+     * Interactive: reads, writes, notifications, descriptors, RSSI and PHY reading
+     * Bulk: writing in batches, which yields to the others between two batches
+     */
+    private static final int PRIORITY_CONTROL = 0;
+    private static final int PRIORITY_INTERACTIVE = 1;
+    private static final int PRIORITY_BULK = 2;
+
     /**
      * Write-batch delay msg
      */
@@ -105,6 +145,16 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
      */
     private static final int MSG_WHAT_CONNECTION_RETRY = 104;
 
+    /**
+     * Operation deadline msg
+     */
+    private static final int MSG_WHAT_OPERATION_DEADLINE = 105;
+
+    /**
+     * Transaction timeout msg
+     */
+    private static final int MSG_WHAT_TRANSACTION_TIMEOUT = 106;
+
 
     /**
      * Failed to enable/disable notification
@@ -121,10 +171,28 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
      */
     private static final int NOTIFY_STARTED = 2;
 
-    private final Handler mHandler;
+    private final Handler mHandler; // Runs timeouts, retries, batch pacing and the queue
+    private final Executor mMainExecutor; // Delivers results to the main thread
+    private final Executor mWorkerExecutor; // Runs internal callbacks on the worker thread
+    private final Runnable mTryNextOperation; // Posted whenever the queue may advance, allocated once
+    private final ConnectionScheduler mConnectionScheduler; // Limits concurrent connection requests
+    private final ConnectionStateIndex mConnectionStateIndex; // Connected and connecting devices
+    private volatile boolean mConnectionPending; // The connection request waits in the scheduler
+    private volatile int mSchedulingPriority; // Priority of the connection, used to pick a device to evict
+    private volatile long mLastActiveTime; // The last time the operation queue advanced
+    private volatile Executor mCallbackExecutor; // Delivers connection results and by default others
     private BleDevice mDevice; // The target remote device
     private BleConnectCallback mConnectCallback; // Connection callback
-    private final Map<OperationIdentify, BleNotifyCallback> mNotifyCallbackMap;
+    private final Map<OperationIdentify, NotifyRoute> mNotifyCallbackMap;
+    // Notification routing table indexed by characteristic instance, so that dispatching a
+    // notification takes one identity-hash lookup
+    private final Map<BluetoothGattCharacteristic, NotifyRoute> mNotifyRouteMap;
+    // Outstanding transactions in the order they were issued, guarded by itself
+    private final List<Transaction> mTransactions = new ArrayList<>();
+    private volatile int mTransactionCount; // Lets notifications skip the lock if there is no transaction
+    // Notifications of response characteristics enabled for transactions rather than by the app,
+    // guarded by mTransactions
+    private final Map<OperationIdentify, TransactionNotify> mTransactionNotifies = new HashMap<>();
 
     /**
      * If the remote device updates the PHY, onPhyUpdate() is also triggered, so
@@ -135,7 +203,11 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
     private BluetoothGatt mGatt;
     private long mConnTimeout;
     private int mConnRetryCount;
-    private long mConnRetryDelay;
+    private BleRetryPolicy mConnRetryPolicy;
+    private RetryBudget mConnRetryBudget;
+    private int mConnRetryAttempt; // Retries made so far
+    private long mConnRetryDelay; // Delay before the last retry
+    private ConnectionRetry mPendingConnRetry; // The connection retry waiting for its delay
 
     /**
      * If true, once target device is in rang, system try to connect to it automatically。
@@ -151,17 +223,28 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
     private volatile int mCurrentMtu = BleGatt.MTU_MIN; // Current MTU
     private final Object mConnectionLock = new Object(); // The lock used to connection
     private final Object mOperationLock = new Object(); // The lock used to operation
-    private final Queue<BaseOperation> mOperationQueue; // Operation queue
+    // Results produced while holding mOperationLock, handed to their executors once it's released
+    private final ArrayDeque<Executor> mDeferredExecutors = new ArrayDeque<>();
+    private final ArrayDeque<Runnable> mDeferredResults = new ArrayDeque<>();
+    private final OperationQueue mOperationQueue; // Operations waiting to be executed
+    private volatile BaseOperation mCurrentOperation; // The operation in progress
     private boolean mOperationExecuting = false; // Current operation is in progress?
 
-    BleGattCommunicator(BleDevice device) {
+    BleGattCommunicator(BleDevice device, ConnectionScheduler connectionScheduler,
+                        ConnectionStateIndex connectionStateIndex) {
         if (device == null) {
             throw new IllegalArgumentException("BleDevice is null");
         }
         this.mDevice = device;
-        this.mOperationQueue = new ConcurrentLinkedQueue<>();
+        this.mConnectionScheduler = connectionScheduler;
+        this.mConnectionStateIndex = connectionStateIndex;
+        this.mOperationQueue = new OperationQueue();
         this.mNotifyCallbackMap = new ConcurrentHashMap<>();
-        this.mHandler = new Handler(Looper.getMainLooper(), msg -> {
+        this.mNotifyRouteMap = new ConcurrentHashMap<>();
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        this.mMainExecutor = mainHandler::post;
+        this.mCallbackExecutor = mMainExecutor;
+        this.mHandler = new Handler(BleManager.getInstance().getWorkerLooper(), msg -> {
             switch (msg.what) {
                 case MSG_WHAT_CONNECTION_TIMEOUT:
                     onConnectionTimeout();
@@ -179,9 +262,21 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                         onConnectionRetry((ConnectionRetry) msg.obj);
                     }
                     break;
+                case MSG_WHAT_OPERATION_DEADLINE:
+                    if (msg.obj instanceof BaseOperation) {
+                        onOperationDeadline((BaseOperation) msg.obj);
+                    }
+                    return true;
+                case MSG_WHAT_TRANSACTION_TIMEOUT:
+                    if (msg.obj instanceof Transaction) {
+                        failTransaction((Transaction) msg.obj, BleErrorCodes.TIMEOUT);
+                    }
+                    return true;
             }
             return false;
         });
+        this.mWorkerExecutor = mHandler::post;
+        this.mTryNextOperation = this::tryNextOperation;
     }
 
     /**
@@ -202,6 +297,46 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         return mConnState == DISCONNECTED;
     }
 
+    boolean isConnectionPending() {
+        return mConnectionPending;
+    }
+
+    void setConnectionPending(boolean pending) {
+        mConnectionPending = pending;
+    }
+
+    int getSchedulingPriority() {
+        return mSchedulingPriority;
+    }
+
+    void setSchedulingPriority(int priority) {
+        mSchedulingPriority = priority;
+    }
+
+    long getLastActiveTime() {
+        return mLastActiveTime;
+    }
+
+    /**
+     * Check if there is no gatt operation in progress or waiting
+     */
+    boolean isIdle() {
+        synchronized (mOperationLock) {
+            return !mOperationExecuting && mOperationQueue.size() == 0;
+        }
+    }
+
+    private void setConnState(int state) {
+        if (mConnState == state) {
+            return;
+        }
+        if (state == CONNECTED_AND_SERVICES_DISCOVERED) {
+            mLastActiveTime = SystemClock.uptimeMillis();
+        }
+        mConnState = state;
+        mConnectionStateIndex.update(this);
+    }
+
     int getMtu() {
         return this.mCurrentMtu;
     }
@@ -237,6 +372,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             // Cancel connection-retry, during the connection retry wait period, connection
             // state is CONNECTING
             mHandler.removeMessages(MSG_WHAT_CONNECTION_RETRY);
+            mPendingConnRetry = null;
             BleConnectCallback callback = mConnectCallback;
             if (mGatt != null) {
                 mGatt.disconnect();
@@ -247,8 +383,9 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             stopAndClearOperations();
             clearAllCallbacks();
             resetConnParamsAndMtu();
-            mConnState = DISCONNECTED;
-            mHandler.post(new Runnable() {
+            setConnState(DISCONNECTED);
+            mConnectionScheduler.release(this);
+            deliver(mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     if (callback != null) {
@@ -282,15 +419,22 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             stopAndClearOperations();
             clearAllCallbacks();
             resetConnParamsAndMtu();
-            mConnState = DISCONNECTED;
-            if (callback != null) {
-                callback.onConnectionFailed(BleErrorCodes.TIMEOUT, mDevice);
-            }
+            setConnState(DISCONNECTED);
+            mConnectionScheduler.release(this);
+            deliver(mCallbackExecutor, new Runnable() {
+                @Override
+                public void run() {
+                    if (callback != null) {
+                        callback.onConnectionFailed(BleErrorCodes.TIMEOUT, mDevice);
+                    }
+                }
+            });
         }
     }
 
     private void onConnectionRetry(ConnectionRetry params) {
         synchronized (mConnectionLock) {
+            mPendingConnRetry = null;
             if (params.mAutoConnect || isConnected()) {
                 Logger.d(mAutoConnect ? "Retry connection but found auto-connect is true" :
                         "Retry connection but found connection has established");
@@ -299,9 +443,10 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             params.mRetryCount--;
             BluetoothGatt gatt = connectGatt(false);
             if (gatt == null) {
-                mConnState = DISCONNECTED;
+                setConnState(DISCONNECTED);
+                mConnectionScheduler.release(this);
                 BleConnectCallback callback = params.mConnectCallback;
-                mHandler.post(new Runnable() {
+                deliver(mCallbackExecutor, new Runnable() {
                     @Override
                     public void run() {
                         if (callback != null) {
@@ -314,10 +459,13 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             mAutoConnect = false;
             mConnTimeout = params.mConnectionTimeout;
             mConnRetryCount = params.mRetryCount;
+            mConnRetryPolicy = params.mRetryPolicy;
+            mConnRetryBudget = params.mRetryBudget;
+            mConnRetryAttempt = params.mRetryAttempt;
             mConnRetryDelay = params.mRetryDelay;
             mGatt = gatt;
             mConnectCallback = params.mConnectCallback;
-            mConnState = CONNECTING;
+            setConnState(CONNECTING);
             // Send timeout msg
             Message msg = Message.obtain();
             msg.what = MSG_WHAT_CONNECTION_TIMEOUT;
@@ -325,11 +473,12 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         }
     }
 
-    void connect(long timeoutMillis, int retryCount, long retryDelay, boolean autoConnect, BleConnectCallback callback) {
+    void connect(ConnectionParams params, BleConnectCallback callback) {
+        Executor executor = params.mCallbackExecutor != null ? params.mCallbackExecutor : mMainExecutor;
         synchronized (mConnectionLock) {
             if (isConnecting() || isConnected()) {
                 if (mConnectCallback != callback) {
-                    mHandler.post(new Runnable() {
+                    deliver(executor, new Runnable() {
                         @Override
                         public void run() {
                             callback.onConnectionFailed(BleErrorCodes.CONNECTION_ALREADY_STARTED_OR_ESTABLISHED, mDevice);
@@ -339,10 +488,11 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                 return;
             }
             // Connect to GATT
-            BluetoothGatt gatt = connectGatt(autoConnect);
+            BluetoothGatt gatt = connectGatt(params.mAutoConnect);
             // Failed to connect GATT
             if (gatt == null) {
-                mHandler.post(new Runnable() {
+                mConnectionScheduler.release(this);
+                deliver(executor, new Runnable() {
                     @Override
                     public void run() {
                         callback.onConnectionFailed(BleErrorCodes.UNKNOWN, mDevice);
@@ -351,20 +501,24 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                 return;
             }
             // Connection started
-            mAutoConnect = autoConnect;
-            mConnTimeout = timeoutMillis;
-            mConnRetryCount = retryCount;
-            mConnRetryDelay = retryDelay;
+            mAutoConnect = params.mAutoConnect;
+            mConnTimeout = params.mTimeoutMillis;
+            mConnRetryCount = params.mRetryCount;
+            mConnRetryPolicy = params.mRetryPolicy;
+            mConnRetryBudget = params.mRetryBudget;
+            mConnRetryAttempt = 0;
+            mConnRetryDelay = 0;
             mGatt = gatt;
             mConnectCallback = callback;
-            mConnState = CONNECTING;
-            mHandler.post(new Runnable() {
+            mCallbackExecutor = executor;
+            setConnState(CONNECTING);
+            deliver(mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onConnectionStarted(mDevice);
                 }
             });
-            if (autoConnect) {
+            if (params.mAutoConnect) {
                 // Do nothing
                 // After calling BluetoothDevice#connectGatt(), once target device is
                 // in rang, system try to connect to it automatically, so for autoConnect,
@@ -373,11 +527,29 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                 // Send connection timeout msg
                 Message msg = Message.obtain();
                 msg.what = MSG_WHAT_CONNECTION_TIMEOUT;
-                mHandler.sendMessageDelayed(msg, timeoutMillis > 0 ? timeoutMillis : DEFAULT_CONNECTION_TIMEOUT_MILLIS);
+                mHandler.sendMessageDelayed(msg, params.mTimeoutMillis > 0 ? params.mTimeoutMillis :
+                        DEFAULT_CONNECTION_TIMEOUT_MILLIS);
             }
         }
     }
 
+    private void cancelConnectionRetry(boolean callbackEnabled) {
+        BleConnectCallback callback = mPendingConnRetry == null ? null : mPendingConnRetry.mConnectCallback;
+        mPendingConnRetry = null;
+        resetConnParamsAndMtu();
+        setConnState(DISCONNECTED);
+        mConnectionScheduler.release(this);
+        if (!callbackEnabled || callback == null) {
+            return;
+        }
+        deliver(mCallbackExecutor, new Runnable() {
+            @Override
+            public void run() {
+                callback.onConnectionFailed(BleErrorCodes.CONNECTION_CANCELED, mDevice);
+            }
+        });
+    }
+
     private BluetoothGatt connectGatt(boolean autoConnect) {
         BluetoothGatt gatt;
         Context context = BleManager.getInstance().getContext();
@@ -401,6 +573,11 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             // Cancel connection-retry
             mHandler.removeMessages(MSG_WHAT_CONNECTION_RETRY);
             if (mGatt == null) {
+                // Gatt has been closed during the connection retry wait period, the connection
+                // attempt ends here
+                if (isConnecting()) {
+                    cancelConnectionRetry(callbackEnabled);
+                }
                 return;
             }
             mGatt.disconnect();
@@ -423,11 +600,12 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                 stopAndClearOperations();
                 clearAllCallbacks();
                 resetConnParamsAndMtu();
-                mConnState = DISCONNECTED;
+                setConnState(DISCONNECTED);
+                mConnectionScheduler.release(this);
                 if (!callbackEnabled) {
                     return;
                 }
-                mHandler.post(new Runnable() {
+                deliver(mCallbackExecutor, new Runnable() {
                     @Override
                     public void run() {
                         if (callback == null) {
@@ -444,225 +622,504 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         }
     }
 
-    void enableNotify(UUID serviceUuid, UUID notifyUuid, BleNotifyCallback callback) {
+    Cancelable enableNotify(UUID serviceUuid, UUID notifyUuid, OperationOptions options, BleNotifyCallback callback) {
         if (!isConnected()) {
-            mHandler.post(new Runnable() {
+            deliver(getCallbackExecutor(options.getCallbackExecutor()), new Runnable() {
                 @Override
                 public void run() {
                     callback.onNotifyFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, notifyUuid, mDevice);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        enqueueOperation(new Notify(serviceUuid, notifyUuid, true, callback));
+        Notify operation = new Notify(serviceUuid, notifyUuid, true, callback);
+        // Notifications are delivered on the binder thread unless an executor is given
+        Executor executor = options.getCallbackExecutor();
+        operation.mNotificationExecutor = executor != null ? executor :
+                mCallbackExecutor != mMainExecutor ? mCallbackExecutor : null;
+        operation.mNotificationSink = options.getNotificationSink();
+        return enqueueOperation(operation, options);
     }
 
-    void disableNotify(UUID serviceUuid, UUID notifyUuid) {
+    Cancelable enableBatchNotify(UUID serviceUuid, UUID notifyUuid, NotifyBatchOptions options,
+                                 BleNotifyBatchCallback callback) {
+        Executor executor = getCallbackExecutor(options.getCallbackExecutor());
         if (!isConnected()) {
-            return;
+            deliver(executor, new Runnable() {
+                @Override
+                public void run() {
+                    callback.onNotifyFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, notifyUuid, mDevice);
+                }
+            });
+            return Cancelable.COMPLETED;
+        }
+        NotificationBatcher batcher = new NotificationBatcher(notifyUuid, options.getBatchSize(),
+                options.getWindow(), mHandler, executor, callback);
+        // The batcher collects notifications on the binder thread and delivers batches by itself
+        Notify operation = new Notify(serviceUuid, notifyUuid, true, batcher);
+        return enqueueOperation(operation, options.getTimeout(), 0, executor);
+    }
+
+    Cancelable enableFrameNotify(UUID serviceUuid, UUID notifyUuid, FrameDecoder decoder, OperationOptions options,
+                                 BleFrameCallback callback) {
+        Executor executor = getCallbackExecutor(options.getCallbackExecutor());
+        if (!isConnected()) {
+            deliver(executor, new Runnable() {
+                @Override
+                public void run() {
+                    callback.onNotifyFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, notifyUuid, mDevice);
+                }
+            });
+            return Cancelable.COMPLETED;
+        }
+        // The assembler decodes notifications on the binder thread and delivers frames by itself
+        FrameAssembler assembler = new FrameAssembler(notifyUuid, decoder, executor, callback);
+        return enqueueOperation(new Notify(serviceUuid, notifyUuid, true, assembler), options);
+    }
+
+    Cancelable transact(UUID serviceUuid, UUID writeUuid, UUID notifyUuid, byte[] request, ResponseMatcher matcher,
+                        TransactionOptions options, BleTransactionCallback callback) {
+        Executor executor = getCallbackExecutor(options.getCallbackExecutor());
+        if (!isConnected()) {
+            deliver(executor, new Runnable() {
+                @Override
+                public void run() {
+                    callback.onTransactionFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, request, mDevice);
+                }
+            });
+            return Cancelable.COMPLETED;
+        }
+        Transaction transaction = new Transaction(this, serviceUuid, notifyUuid, request, matcher, executor, callback);
+        // Enable notification of the response characteristic unless it's enabled or being enabled,
+        // by the app or for other transactions
+        OperationIdentify identify = new OperationIdentify(serviceUuid, notifyUuid);
+        TransactionNotify enabling = null;
+        synchronized (mTransactions) {
+            mTransactions.add(transaction);
+            mTransactionCount = mTransactions.size();
+            NotifyRoute route = mNotifyCallbackMap.get(identify);
+            if (route == null || route.mCallback instanceof TransactionNotify) {
+                TransactionNotify notify = mTransactionNotifies.get(identify);
+                if (notify == null) {
+                    notify = new TransactionNotify(identify);
+                    mTransactionNotifies.put(identify, notify);
+                    enabling = notify;
+                }
+                notify.mOutstandingCount++;
+                if (!notify.mEnabled) {
+                    notify.mWaiting.add(transaction);
+                }
+                transaction.mNotify = notify;
+            }
+        }
+        // A single timeout covers queueing, writing the request and waiting for the response
+        long timeout = options.getTimeout();
+        long deadline = SystemClock.uptimeMillis() + timeout;
+        mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_WHAT_TRANSACTION_TIMEOUT, transaction), timeout);
+        if (enabling != null) {
+            // No deadline, it's shared by the transactions coming after, which have their own timeouts
+            enqueueOperation(new Notify(serviceUuid, notifyUuid, true, enabling), 0, 0, mWorkerExecutor);
+        }
+
+        Write write = new Write(serviceUuid, writeUuid, request, false, new BleWriteCallback() {
+            @Override
+            public void onWriteSuccess(byte[] data, UUID characteristicUuid, BleDevice device) {
+                // Wait for the response
+            }
+
+            @Override
+            public void onWriteFailed(int errCode, byte[] data, UUID characteristicUuid, BleDevice device) {
+                failTransaction(transaction, errCode);
+            }
+        });
+        write.mTransaction = transaction;
+        // The write callback is internal, so run it on the worker thread
+        transaction.mWrite = enqueueOperation(write, 0, deadline, mWorkerExecutor);
+        return transaction;
+    }
+
+    Cancelable disableNotify(UUID serviceUuid, UUID notifyUuid) {
+        if (!isConnected()) {
+            return Cancelable.COMPLETED;
         }
-        enqueueOperation(new Notify(serviceUuid, notifyUuid, false, null));
+        return enqueueOperation(new Notify(serviceUuid, notifyUuid, false, null), null);
     }
 
-    void read(UUID serviceUuid, UUID readUuid, BleReadCallback callback) {
+    Cancelable read(UUID serviceUuid, UUID readUuid, OperationOptions options, BleReadCallback callback) {
         if (!isConnected()) {
-            mHandler.post(new Runnable() {
+            deliver(getCallbackExecutor(options.getCallbackExecutor()), new Runnable() {
                 @Override
                 public void run() {
                     callback.onReadFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, readUuid, mDevice);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        enqueueOperation(new Read(serviceUuid, readUuid, callback));
+        return enqueueOperation(new Read(serviceUuid, readUuid, options.isCoalesce(), callback), options);
     }
 
-    void write(UUID serviceUuid, UUID writeUuid, byte[] data, BleWriteCallback callback) {
+    Cancelable write(UUID serviceUuid, UUID writeUuid, byte[] data, OperationOptions options, BleWriteCallback callback) {
         if (!isConnected()) {
-            mHandler.post(new Runnable() {
+            deliver(getCallbackExecutor(options.getCallbackExecutor()), new Runnable() {
                 @Override
                 public void run() {
                     callback.onWriteFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, data, writeUuid, mDevice);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        enqueueOperation(new Write(serviceUuid, writeUuid, data, callback));
+        return enqueueOperation(new Write(serviceUuid, writeUuid, data, options.isCoalesce(), callback), options);
     }
 
-    void writeByBatch(UUID serviceUuid, UUID writeUuid, byte[] writeData, int lengthPerBatch,
-                      long batchInterval, BleWriteByBatchCallback callback) {
+    Cancelable writeByBatch(UUID serviceUuid, UUID writeUuid, BatchDataCursor writeData, BatchWriteOptions options,
+                            BleWriteByBatchCallback callback) {
         if (!isConnected()) {
-            mHandler.post(new Runnable() {
+            deliver(getCallbackExecutor(options.getCallbackExecutor()), new Runnable() {
                 @Override
                 public void run() {
                     callback.onWriteBatchFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED,
-                            0, writeData, writeUuid, mDevice);
+                            0, writeData.array(), writeUuid, mDevice);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        Queue<byte[]> queue = BleDataUtils.getBatchData(writeData, lengthPerBatch);
-        if (queue.isEmpty()) {
-            callback.onWriteBatchFailed(BleErrorCodes.UNKNOWN, 0, writeData, writeUuid, mDevice);
-            return;
+        if (!options.isAutoMtu() && options.getLengthPerBatch() <= 0) {
+            deliver(getCallbackExecutor(options.getCallbackExecutor()), new Runnable() {
+                @Override
+                public void run() {
+                    callback.onWriteBatchFailed(BleErrorCodes.UNKNOWN, 0, writeData.array(), writeUuid, mDevice);
+                }
+            });
+            return Cancelable.COMPLETED;
         }
-        enqueueOperation(new WriteBatch(serviceUuid, writeUuid, writeData, lengthPerBatch,
-                batchInterval, queue, callback));
+        WriteBatch operation = new WriteBatch(serviceUuid, writeUuid, options.getLengthPerBatch(),
+                options.getBatchInterval(), options.isWriteWithoutResponse(), options.isAutoMtu(),
+                writeData, callback);
+        return enqueueOperation(operation, options.getTimeout(), options.getDeadline(),
+                options.getCallbackExecutor());
     }
 
-    void readRssi(BleRssiCallback callback) {
+    Cancelable readRssi(OperationOptions options, BleRssiCallback callback) {
         if (!isConnected()) {
-            mHandler.post(new Runnable() {
+            deliver(getCallbackExecutor(options.getCallbackExecutor()), new Runnable() {
                 @Override
                 public void run() {
                     callback.onRssiFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, mDevice);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        enqueueOperation(new RssiRead(callback));
+        return enqueueOperation(new RssiRead(options.isCoalesce(), callback), options);
     }
 
-    void requestMtu(int mtu, BleMtuCallback callback) {
+    Cancelable requestMtu(int mtu, OperationOptions options, BleMtuCallback callback) {
         if (!isConnected()) {
-            mHandler.post(new Runnable() {
+            deliver(getCallbackExecutor(options.getCallbackExecutor()), new Runnable() {
                 @Override
                 public void run() {
                     callback.onMtuFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, mDevice);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        enqueueOperation(new MtuSet(mtu, callback));
+        return enqueueOperation(new MtuSet(mtu, callback), options);
     }
 
-    void descriptorRead(UUID serviceUuid, UUID characteristicUuid, UUID descriptorUuid,
-                        BleDescriptorReadCallback callback) {
+    Cancelable descriptorRead(UUID serviceUuid, UUID characteristicUuid, UUID descriptorUuid,
+                              OperationOptions options, BleDescriptorReadCallback callback) {
         if (!isConnected()) {
-            mHandler.post(new Runnable() {
+            deliver(getCallbackExecutor(options.getCallbackExecutor()), new Runnable() {
                 @Override
                 public void run() {
                     callback.onDescriptorReadFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED,
                             descriptorUuid, mDevice);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        enqueueOperation(new DescriptorRead(serviceUuid, characteristicUuid, descriptorUuid, callback));
+        return enqueueOperation(new DescriptorRead(serviceUuid, characteristicUuid, descriptorUuid, callback), options);
     }
 
-    void descriptorWrite(UUID serviceUuid, UUID characteristicUuid, UUID descriptorUuid, byte[] data,
-                         BleDescriptorWriteCallback callback) {
+    Cancelable descriptorWrite(UUID serviceUuid, UUID characteristicUuid, UUID descriptorUuid, byte[] data,
+                               OperationOptions options, BleDescriptorWriteCallback callback) {
         if (!isConnected()) {
-            mHandler.post(new Runnable() {
+            deliver(getCallbackExecutor(options.getCallbackExecutor()), new Runnable() {
                 @Override
                 public void run() {
                     callback.onDescriptorWriteFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, data,
                             descriptorUuid, mDevice);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        enqueueOperation(new DescriptorWrite(serviceUuid, characteristicUuid, descriptorUuid, data, callback));
+        return enqueueOperation(new DescriptorWrite(serviceUuid, characteristicUuid, descriptorUuid, data, callback),
+                options);
     }
 
-    void readPhy(BlePhyReadCallback callback) {
+    Cancelable readPhy(OperationOptions options, BlePhyReadCallback callback) {
         if (!isConnected()) {
-            mHandler.post(new Runnable() {
+            deliver(getCallbackExecutor(options.getCallbackExecutor()), new Runnable() {
                 @Override
                 public void run() {
                     callback.onPhyReadFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, mDevice);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        enqueueOperation(new PhyRead(callback));
+        return enqueueOperation(new PhyRead(options.isCoalesce(), callback), options);
     }
 
-    void setPreferencePhy(int txPhy, int rxPhy, int phyOptions, BlePhyPreferenceCallback callback) {
+    Cancelable setPreferencePhy(int txPhy, int rxPhy, int phyOptions, OperationOptions options,
+                                BlePhyPreferenceCallback callback) {
         if (!isConnected()) {
-            mHandler.post(new Runnable() {
+            deliver(getCallbackExecutor(options.getCallbackExecutor()), new Runnable() {
                 @Override
                 public void run() {
                     callback.onPhyPreferenceSetFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, mDevice);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        enqueueOperation(new PhyPreferenceSet(txPhy, rxPhy, phyOptions, callback));
+        return enqueueOperation(new PhyPreferenceSet(txPhy, rxPhy, phyOptions, callback), options);
     }
 
-    void requestConnectionPriority(int connPriority, BleConnectionPriorityCallback callback) {
+    Cancelable requestConnectionPriority(int connPriority, OperationOptions options,
+                                         BleConnectionPriorityCallback callback) {
         if (!isConnected()) {
-            mHandler.post(new Runnable() {
+            deliver(getCallbackExecutor(options.getCallbackExecutor()), new Runnable() {
                 @Override
                 public void run() {
                     callback.onConnectionPriorityFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, mDevice);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
+        }
+        return enqueueOperation(new ConnectionPrioritySet(connPriority, callback), options);
+    }
+
+    private BaseOperation enqueueOperation(BaseOperation operation, OperationOptions options) {
+        return enqueueOperation(operation, options == null ? 0 : options.getTimeout(),
+                options == null ? 0 : options.getDeadline(), options == null ? null : options.getCallbackExecutor());
+    }
+
+    private BaseOperation enqueueOperation(BaseOperation operation, long timeoutMillis, long deadline,
+                                           Executor callbackExecutor) {
+        operation.mCommunicator = this;
+        operation.mCallbackExecutor = getCallbackExecutor(callbackExecutor);
+        operation.mTimeoutMillis = timeoutMillis;
+        operation.mDeadline = deadline;
+        try {
+            synchronized (mOperationLock) {
+                BaseOperation pending = mOperationQueue.getPendingOperation(operation.mCoalescingKey);
+                if (pending != null) {
+                    if (pending.coalesce(this, operation)) {
+                        operation.mCoalescedInto = pending;
+                        pending.mParticipantCount++;
+                        return operation;
+                    }
+                    discardOperation(pending, BleErrorCodes.OPERATION_SUPERSEDED);
+                }
+                if (!ensureQueueCapacity()) {
+                    failOperation(operation, BleErrorCodes.OPERATION_QUEUE_FULL);
+                    return operation;
+                }
+                // The connection may be lost while waiting for capacity
+                if (!isConnected()) {
+                    failOperation(operation, BleErrorCodes.CONNECTION_NOT_ESTABLISHED);
+                    return operation;
+                }
+                mOperationQueue.offer(operation);
+                if (deadline > 0) {
+                    Message msg = Message.obtain();
+                    msg.what = MSG_WHAT_OPERATION_DEADLINE;
+                    msg.obj = operation;
+                    mHandler.sendMessageAtTime(msg, deadline);
+                }
+            }
+        } finally {
+            flushResults();
         }
-        enqueueOperation(new ConnectionPrioritySet(connPriority, callback));
+        // Start it on the worker thread rather than the caller's thread, usually the main thread
+        runOnHandlerThread(mTryNextOperation);
+        return operation;
     }
 
-    private void enqueueOperation(BaseOperation operation) {
-        if (!mOperationQueue.offer(operation)) {
-            Logger.d("Failed to enqueue operation");
+    /**
+     * Cancel an operation, see {@link Cancelable#cancel()}
+     */
+    private boolean cancelOperation(BaseOperation operation) {
+        try {
+            synchronized (mOperationLock) {
+                if (operation.mCanceled) {
+                    return false;
+                }
+                // A coalesced operation shares the queued one with other callers
+                BaseOperation queued = operation.mCoalescedInto != null ? operation.mCoalescedInto : operation;
+                if (queued.mQueued) {
+                    operation.mCanceled = true;
+                    if (queued.mParticipantCount > 1) {
+                        queued.mParticipantCount--;
+                        queued.withdraw(operation);
+                    } else {
+                        mOperationQueue.discard(queued);
+                        removeDeadline(queued);
+                        mOperationLock.notifyAll();
+                    }
+                    deliver(operation.mCallbackExecutor, new Runnable() {
+                        @Override
+                        public void run() {
+                            operation.onCanceled(BleGattCommunicator.this);
+                        }
+                    });
+                    return true;
+                }
+                // Only batch writing can be aborted between two batches once it has started
+                if (mCurrentOperation == operation && operation instanceof WriteBatch) {
+                    operation.mCanceled = true;
+                    return true;
+                }
+                return false;
+            }
+        } finally {
+            flushResults();
         }
-        tryNextOperation();
     }
 
-    private void tryNextOperation() {
+    private void onOperationDeadline(BaseOperation operation) {
         synchronized (mOperationLock) {
-            if (mOperationExecuting) {
-                return;
+            // Fail it only if it's still waiting, or its timeout will take care of it
+            if (operation.mQueued) {
+                discardOperation(operation, BleErrorCodes.DEADLINE_EXCEEDED);
             }
-            BaseOperation operation = mOperationQueue.peek();
-            if (operation == null) {
-                return;
+        }
+        flushResults();
+    }
+
+    /**
+     * Make room for a new operation according to the queue-full policy, it must be called
+     * with mOperationLock held
+     *
+     * @return true if the new operation can be queued
+     */
+    private boolean ensureQueueCapacity() {
+        BleManager manager = BleManager.getInstance();
+        int limit = manager.getOperationQueueLimit();
+        if (mOperationQueue.size() < limit) {
+            return true;
+        }
+        switch (manager.getOperationQueueFullPolicy()) {
+            case BleManager.QUEUE_FULL_POLICY_DROP_OLDEST:
+                BaseOperation oldest = mOperationQueue.peekOldest();
+                if (oldest == null) {
+                    return false;
+                }
+                discardOperation(oldest, BleErrorCodes.OPERATION_QUEUE_FULL);
+                return true;
+            case BleManager.QUEUE_FULL_POLICY_BLOCK:
+                // Never block the worker thread, or the queue would never be drained, and
+                // never block the main thread either
+                Looper looper = Looper.myLooper();
+                if (looper == mHandler.getLooper() || looper == Looper.getMainLooper()) {
+                    return false;
+                }
+                long deadline = SystemClock.uptimeMillis() + manager.getGattOperationTimeout();
+                long remaining;
+                while (mOperationQueue.size() >= limit &&
+                        (remaining = deadline - SystemClock.uptimeMillis()) > 0) {
+                    try {
+                        mOperationLock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                return mOperationQueue.size() < limit;
+            case BleManager.QUEUE_FULL_POLICY_REJECT:
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Remove an operation waiting in the queue and notify its callback
+     */
+    private void discardOperation(BaseOperation operation, int errCode) {
+        if (operation == null) {
+            return;
+        }
+        mOperationQueue.discard(operation);
+        removeDeadline(operation);
+        failOperation(operation, errCode);
+    }
+
+    /**
+     * Remove the deadline msg of an operation once it leaves the queue, or the msg would keep
+     * the operation and its data alive until the deadline
+     */
+    private void removeDeadline(BaseOperation operation) {
+        if (operation.mDeadline > 0) {
+            mHandler.removeMessages(MSG_WHAT_OPERATION_DEADLINE, operation);
+        }
+    }
+
+    private void failOperation(BaseOperation operation, int errCode) {
+        deliver(operation.mCallbackExecutor, new Runnable() {
+            @Override
+            public void run() {
+                operation.onFailed(BleGattCommunicator.this, errCode);
             }
-            mOperationExecuting = true;
-            boolean started = false;
-            long timeoutMillis = BleManager.getInstance().getGattOperationTimeout();
-            if (operation instanceof Read) {
-                started = read((Read) operation);
-            } else if (operation instanceof Write) {
-                started = write((Write) operation);
-            } else if (operation instanceof WriteBatch) {
-                WriteBatch wb = (WriteBatch) operation;
-                started = writeByBatch(wb);
-                // We should calculate a max timeout duration
-                timeoutMillis = wb.mBatchNum * BleManager.getInstance().getGattOperationTimeout() +
-                        (wb.mBatchNum - 1) * wb.mBatchInterval;
-            } else if (operation instanceof MtuSet) {
-                started = requestMtu((MtuSet) operation);
-            } else if (operation instanceof RssiRead) {
-                started = readRssi((RssiRead) operation);
-            } else if (operation instanceof Notify) {
-                int ret = notify((Notify) operation);
-                started = ret == NOTIFY_STARTED;
-            } else if (operation instanceof DescriptorWrite) {
-                started = descriptorWrite((DescriptorWrite) operation);
-            } else if (operation instanceof DescriptorRead) {
-                started = descriptorRead((DescriptorRead) operation);
-            } else if (operation instanceof PhyRead) {
-                started = readPhy((PhyRead) operation);
-            } else if (operation instanceof PhyPreferenceSet) {
-                started = setPreferencePhy((PhyPreferenceSet) operation);
-            } else if (operation instanceof ConnectionPrioritySet) {
-                started = requestConnectionPriority((ConnectionPrioritySet) operation);
-            }
-            if (started) {
-                Message msg = Message.obtain();
-                msg.what = MSG_WHAT_OPERATION_TIMEOUT;
-                msg.obj = operation;
-                mHandler.sendMessageDelayed(msg, timeoutMillis);
-            } else {
-                mOperationQueue.poll();
-                mOperationExecuting = false;
-                mHandler.post(() -> tryNextOperation());
+        });
+    }
+
+    int getPendingOperationCount() {
+        synchronized (mOperationLock) {
+            return mOperationQueue.size();
+        }
+    }
+
+    private void tryNextOperation() {
+        try {
+            synchronized (mOperationLock) {
+                long now = SystemClock.uptimeMillis();
+                mLastActiveTime = now;
+                if (mOperationExecuting) {
+                    return;
+                }
+                BaseOperation operation;
+                while ((operation = mOperationQueue.poll()) != null) {
+                    removeDeadline(operation);
+                    // Fail stale operations instead of sending them
+                    if (operation.mDeadline > 0 && operation.mDeadline <= now) {
+                        failOperation(operation, BleErrorCodes.DEADLINE_EXCEEDED);
+                        continue;
+                    }
+                    break;
+                }
+                // Wake up producers waiting for capacity
+                mOperationLock.notifyAll();
+                if (operation == null) {
+                    return;
+                }
+                mCurrentOperation = operation;
+                mOperationExecuting = true;
+                boolean started = operation.execute(this);
+                if (started) {
+                    long timeoutMillis = operation.getTimeoutMillis(this);
+                    if (operation.mDeadline > 0) {
+                        timeoutMillis = Math.min(timeoutMillis, operation.mDeadline - now);
+                    }
+                    Message msg = Message.obtain();
+                    msg.what = MSG_WHAT_OPERATION_TIMEOUT;
+                    msg.obj = operation;
+                    mHandler.sendMessageDelayed(msg, timeoutMillis);
+                } else {
+                    mCurrentOperation = null;
+                    mOperationExecuting = false;
+                    mHandler.post(mTryNextOperation);
+                }
             }
+        } finally {
+            flushResults();
         }
     }
 
@@ -671,62 +1128,19 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             if (!mOperationExecuting) {
                 return;
             }
-            BaseOperation head = mOperationQueue.peek();
-            if (head != operation) {
+            if (mCurrentOperation != operation) {
                 return;
             }
-            mOperationQueue.poll();
+            mCurrentOperation = null;
             mOperationExecuting = false;
-            if (operation instanceof ConnectionPrioritySet) {
-                // No any callback will be triggered after requesting connection
-                // priority. so we consider this request succeed.
-                ConnectionPrioritySet cps = (ConnectionPrioritySet) operation;
-                cps.mBleConnectionPriorityCallback.onConnectionPriorityRequestSuccess(
-                        cps.mConnectionPriority, mDevice);
-            } else if (operation instanceof DescriptorRead) {
-                DescriptorRead dr = ((DescriptorRead) operation);
-                dr.mBleDescriptorReadCallback.onDescriptorReadFailed(BleErrorCodes.TIMEOUT,
-                        dr.mDescriptorUuid, mDevice);
-            } else if (operation instanceof DescriptorWrite) {
-                DescriptorWrite dw = ((DescriptorWrite) operation);
-                dw.mBleDescriptorWriteCallback.onDescriptorWriteFailed(BleErrorCodes.TIMEOUT,
-                        dw.mData, dw.mDescriptorUuid, mDevice);
-            } else if (operation instanceof MtuSet) {
-                MtuSet ms = ((MtuSet) operation);
-                ms.mBleMtuCallback.onMtuFailed(BleErrorCodes.TIMEOUT, mDevice);
-            } else if (operation instanceof Notify) {
-                Notify notify = ((Notify) operation);
-                if (notify.mEnable) {
-                    notify.mBleNotifyCallback.onNotifyFailed(BleErrorCodes.TIMEOUT,
-                            notify.mNotifyUuid, mDevice);
-                }
-            } else if (operation instanceof PhyPreferenceSet) {
-                PhyPreferenceSet pps = ((PhyPreferenceSet) operation);
-                pps.mBlePhyPreferenceCallback.onPhyPreferenceSetFailed(BleErrorCodes.TIMEOUT, mDevice);
-                mPhyPreferenceCallback = pps.mBlePhyPreferenceCallback;
-            } else if (operation instanceof PhyRead) {
-                PhyRead pr = ((PhyRead) operation);
-                pr.mBlePhyReadCallback.onPhyReadFailed(BleErrorCodes.TIMEOUT, mDevice);
-            } else if (operation instanceof Read) {
-                Read read = ((Read) operation);
-                read.mBleReadCallback.onReadFailed(BleErrorCodes.TIMEOUT, read.mReadUuid, mDevice);
-            } else if (operation instanceof RssiRead) {
-                RssiRead rr = ((RssiRead) operation);
-                rr.mBleRssiCallback.onRssiFailed(BleErrorCodes.TIMEOUT, mDevice);
-            } else if (operation instanceof Write) {
-                Write write = ((Write) operation);
-                write.mBleWriteCallback.onWriteFailed(BleErrorCodes.TIMEOUT, write.mData,
-                        write.mWriteUuid, mDevice);
-            } else if (operation instanceof WriteBatch) {
-                WriteBatch wb = ((WriteBatch) operation);
-                mHandler.removeMessages(MSG_WHAT_WRITE_BATCH_DELAY);
-                // Current pack may not succeed, so - 1
-                int writtenBatchCount = wb.mBatchNum - wb.mBatchQueue.size() - 1;
-                int writtenLen = wb.mLengthPerBatch * writtenBatchCount;
-                wb.mBleWriteByBatchCallback.onWriteBatchFailed(BleErrorCodes.TIMEOUT, writtenLen,
-                        wb.mData, wb.mWriteUuid, mDevice);
-            }
+            deliver(operation.mCallbackExecutor, new Runnable() {
+                @Override
+                public void run() {
+                    operation.onTimeout(BleGattCommunicator.this);
+                }
+            });
         }
+        flushResults();
         tryNextOperation();
     }
 
@@ -735,6 +1149,13 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         UUID notifyUuid = operation.mNotifyUuid;
         boolean enable = operation.mEnable;
         BleNotifyCallback callback = operation.mBleNotifyCallback;
+        if (operation.mOwner != null) {
+            NotifyRoute route = mNotifyCallbackMap.get(new OperationIdentify(serviceUuid, notifyUuid));
+            if (route == null || route.mCallback != operation.mOwner) {
+                // The app has enabled the notification itself, leave it alone
+                return NOTIFY_COMPLETED_SUCCESS;
+            }
+        }
 
         // Check conditions
         boolean connected = mGatt != null && isConnected();
@@ -763,7 +1184,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                 code = BleErrorCodes.NOTIFICATION_OR_INDICATION_UNSUPPORTED;
             }
             if (enable) {
-                mHandler.post(new Runnable() {
+                deliver(operation.mCallbackExecutor, new Runnable() {
                     @Override
                     public void run() {
                         if (callback == null) return;
@@ -778,7 +1199,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         boolean success = mGatt.setCharacteristicNotification(characteristic, enable);
         if (!success) {
             if (enable) {
-                mHandler.post(new Runnable() {
+                deliver(operation.mCallbackExecutor, new Runnable() {
                     @Override
                     public void run() {
                         if (callback == null) return;
@@ -793,13 +1214,9 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
                 UUID.fromString(BleGatt.CHARACTERISTIC_CONFIG_DESCRIPTOR_UUID));
         if (descriptor == null) {
-            OperationIdentify identify = getOperationIdentify(mNotifyCallbackMap, serviceUuid, notifyUuid);
             if (enable) {
-                if (identify == null) {
-                    identify = new OperationIdentify(serviceUuid, notifyUuid);
-                }
-                mNotifyCallbackMap.put(identify, callback);
-                mHandler.post(new Runnable() {
+                putNotifyCallback(characteristic, operation);
+                deliver(operation.mCallbackExecutor, new Runnable() {
                     @Override
                     public void run() {
                         if (callback == null) return;
@@ -807,9 +1224,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                     }
                 });
             } else {
-                if (identify != null) {
-                    mNotifyCallbackMap.remove(identify);
-                }
+                removeNotifyCallback(characteristic, serviceUuid, notifyUuid);
             }
             return NOTIFY_COMPLETED_SUCCESS;
         }
@@ -829,7 +1244,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             return NOTIFY_STARTED;
         } else {
             if (enable) {
-                mHandler.post(new Runnable() {
+                deliver(operation.mCallbackExecutor, new Runnable() {
                     @Override
                     public void run() {
                         if (callback == null) return;
@@ -870,7 +1285,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             } else {
                 code = BleErrorCodes.READ_UNSUPPORTED;
             }
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onReadFailed(code, readUuid, mDevice);
@@ -880,7 +1295,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         }
         // Read data from characteristic
         if (!mGatt.readCharacteristic(characteristic)) {
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onReadFailed(BleErrorCodes.UNKNOWN, readUuid, mDevice);
@@ -921,7 +1336,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             } else {
                 code = BleErrorCodes.WRITE_UNSUPPORTED;
             }
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onWriteFailed(code, data, writeUuid, mDevice);
@@ -929,9 +1344,10 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             });
             return false;
         }
-        return writeData(characteristic, data, callback);
+        return writeData(characteristic, data, operation.mCallbackExecutor, callback);
     }
 
+    @SuppressWarnings("NewApi")
     private boolean writeByBatch(WriteBatch operation) {
         UUID serviceUuid = operation.mServiceUuid;
         UUID writeUuid = operation.mWriteUuid;
@@ -945,13 +1361,15 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         boolean validData = false;
         if (connected) {
             service = mGatt.getService(serviceUuid);
-            validData = writeData != null && writeData.length > 0;
+            validData = operation.mCursor.length() > 0;
         }
         if (service != null) {
             characteristic = service.getCharacteristic(writeUuid);
         }
         if (characteristic != null) {
-            writable = BluetoothGattUtils.isCharacteristicWritable(characteristic);
+            writable = operation.mWriteWithoutResponse ?
+                    BluetoothGattUtils.isCharacteristicWritableWithoutResponse(characteristic) :
+                    BluetoothGattUtils.isCharacteristicWritable(characteristic);
         }
         if (!connected || service == null || characteristic == null || !writable || !validData) {
             int code;
@@ -966,80 +1384,212 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             } else {
                 code = BleErrorCodes.DATA_LENGTH_GREATER_THAN_MTU;
             }
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
-                    callback.onWriteBatchFailed(code, 0, writeData, writeUuid, mDevice);
+                    // It may be a suspended operation, some batches may have been written
+                    callback.onWriteBatchFailed(code, operation.mCursor.position() - operation.mInFlightLength,
+                            writeData, writeUuid, mDevice);
                 }
             });
             return false;
         }
 
-        BluetoothGattCharacteristic gattChar = characteristic;
-        BleWriteCallback writeCallback = new BleWriteCallback() {
-            private boolean finishOperation() {
-                synchronized (mOperationLock) {
-                    if (!mOperationExecuting) {
-                        return false;
-                    }
-                    BaseOperation baseOperation = mOperationQueue.peek();
-                    if (baseOperation instanceof WriteBatch) {
-                        WriteBatch operation = (WriteBatch) baseOperation;
-                        if (operation.mBleWriteCallback != this) {
-                            return false;
-                        }
-                        mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, operation);
-                        mOperationQueue.poll();
-                        mOperationExecuting = false;
-                        return true;
+        // Resume the batch writing that yielded to operations with higher priority
+        if (operation.mResumeTask != null) {
+            Message msg = Message.obtain(mHandler, operation.mResumeTask);
+            msg.what = MSG_WHAT_WRITE_BATCH_DELAY;
+            mHandler.sendMessage(msg);
+            operation.mResumeTask = null;
+            return true;
+        }
+        operation.mCharacteristic = characteristic;
+        // Negotiate the largest MTU first, and the batches will be written once the MTU has
+        // changed, see onMtuChanged()
+        if (operation.mAutoMtu && mCurrentMtu < BleGatt.MTU_MAX &&
+                Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && mGatt.requestMtu(BleGatt.MTU_MAX)) {
+            operation.mMtuRequesting = true;
+            return true;
+        }
+        return writeFirstBatch(operation);
+    }
+
+    private void onWriteBatchMtuChanged(WriteBatch operation) {
+        synchronized (mOperationLock) {
+            if (!mOperationExecuting || mCurrentOperation != operation) {
+                return;
+            }
+        }
+        if (operation.mCanceled) {
+            if (finishWriteBatch(operation)) {
+                finishOperation(operation, new Runnable() {
+                    @Override
+                    public void run() {
+                        operation.onCanceled(BleGattCommunicator.this);
                     }
-                    return false;
-                }
+                });
             }
+            return;
+        }
+        if (!writeFirstBatch(operation) && finishWriteBatch(operation)) {
+            mHandler.post(mTryNextOperation);
+        }
+    }
 
-            @Override
-            public void onWriteSuccess(byte[] data, UUID characteristicUuid, BleDevice device) {
-                // Notify current progress
-                int writtenBatchCount = operation.mBatchNum - operation.mBatchQueue.size();
-                // The length of the last batch may be not equal 'lengthPerPackage'
-                int writtenLen = (writtenBatchCount - 1) * operation.mLengthPerBatch + data.length;
-                float progress = writtenLen / (float) operation.mData.length;
-                operation.mBleWriteByBatchCallback.onWriteBatchProgress(progress, characteristicUuid, device);
-                final byte[] next = operation.mBatchQueue.poll();
-                // All batches have been written
-                if (next == null) {
-                    operation.mBleWriteByBatchCallback.onWriteBatchSuccess(operation.mData,
-                            characteristicUuid, device);
-                    return;
-                }
-                // Write the next batch
-                if (!isConnected()) {
-                    if (finishOperation()) {
-                        operation.mBleWriteByBatchCallback.onWriteBatchFailed(
-                                BleErrorCodes.CONNECTION_NOT_ESTABLISHED,
-                                writtenLen, operation.mData, characteristicUuid, device);
-                        tryNextOperation();
-                    }
-                    return;
-                }
-                if (operation.mBatchInterval <= 0) {
-                    writeData(gattChar, next, operation.mBleWriteCallback);
-                } else {
-                    Message msg = Message.obtain(mHandler, new Runnable() {
+    private boolean finishWriteBatch(WriteBatch operation) {
+        synchronized (mOperationLock) {
+            if (!mOperationExecuting || mCurrentOperation != operation) {
+                return false;
+            }
+            mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, operation);
+            mHandler.removeMessages(MSG_WHAT_WRITE_BATCH_DELAY);
+            mCurrentOperation = null;
+            mOperationExecuting = false;
+            return true;
+        }
+    }
+
+    /**
+     * Suspend the batch writing between two batches if any operation with higher priority is
+     * waiting, so that it won't hold the queue during a long transfer. The suspended operation
+     * is put back to the head of its lane and resumed by the resume task once higher priority
+     * operations are done.
+     */
+    private boolean yieldWriteBatch(WriteBatch operation, Runnable resumeTask) {
+        synchronized (mOperationLock) {
+            if (mCurrentOperation != operation ||
+                    !mOperationQueue.hasPriorityHigherThan(operation.mLane)) {
+                return false;
+            }
+            mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, operation);
+            operation.mResumeTask = resumeTask;
+            mOperationQueue.offerFirst(operation);
+            mCurrentOperation = null;
+            mOperationExecuting = false;
+        }
+        runOnHandlerThread(mTryNextOperation);
+        return true;
+    }
+
+    private long getWriteBatchTimeout(WriteBatch operation) {
+        // We should calculate a max timeout duration of the remaining batches, in auto-MTU mode
+        // batches may be as small as the default MTU allows, and one more request is needed to
+        // exchange MTU
+        int length = operation.mAutoMtu ? BleGatt.MTU_MIN - BleGatt.ATT_OCCUPY_BYTES_NUM :
+                operation.mLengthPerBatch;
+        int remaining = operation.mCursor.length() - operation.mCursor.position() + operation.mInFlightLength;
+        int batchNum = (remaining + length - 1) / length + (operation.mAutoMtu ? 1 : 0);
+        long timeoutPerBatch = operation.mTimeoutMillis > 0 ? operation.mTimeoutMillis :
+                BleManager.getInstance().getGattOperationTimeout();
+        return batchNum * timeoutPerBatch + (batchNum - 1) * operation.mBatchInterval;
+    }
+
+    private int getBatchLength(WriteBatch operation) {
+        // Size batches from the live MTU, so the rest of data will be re-chunked automatically
+        // if the MTU changes during the transfer
+        return operation.mAutoMtu ? mCurrentMtu - BleGatt.ATT_OCCUPY_BYTES_NUM : operation.mLengthPerBatch;
+    }
+
+    private boolean writeFirstBatch(WriteBatch operation) {
+        BluetoothGattCharacteristic gattChar = operation.mCharacteristic;
+        int writeType = operation.mWriteWithoutResponse ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE :
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
+        BleWriteCallback writeCallback = new BleWriteCallback() {
+            private void failOperation(int errCode, int writtenLen, UUID characteristicUuid, BleDevice device) {
+                if (finishWriteBatch(operation)) {
+                    finishOperation(operation, new Runnable() {
                         @Override
                         public void run() {
-                            if (!isConnected()) {
-                                if (finishOperation()) {
-                                    operation.mBleWriteByBatchCallback.onWriteBatchFailed(
-                                            BleErrorCodes.CONNECTION_NOT_ESTABLISHED, writtenLen,
-                                            operation.mData, characteristicUuid, device);
-                                    tryNextOperation();
-                                }
-                                return;
-                            }
-                            writeData(gattChar, next, operation.mBleWriteCallback);
+                            operation.mBleWriteByBatchCallback.onWriteBatchFailed(errCode, writtenLen,
+                                    operation.mData, characteristicUuid, device);
+                        }
+                    });
+                }
+            }
+
+            // Writes the pending batch, it's allocated once for the whole transfer and reused for
+            // pacing, retrying and resuming
+            private final Runnable writePendingTask = this::writeNext;
+
+            private void writeNext() {
+                byte[] next = operation.mPendingBatch;
+                int writtenLen = operation.mPendingWrittenLen;
+                UUID characteristicUuid = operation.mWriteUuid;
+                BleDevice device = mDevice;
+                if (operation.mCanceled) {
+                    failOperation(BleErrorCodes.OPERATION_CANCELED, writtenLen, characteristicUuid, device);
+                    return;
+                }
+                if (yieldWriteBatch(operation, writePendingTask)) {
+                    return;
+                }
+                if (!isConnected()) {
+                    failOperation(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, writtenLen, characteristicUuid, device);
+                    return;
+                }
+                if (!operation.mWriteWithoutResponse) {
+                    // The batch callback is internal, so run it on the worker thread
+                    writeData(gattChar, next, writeType, mWorkerExecutor, operation.mBleWriteCallback);
+                    return;
+                }
+                // The bluetooth stack accepts only one outstanding request per connection, and
+                // it refuses the next write-without-response until the controller has taken
+                // the previous one, so a refused write means back-pressure, retry it later
+                if (writeCharacteristic(gattChar, next, writeType)) {
+                    operation.mBusyRetryCount = 0;
+                    return;
+                }
+                if (++operation.mBusyRetryCount > WRITE_BATCH_BUSY_MAX_RETRY_COUNT) {
+                    failOperation(BleErrorCodes.GATT_CONNECTION_CONGESTED, writtenLen, characteristicUuid, device);
+                    return;
+                }
+                Message msg = Message.obtain(mHandler, writePendingTask);
+                msg.what = MSG_WHAT_WRITE_BATCH_DELAY;
+                mHandler.sendMessageDelayed(msg, WRITE_BATCH_BUSY_RETRY_DELAY_MILLIS);
+            }
+
+            @Override
+            public void onWriteSuccess(byte[] data, UUID characteristicUuid, BleDevice device) {
+                // Notify current progress
+                int writtenLen = operation.mCursor.position();
+                if (operation.mCanceled) {
+                    failOperation(BleErrorCodes.OPERATION_CANCELED, writtenLen, characteristicUuid, device);
+                    return;
+                }
+                float progress = writtenLen / (float) operation.mCursor.length();
+                final byte[] next;
+                try {
+                    next = operation.mCursor.next(getBatchLength(operation));
+                } catch (IOException e) {
+                    Logger.e("Failed to read batch data: " + e.getMessage());
+                    failOperation(BleErrorCodes.BATCH_DATA_READ_FAILED, writtenLen, characteristicUuid, device);
+                    return;
+                }
+                operation.mInFlightLength = next == null ? 0 : next.length;
+                // All batches have been written, current operation finished
+                boolean finished = next == null && finishWriteBatch(operation);
+                Executor executor = operation.mCallbackExecutor;
+                deliver(executor, CallbackEvent.obtainWriteBatchProgress(isInternalExecutor(executor),
+                        operation.mBleWriteByBatchCallback, progress, characteristicUuid, device));
+                if (finished) {
+                    finishOperation(operation, new Runnable() {
+                        @Override
+                        public void run() {
+                            operation.mBleWriteByBatchCallback.onWriteBatchSuccess(operation.mData,
+                                    characteristicUuid, device);
                         }
                     });
+                }
+                if (next == null) {
+                    return;
+                }
+                // Write the next batch
+                operation.mPendingBatch = next;
+                operation.mPendingWrittenLen = writtenLen;
+                if (operation.mBatchInterval <= 0) {
+                    writeNext();
+                } else {
+                    Message msg = Message.obtain(mHandler, writePendingTask);
                     msg.what = MSG_WHAT_WRITE_BATCH_DELAY;
                     mHandler.sendMessageDelayed(msg, operation.mBatchInterval);
                 }
@@ -1047,27 +1597,54 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
 
             @Override
             public void onWriteFailed(int errCode, byte[] data, UUID characteristicUuid, BleDevice device) {
-                // Failed to sent current pack, so - 1
-                int writtenBatchCount = operation.mBatchNum - operation.mBatchQueue.size() - 1;
-                int writtenLen = operation.mLengthPerBatch * writtenBatchCount;
-                if (finishOperation()) {
-                    operation.mBleWriteByBatchCallback.onWriteBatchFailed(errCode, writtenLen,
-                            operation.mData, characteristicUuid, device);
-                    tryNextOperation();
-                }
+                // Failed to sent current batch
+                int writtenLen = operation.mCursor.position() - operation.mInFlightLength;
+                failOperation(errCode, writtenLen, characteristicUuid, device);
             }
         };
         operation.mBleWriteCallback = writeCallback;
 
-        byte[] d = operation.mBatchQueue.poll();
-        return d != null && writeData(characteristic, d, writeCallback);
+        // The first batch is reported to the batch callback directly, because the operation
+        // will be removed from the queue by the caller if it fails
+        int errCode;
+        try {
+            byte[] d = operation.mCursor.next(getBatchLength(operation));
+            operation.mInFlightLength = d.length;
+            if (d.length > mCurrentMtu - BleGatt.ATT_OCCUPY_BYTES_NUM) {
+                errCode = BleErrorCodes.DATA_LENGTH_GREATER_THAN_MTU;
+            } else if (writeCharacteristic(gattChar, d, writeType)) {
+                return true;
+            } else {
+                errCode = BleErrorCodes.UNKNOWN;
+            }
+        } catch (IOException e) {
+            Logger.e("Failed to read batch data: " + e.getMessage());
+            errCode = BleErrorCodes.BATCH_DATA_READ_FAILED;
+        }
+        int code = errCode;
+        deliver(operation.mCallbackExecutor, new Runnable() {
+            @Override
+            public void run() {
+                operation.mBleWriteByBatchCallback.onWriteBatchFailed(code, 0, operation.mData,
+                        operation.mWriteUuid, mDevice);
+            }
+        });
+        return false;
+    }
+
+    private boolean writeData(BluetoothGattCharacteristic characteristic, byte[] data,
+                              Executor executor, BleWriteCallback callback) {
+        return writeData(characteristic, data, characteristic.getWriteType(), executor, callback);
     }
 
-    private boolean writeData(BluetoothGattCharacteristic characteristic,
-                              byte[] data, BleWriteCallback callback) {
+    /**
+     * @param executor the executor that the failure is delivered on
+     */
+    private boolean writeData(BluetoothGattCharacteristic characteristic, byte[] data, int writeType,
+                              Executor executor, BleWriteCallback callback) {
         int minNumPerPack = mCurrentMtu - BleGatt.ATT_OCCUPY_BYTES_NUM;
         if (data.length > minNumPerPack) {
-            mHandler.post(new Runnable() {
+            deliver(executor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onWriteFailed(BleErrorCodes.DATA_LENGTH_GREATER_THAN_MTU, data,
@@ -1077,8 +1654,8 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             return false;
         }
         // Write data
-        if (!characteristic.setValue(data) || !mGatt.writeCharacteristic(characteristic)) {
-            mHandler.post(new Runnable() {
+        if (!writeCharacteristic(characteristic, data, writeType)) {
+            deliver(executor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onWriteFailed(BleErrorCodes.UNKNOWN, data, characteristic.getUuid(), mDevice);
@@ -1089,6 +1666,20 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         return true;
     }
 
+    private boolean writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] data, int writeType) {
+        BluetoothGatt gatt = mGatt;
+        if (gatt == null) {
+            return false;
+        }
+        // The write type is shared by all writes to this characteristic, so restore it once
+        // the request has been handed to the bluetooth stack
+        int originalWriteType = characteristic.getWriteType();
+        characteristic.setWriteType(writeType);
+        boolean success = characteristic.setValue(data) && gatt.writeCharacteristic(characteristic);
+        characteristic.setWriteType(originalWriteType);
+        return success;
+    }
+
     private boolean descriptorWrite(DescriptorWrite operation) {
         UUID serviceUuid = operation.mServiceUuid;
         UUID characteristicUuid = operation.mCharacteristicUuid;
@@ -1120,7 +1711,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             } else {
                 code = BleErrorCodes.DESCRIPTOR_NOT_FOUND_IN_CHARACTERISTIC;
             }
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onDescriptorWriteFailed(code, data, descriptorUuid, mDevice);
@@ -1129,7 +1720,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             return false;
         }
         if (!descriptor.setValue(data) || !mGatt.writeDescriptor(descriptor)) {
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onDescriptorWriteFailed(BleErrorCodes.UNKNOWN, data, descriptorUuid, mDevice);
@@ -1170,7 +1761,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             } else {
                 code = BleErrorCodes.DESCRIPTOR_NOT_FOUND_IN_CHARACTERISTIC;
             }
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onDescriptorReadFailed(code, descriptorUuid, mDevice);
@@ -1179,7 +1770,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             return false;
         }
         if (!mGatt.readDescriptor(descriptor)) {
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onDescriptorReadFailed(BleErrorCodes.UNKNOWN, descriptorUuid, mDevice);
@@ -1194,7 +1785,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         BleRssiCallback callback = operation.mBleRssiCallback;
         // Check connection
         if (mGatt == null || !isConnected()) {
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onRssiFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, mDevice);
@@ -1203,7 +1794,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             return false;
         }
         if (!mGatt.readRemoteRssi()) {
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onRssiFailed(BleErrorCodes.UNKNOWN, mDevice);
@@ -1221,7 +1812,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         boolean connected = mGatt != null && isConnected();
         boolean versionSupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
         if (!connected || !versionSupported) {
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onMtuFailed(!connected ? BleErrorCodes.CONNECTION_NOT_ESTABLISHED :
@@ -1231,7 +1822,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             return false;
         }
         if (mtu == mCurrentMtu) {
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onMtuChanged(mCurrentMtu, mDevice);
@@ -1245,7 +1836,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             mtu = BleGatt.MTU_MAX;
         }
         if (!mGatt.requestMtu(mtu)) {
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onMtuFailed(BleErrorCodes.UNKNOWN, mDevice);
@@ -1261,7 +1852,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         boolean connected = mGatt != null && isConnected();
         boolean versionSupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
         if (!connected || !versionSupported) {
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onPhyReadFailed(!connected ? BleErrorCodes.CONNECTION_NOT_ESTABLISHED :
@@ -1282,7 +1873,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         boolean connected = mGatt != null && isConnected();
         boolean versionSupported = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O;
         if (!connected || !versionSupported) {
-            mHandler.post(new Runnable() {
+            deliver(operation.mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onPhyPreferenceSetFailed(!connected ? BleErrorCodes.CONNECTION_NOT_ESTABLISHED :
@@ -1326,7 +1917,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                         return;
                     }
                     // Check if current operation may trigger this bonding-process
-                    BaseOperation baseOp = mOperationQueue.peek();
+                    BaseOperation baseOp = mCurrentOperation;
                     boolean mayTrigger = baseOp instanceof CanTriggerBonding;
                     if (!mayTrigger) {
                         return;
@@ -1334,13 +1925,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                     // Cancel previous timeout msg
                     mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, baseOp);
                     // Calculate new timeout millis and send this timeout msg
-                    long millis = BONDING_TIMEOUT_MILLIS + BleManager.getInstance().getGattOperationTimeout();
-                    if (baseOp instanceof WriteBatch) {
-                        WriteBatch wb = (WriteBatch) baseOp;
-                        millis = BONDING_TIMEOUT_MILLIS +
-                                wb.mBatchNum * BleManager.getInstance().getGattOperationTimeout() +
-                                (wb.mBatchNum - 1) * wb.mBatchInterval;
-                    }
+                    long millis = BONDING_TIMEOUT_MILLIS + baseOp.getTimeoutMillis(this);
                     Message msg = Message.obtain();
                     msg.what = MSG_WHAT_OPERATION_TIMEOUT;
                     msg.obj = baseOp;
@@ -1361,7 +1946,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                     mGatt.getDevice().getBondState() != BluetoothDevice.BOND_BONDING) {
                 Logger.d("Start discovering services");
                 mGatt.discoverServices();
-                mConnState = CONNECTED_AND_SERVICES_DISCOVERING;
+                setConnState(CONNECTED_AND_SERVICES_DISCOVERING);
             }
         }
     }
@@ -1380,12 +1965,12 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         stopAndClearOperations();
         clearAllCallbacks();
         resetConnParamsAndMtu();
-        mConnState = CONNECTING;
+        setConnState(CONNECTING);
         // mAutoConnect has been reset to false in #resetConnParamsAndMtu(), restore it
         mAutoConnect = true;
         // Keep connection callback
         mConnectCallback = callback;
-        mHandler.post(new Runnable() {
+        deliver(mCallbackExecutor, new Runnable() {
             @Override
             public void run() {
                 if (callback != null) {
@@ -1412,27 +1997,29 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT);
         mHandler.removeMessages(MSG_WHAT_DISCOVER_SERVICES_DELAY);
         // Before clearing params, create ConnectionRetry used to retry connection
-        ConnectionRetry connRetry = new ConnectionRetry(mConnTimeout,
-                mConnRetryCount, mConnRetryDelay, mAutoConnect, callback);
+        ConnectionRetry connRetry = new ConnectionRetry(mConnTimeout, mConnRetryCount, mConnRetryPolicy,
+                mConnRetryBudget, mConnRetryAttempt, mConnRetryDelay, mAutoConnect, callback);
         refreshDeviceCache();
         gatt.close();
         mGatt = null;
         stopAndClearOperations();
         clearAllCallbacks();
         resetConnParamsAndMtu();
-        mConnState = DISCONNECTED;
+        long retryDelay = connecting && connRetry.mRetryCount > 0 && connRetry.mConnectCallback != null ?
+                connRetry.nextRetryDelay() : -1;
+        // During the connection retry wait period, connection state remains CONNECTING,
+        // so the final state is set once and the state index is updated once
+        setConnState(retryDelay >= 0 ? CONNECTING : DISCONNECTED);
         if (connecting) {
-            boolean retry = connRetry.mRetryCount > 0 && connRetry.mConnectCallback != null;
-            if (retry) {
-                // During the connection retry wait period, connection state remains
-                // CONNECTING, and do not call #onConnectionFailed()
-                mConnState = CONNECTING;
+            if (retryDelay >= 0) {
+                // Do not call #onConnectionFailed() before the retry
                 Message msg = Message.obtain();
                 msg.what = MSG_WHAT_CONNECTION_RETRY;
                 msg.obj = connRetry;
-                mHandler.sendMessageDelayed(msg, mConnRetryDelay);
+                mPendingConnRetry = connRetry;
+                mHandler.sendMessageDelayed(msg, retryDelay);
             } else {
-                mHandler.post(new Runnable() {
+                deliver(mCallbackExecutor, new Runnable() {
                     @Override
                     public void run() {
                         if (callback != null) {
@@ -1442,7 +2029,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                 });
             }
         } else if (connected) {
-            mHandler.post(new Runnable() {
+            deliver(mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     if (callback != null) {
@@ -1451,6 +2038,10 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                 }
             });
         }
+        // A device waiting for connection retry keeps its slot
+        if (mConnState == DISCONNECTED) {
+            mConnectionScheduler.release(this);
+        }
     }
 
     @Override
@@ -1465,7 +2056,9 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 switch (newState) {
                     case BluetoothProfile.STATE_CONNECTED:
-                        mConnState = CONNECTED_BUT_SERVICES_NOT_DISCOVERED;
+                        setConnState(CONNECTED_BUT_SERVICES_NOT_DISCOVERED);
+                        // The link is up, the stack can take the next connection request
+                        mConnectionScheduler.release(this);
                         int bondState = gatt.getDevice().getBondState();
                         if (bondState == BluetoothDevice.BOND_BONDING) {
                             // After connection established, some remote devices trigger bonding
@@ -1521,9 +2114,9 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             mHandler.removeMessages(MSG_WHAT_CONNECTION_TIMEOUT);
             boolean success = status == BluetoothGatt.GATT_SUCCESS;
             if (success) {
-                mConnState = CONNECTED_AND_SERVICES_DISCOVERED;
+                setConnState(CONNECTED_AND_SERVICES_DISCOVERED);
                 BleConnectCallback callback = mConnectCallback;
-                mHandler.post(new Runnable() {
+                deliver(mCallbackExecutor, new Runnable() {
                     @Override
                     public void run() {
                         if (callback != null) {
@@ -1554,36 +2147,26 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         }
         UUID serviceUuid = characteristic.getService().getUuid();
         UUID charUuid = characteristic.getUuid();
-        boolean success = status == BluetoothGatt.GATT_SUCCESS;
         byte[] data = characteristic.getValue();
 
         synchronized (mOperationLock) {
             if (!mOperationExecuting) {
                 return;
             }
-            BaseOperation baseOperation = mOperationQueue.peek();
+            BaseOperation baseOperation = mCurrentOperation;
             if (baseOperation instanceof Read) {
                 Read operation = (Read) baseOperation;
                 if (!operation.mServiceUuid.equals(serviceUuid) || !operation.mReadUuid.equals(charUuid)) {
                     return;
                 }
                 mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, operation);
-                mOperationQueue.poll();
+                mCurrentOperation = null;
                 mOperationExecuting = false;
-                BleReadCallback callback = operation.mBleReadCallback;
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (success) {
-                            callback.onReadSuccess(data, charUuid, mDevice);
-                        } else {
-                            callback.onReadFailed(status, charUuid, mDevice);
-                        }
-                        tryNextOperation();
-                    }
-                });
+                finishOperation(operation, CallbackEvent.obtainRead(isInternalExecutor(operation.mCallbackExecutor),
+                        operation.mBleReadCallback, status, data, charUuid, mDevice));
             }
         }
+        flushResults();
     }
 
     @Override
@@ -1601,7 +2184,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             if (!mOperationExecuting) {
                 return;
             }
-            BaseOperation baseOperation = mOperationQueue.peek();
+            BaseOperation baseOperation = mCurrentOperation;
             if (baseOperation instanceof BaseWriteOperation) {
                 BaseWriteOperation operation = (BaseWriteOperation) baseOperation;
                 if (!operation.mServiceUuid.equals(serviceUuid) || !operation.mWriteUuid.equals(charUuid)) {
@@ -1610,27 +2193,33 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                 if (baseOperation instanceof Write) { // just write once
                     // Current operation finished, so remove it from the queue
                     mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, operation);
-                    mOperationQueue.poll();
+                    mCurrentOperation = null;
                     mOperationExecuting = false;
                 } else if (baseOperation instanceof WriteBatch) { // write multiple times
                     // Do nothing
                 }
                 BleWriteCallback callback = operation.getBleWriteCallback();
-                mHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        if (success) {
-                            callback.onWriteSuccess(data, charUuid, mDevice);
-                        } else {
-                            callback.onWriteFailed(status, data, charUuid, mDevice);
-                        }
-                        if (operation instanceof Write) {
-                            tryNextOperation();
-                        }
+                if (baseOperation instanceof Write) {
+                    finishOperation(operation, CallbackEvent.obtainWrite(isInternalExecutor(operation.mCallbackExecutor),
+                            callback, status, data, charUuid, mDevice));
+                } else if (((WriteBatch) baseOperation).mWriteWithoutResponse &&
+                        !((WriteBatch) baseOperation).mCursor.isStreaming()) {
+                    // Streaming mode, write the next batch right here without waiting for
+                    // a worker thread round trip, the batch callback posts its own results.
+                    // Data pulled from a stream or a channel may block, so it's read on the
+                    // worker thread below
+                    if (success) {
+                        callback.onWriteSuccess(data, charUuid, mDevice);
+                    } else {
+                        callback.onWriteFailed(status, data, charUuid, mDevice);
                     }
-                });
+                } else {
+                    // The batch callback is internal, it paces batches on the worker thread
+                    mHandler.post(CallbackEvent.obtainWrite(true, callback, status, data, charUuid, mDevice));
+                }
             }
         }
+        flushResults();
     }
 
     @Override
@@ -1640,17 +2229,32 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         if (mDevice == null || !address.equals(mDevice.getAddress())) {
             return;
         }
-        UUID serviceUuid = characteristic.getService().getUuid();
         UUID charUuid = characteristic.getUuid();
-        OperationIdentify identify = getOperationIdentify(mNotifyCallbackMap, serviceUuid, charUuid);
-        if (identify == null) {
+        if (mTransactionCount > 0 && completeTransaction(characteristic.getService().getUuid(), charUuid,
+                characteristic.getValue())) {
             return;
         }
-        BleNotifyCallback callback = mNotifyCallbackMap.get(identify);
+        NotifyRoute route = mNotifyRouteMap.get(characteristic);
+        if (route == null) {
+            // Not routed by instance, e.g. services have been rediscovered, look it up by uuid
+            UUID serviceUuid = characteristic.getService().getUuid();
+            route = mNotifyCallbackMap.get(new OperationIdentify(serviceUuid, charUuid));
+            if (route == null) {
+                return;
+            }
+        }
         byte[] data = characteristic.getValue();
-        if (callback != null) {
-            callback.onCharacteristicChanged(data, charUuid, mDevice);
+        if (route.mSink != null) {
+            route.mSink.offer(data);
+            return;
         }
+        if (route.mExecutor == null) {
+            // Deliver it right on the binder thread, no thread hop and no allocation
+            route.mCallback.onCharacteristicChanged(data, charUuid, mDevice);
+            return;
+        }
+        deliver(route.mExecutor, CallbackEvent.obtainNotification(isInternalExecutor(route.mExecutor),
+                route.mCallback, data, charUuid, mDevice));
     }
 
     @Override
@@ -1670,7 +2274,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             if (!mOperationExecuting) {
                 return;
             }
-            BaseOperation baseOperation = mOperationQueue.peek();
+            BaseOperation baseOperation = mCurrentOperation;
             if (baseOperation instanceof DescriptorRead) {
                 DescriptorRead operation = (DescriptorRead) baseOperation;
                 if (!operation.mServiceUuid.equals(serviceUuid) ||
@@ -1679,10 +2283,10 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                     return;
                 }
                 mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, operation);
-                mOperationQueue.poll();
+                mCurrentOperation = null;
                 mOperationExecuting = false;
                 BleDescriptorReadCallback callback = operation.mBleDescriptorReadCallback;
-                mHandler.post(new Runnable() {
+                finishOperation(operation, new Runnable() {
                     @Override
                     public void run() {
                         if (success) {
@@ -1690,11 +2294,11 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                         } else {
                             callback.onDescriptorReadFailed(status, desUuid, mDevice);
                         }
-                        tryNextOperation();
                     }
                 });
             }
         }
+        flushResults();
     }
 
     @Override
@@ -1714,7 +2318,7 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             if (!mOperationExecuting) {
                 return;
             }
-            BaseOperation baseOperation = mOperationQueue.peek();
+            BaseOperation baseOperation = mCurrentOperation;
             if (baseOperation instanceof DescriptorWrite) {
                 DescriptorWrite operation = (DescriptorWrite) baseOperation;
                 if (!operation.mServiceUuid.equals(serviceUuid) ||
@@ -1723,10 +2327,10 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                     return;
                 }
                 mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, operation);
-                mOperationQueue.poll();
+                mCurrentOperation = null;
                 mOperationExecuting = false;
                 BleDescriptorWriteCallback callback = operation.mBleDescriptorWriteCallback;
-                mHandler.post(new Runnable() {
+                finishOperation(operation, new Runnable() {
                     @Override
                     public void run() {
                         if (success) {
@@ -1734,7 +2338,6 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                         } else {
                             callback.onDescriptorWriteFailed(status, data, desUuid, mDevice);
                         }
-                        tryNextOperation();
                     }
                 });
             } else if (baseOperation instanceof Notify) {
@@ -1750,29 +2353,23 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                 if (!isEnabledValue && !isDisabledValue) {
                     return;
                 }
-                OperationIdentify identify = getOperationIdentify(mNotifyCallbackMap, serviceUuid, charUuid);
                 if (operation.mEnable) {
                     if (!isEnabledValue) {
                         return;
                     }
-                    if (identify == null) {
-                        identify = new OperationIdentify(serviceUuid, charUuid);
-                    }
-                    mNotifyCallbackMap.put(identify, operation.mBleNotifyCallback);
+                    putNotifyCallback(descriptor.getCharacteristic(), operation);
                 } else {
                     if (!isDisabledValue) {
                         return;
                     }
-                    if (identify != null) {
-                        mNotifyCallbackMap.remove(identify);
-                    }
+                    removeNotifyCallback(descriptor.getCharacteristic(), serviceUuid, charUuid);
                 }
                 mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, operation);
-                mOperationQueue.poll();
+                mCurrentOperation = null;
                 mOperationExecuting = false;
                 final BleNotifyCallback callback = operation.mBleNotifyCallback;
                 final boolean enabled = operation.mEnable;
-                mHandler.post(new Runnable() {
+                finishOperation(operation, new Runnable() {
                     @Override
                     public void run() {
                         if (enabled && callback != null) {
@@ -1782,11 +2379,11 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                                 callback.onNotifyFailed(status, charUuid, mDevice);
                             }
                         }
-                        tryNextOperation();
                     }
                 });
             }
         }
+        flushResults();
     }
 
     @Override
@@ -1800,14 +2397,14 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             if (!mOperationExecuting) {
                 return;
             }
-            BaseOperation baseOperation = mOperationQueue.peek();
+            BaseOperation baseOperation = mCurrentOperation;
             if (baseOperation instanceof RssiRead) {
                 RssiRead operation = (RssiRead) baseOperation;
                 mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, operation);
-                mOperationQueue.poll();
+                mCurrentOperation = null;
                 mOperationExecuting = false;
                 BleRssiCallback callback = operation.mBleRssiCallback;
-                mHandler.post(new Runnable() {
+                finishOperation(operation, new Runnable() {
                     @Override
                     public void run() {
                         if (status == BluetoothGatt.GATT_SUCCESS) {
@@ -1815,11 +2412,11 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                         } else {
                             callback.onRssiFailed(status, mDevice);
                         }
-                        tryNextOperation();
                     }
                 });
             }
         }
+        flushResults();
     }
 
     @Override
@@ -1838,14 +2435,14 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             if (!mOperationExecuting) {
                 return;
             }
-            BaseOperation baseOperation = mOperationQueue.peek();
+            BaseOperation baseOperation = mCurrentOperation;
             if (baseOperation instanceof MtuSet) {
                 MtuSet operation = (MtuSet) baseOperation;
                 mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, operation);
-                mOperationQueue.poll();
+                mCurrentOperation = null;
                 mOperationExecuting = false;
                 BleMtuCallback callback = operation.mBleMtuCallback;
-                mHandler.post(new Runnable() {
+                finishOperation(operation, new Runnable() {
                     @Override
                     public void run() {
                         if (success) {
@@ -1853,11 +2450,21 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                         } else {
                             callback.onMtuFailed(status, mDevice);
                         }
-                        tryNextOperation();
+                    }
+                });
+            } else if (baseOperation instanceof WriteBatch && ((WriteBatch) baseOperation).mMtuRequesting) {
+                // MTU exchanged before writing in batches, use the current MTU even if failed
+                WriteBatch operation = (WriteBatch) baseOperation;
+                operation.mMtuRequesting = false;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onWriteBatchMtuChanged(operation);
                     }
                 });
             }
         }
+        flushResults();
     }
 
     @Override
@@ -1873,9 +2480,9 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         // in this case, we should send notification that PHY changed, but before
         // doing this, make sure that current onPhyUpdate() is not triggered by
         // calling BluetoothGatt#setPhyPreference()
-        if (success && mPhyPreferenceCallback != null && !(mOperationQueue.peek() instanceof PhyPreferenceSet)) {
+        if (success && mPhyPreferenceCallback != null && !(mCurrentOperation instanceof PhyPreferenceSet)) {
             BlePhyPreferenceCallback callback = mPhyPreferenceCallback;
-            mHandler.post(new Runnable() {
+            deliver(mCallbackExecutor, new Runnable() {
                 @Override
                 public void run() {
                     callback.onPhyChanged(txPhy, rxPhy, mDevice);
@@ -1887,15 +2494,15 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             if (!mOperationExecuting) {
                 return;
             }
-            BaseOperation baseOperation = mOperationQueue.peek();
+            BaseOperation baseOperation = mCurrentOperation;
             if (baseOperation instanceof PhyPreferenceSet) {
                 PhyPreferenceSet operation = (PhyPreferenceSet) baseOperation;
                 mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, operation);
-                mOperationQueue.poll();
+                mCurrentOperation = null;
                 mOperationExecuting = false;
                 mPhyPreferenceCallback = operation.mBlePhyPreferenceCallback;
                 BlePhyPreferenceCallback callback = operation.mBlePhyPreferenceCallback;
-                mHandler.post(new Runnable() {
+                finishOperation(operation, new Runnable() {
                     @Override
                     public void run() {
                         if (success) {
@@ -1903,11 +2510,11 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                         } else {
                             callback.onPhyPreferenceSetFailed(status, mDevice);
                         }
-                        tryNextOperation();
                     }
                 });
             }
         }
+        flushResults();
     }
 
     @Override
@@ -1922,14 +2529,14 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             if (!mOperationExecuting) {
                 return;
             }
-            BaseOperation baseOperation = mOperationQueue.peek();
+            BaseOperation baseOperation = mCurrentOperation;
             if (baseOperation instanceof PhyRead) {
                 PhyRead operation = (PhyRead) baseOperation;
                 mHandler.removeMessages(MSG_WHAT_OPERATION_TIMEOUT, operation);
-                mOperationQueue.poll();
+                mCurrentOperation = null;
                 mOperationExecuting = false;
                 BlePhyReadCallback callback = operation.mBlePhyReadCallback;
-                mHandler.post(new Runnable() {
+                finishOperation(operation, new Runnable() {
                     @Override
                     public void run() {
                         if (success) {
@@ -1937,22 +2544,46 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
                         } else {
                             callback.onPhyReadFailed(status, mDevice);
                         }
-                        tryNextOperation();
                     }
                 });
             }
         }
+        flushResults();
     }
 
     private void stopAndClearOperations() {
         synchronized (mOperationLock) {
             mOperationQueue.clear();
+            mHandler.removeMessages(MSG_WHAT_OPERATION_DEADLINE);
+            mCurrentOperation = null;
             mOperationExecuting = false;
+            mOperationLock.notifyAll();
+        }
+        // Requests are gone along with the connection, so are their responses
+        failAllTransactions(BleErrorCodes.CONNECTION_NOT_ESTABLISHED);
+    }
+
+    private void failAllTransactions(int errCode) {
+        List<Transaction> transactions;
+        synchronized (mTransactions) {
+            // Notifications enabled for transactions are gone along with the connection
+            mTransactionNotifies.clear();
+            if (mTransactions.isEmpty()) {
+                return;
+            }
+            transactions = new ArrayList<>(mTransactions);
+        }
+        for (Transaction transaction : transactions) {
+            failTransaction(transaction, errCode);
         }
     }
 
     private void clearAllCallbacks() {
+        for (NotifyRoute route : mNotifyCallbackMap.values()) {
+            closeNotifyRoute(route);
+        }
         mNotifyCallbackMap.clear();
+        mNotifyRouteMap.clear();
         mConnectCallback = null;
         mPhyPreferenceCallback = null;
     }
@@ -1960,19 +2591,265 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
     private void resetConnParamsAndMtu() {
         mAutoConnect = false;
         mConnRetryCount = 0;
+        mConnRetryPolicy = null;
+        mConnRetryBudget = null;
+        mConnRetryAttempt = 0;
         mConnRetryDelay = 0;
         mConnTimeout = DEFAULT_CONNECTION_TIMEOUT_MILLIS;
         mCurrentMtu = BleGatt.MTU_MIN;
     }
 
-    private <T> OperationIdentify getOperationIdentify(Map<OperationIdentify, T> map,
-                                                       UUID serviceUuid, UUID characteristicUuid) {
-        for (OperationIdentify ui : map.keySet()) {
-            if (ui.mServiceUuid.equals(serviceUuid) && ui.mCharacteristicUuid.equals(characteristicUuid)) {
-                return ui;
+    /**
+     * Complete the first outstanding transaction that the notification is the response of
+     *
+     * @return true if the notification has been taken as a response
+     */
+    private boolean completeTransaction(UUID serviceUuid, UUID characteristicUuid, byte[] data) {
+        Transaction matched = null;
+        TransactionNotify released;
+        synchronized (mTransactions) {
+            for (int i = 0; i < mTransactions.size(); i++) {
+                Transaction transaction = mTransactions.get(i);
+                // A notification that arrives before the request is written is not its response
+                if (transaction.mIssued && transaction.mNotifyUuid.equals(characteristicUuid) &&
+                        transaction.mServiceUuid.equals(serviceUuid) &&
+                        transaction.mMatcher.matches(transaction.mRequest, data)) {
+                    mTransactions.remove(i);
+                    mTransactionCount = mTransactions.size();
+                    matched = transaction;
+                    break;
+                }
+            }
+            released = matched == null ? null : detachTransactionNotify(matched);
+        }
+        if (matched == null) {
+            return false;
+        }
+        disableTransactionNotify(released);
+        mHandler.removeMessages(MSG_WHAT_TRANSACTION_TIMEOUT, matched);
+        Transaction transaction = matched;
+        deliver(transaction.mExecutor, new Runnable() {
+            @Override
+            public void run() {
+                transaction.mCallback.onTransactionSuccess(transaction.mRequest, data, mDevice);
+            }
+        });
+        return true;
+    }
+
+    private boolean failTransaction(Transaction transaction, int errCode) {
+        TransactionNotify released;
+        synchronized (mTransactions) {
+            if (!mTransactions.remove(transaction)) {
+                return false;
+            }
+            mTransactionCount = mTransactions.size();
+            released = detachTransactionNotify(transaction);
+        }
+        disableTransactionNotify(released);
+        mHandler.removeMessages(MSG_WHAT_TRANSACTION_TIMEOUT, transaction);
+        Cancelable write = transaction.mWrite;
+        if (write != null) {
+            // Withdraw the request if it's still queued
+            write.cancel();
+        }
+        deliver(transaction.mExecutor, new Runnable() {
+            @Override
+            public void run() {
+                transaction.mCallback.onTransactionFailed(errCode, transaction.mRequest, mDevice);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Notification of a response characteristic has been enabled for transactions, or failed
+     * to, in which case the transactions waiting for it fail
+     */
+    private void onTransactionNotifyEnabled(TransactionNotify notify, int errCode) {
+        List<Transaction> failed = null;
+        boolean released = false;
+        synchronized (mTransactions) {
+            if (mTransactionNotifies.get(notify.mIdentify) != notify) {
+                // Dropped along with the connection
+                return;
+            }
+            if (errCode != 0) {
+                mTransactionNotifies.remove(notify.mIdentify);
+                failed = new ArrayList<>(notify.mWaiting);
+                // The route is added even if writing the descriptor failed
+                NotifyRoute route = mNotifyCallbackMap.get(notify.mIdentify);
+                if (route != null && route.mCallback == notify) {
+                    mNotifyCallbackMap.remove(notify.mIdentify, route);
+                    removeNotifyRoutes(notify.mIdentify.mServiceUuid, notify.mIdentify.mCharacteristicUuid);
+                }
+            } else {
+                notify.mEnabled = true;
+                // All transactions may have finished meanwhile, e.g. timed out in the queue
+                released = notify.mOutstandingCount == 0;
+                if (released) {
+                    mTransactionNotifies.remove(notify.mIdentify);
+                }
+            }
+            notify.mWaiting.clear();
+        }
+        if (released) {
+            disableTransactionNotify(notify);
+        }
+        if (failed != null) {
+            for (Transaction transaction : failed) {
+                failTransaction(transaction, errCode);
+            }
+        }
+    }
+
+    /**
+     * Detach a finished transaction from the notification enabled for it, it must be called
+     * with mTransactions held
+     *
+     * @return the notification to disable if it was the last transaction relying on it
+     */
+    private TransactionNotify detachTransactionNotify(Transaction transaction) {
+        TransactionNotify notify = transaction.mNotify;
+        if (notify == null) {
+            return null;
+        }
+        transaction.mNotify = null;
+        notify.mWaiting.remove(transaction);
+        notify.mOutstandingCount--;
+        if (notify.mOutstandingCount > 0 || !notify.mEnabled ||
+                mTransactionNotifies.get(notify.mIdentify) != notify) {
+            return null;
+        }
+        mTransactionNotifies.remove(notify.mIdentify);
+        return notify;
+    }
+
+    /**
+     * Disable the notification enabled for transactions once none relies on it. It's skipped
+     * when the operation runs if the app has enabled the notification itself meanwhile
+     */
+    private void disableTransactionNotify(TransactionNotify notify) {
+        if (notify == null || !isConnected()) {
+            return;
+        }
+        Notify operation = new Notify(notify.mIdentify.mServiceUuid, notify.mIdentify.mCharacteristicUuid,
+                false, null);
+        operation.mOwner = notify;
+        enqueueOperation(operation, 0, 0, mWorkerExecutor);
+    }
+
+    private Executor getCallbackExecutor(Executor preferred) {
+        return preferred != null ? preferred : mCallbackExecutor;
+    }
+
+    /**
+     * Deliver the result of an operation that has finished, and then advance the queue
+     */
+    private void finishOperation(BaseOperation operation, Runnable result) {
+        deliver(operation.mCallbackExecutor, result);
+        mHandler.post(mTryNextOperation);
+    }
+
+    /**
+     * Whether the executor is one of ours, only these are handed pooled {@link CallbackEvent}s
+     */
+    private boolean isInternalExecutor(Executor executor) {
+        return executor == mMainExecutor || executor == mWorkerExecutor;
+    }
+
+    /**
+     * Hand a result to an executor, an executor supplied by users may reject it, that must not
+     * throw on the binder thread or stop the queue.
+     * <p>
+     * A direct executor runs the callback right here, so a result produced while holding
+     * mOperationLock is only collected, and handed over by {@link #flushResults()} after the
+     * lock is released.
+     * </p>
+     */
+    private void deliver(Executor executor, Runnable result) {
+        if (Thread.holdsLock(mOperationLock)) {
+            mDeferredExecutors.offer(executor);
+            mDeferredResults.offer(result);
+            return;
+        }
+        try {
+            executor.execute(result);
+        } catch (RejectedExecutionException e) {
+            Logger.w("Callback executor rejected a result: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hand over the results collected while holding mOperationLock, it must be called after
+     * every block holding the lock that may produce results
+     */
+    private void flushResults() {
+        if (Thread.holdsLock(mOperationLock)) {
+            // Still held by an outer block, which flushes them
+            return;
+        }
+        while (true) {
+            Executor executor;
+            Runnable result;
+            synchronized (mOperationLock) {
+                executor = mDeferredExecutors.poll();
+                result = mDeferredResults.poll();
+            }
+            if (result == null) {
+                return;
+            }
+            deliver(executor, result);
+        }
+    }
+
+    private void runOnHandlerThread(Runnable runnable) {
+        if (Looper.myLooper() == mHandler.getLooper()) {
+            runnable.run();
+        } else {
+            mHandler.post(runnable);
+        }
+    }
+
+    private void putNotifyCallback(BluetoothGattCharacteristic characteristic, Notify operation) {
+        NotifyRoute route = new NotifyRoute(operation.mBleNotifyCallback, operation.mNotificationExecutor,
+                operation.mNotificationSink);
+        closeNotifyRoute(mNotifyCallbackMap.put(new OperationIdentify(operation.mServiceUuid,
+                operation.mNotifyUuid), route));
+        removeNotifyRoutes(operation.mServiceUuid, operation.mNotifyUuid);
+        mNotifyRouteMap.put(characteristic, route);
+    }
+
+    private void removeNotifyCallback(BluetoothGattCharacteristic characteristic, UUID serviceUuid,
+                                      UUID characteristicUuid) {
+        closeNotifyRoute(mNotifyCallbackMap.remove(new OperationIdentify(serviceUuid, characteristicUuid)));
+        mNotifyRouteMap.remove(characteristic);
+        removeNotifyRoutes(serviceUuid, characteristicUuid);
+    }
+
+    /**
+     * A route is replaced or removed, a batcher drops its partial batch so that nothing is
+     * delivered after notifications have stopped
+     */
+    private void closeNotifyRoute(NotifyRoute route) {
+        if (route != null && route.mCallback instanceof NotificationBatcher) {
+            ((NotificationBatcher) route.mCallback).close();
+        }
+    }
+
+    /**
+     * Remove the routes of a characteristic by its uuids, it may be routed by an instance from
+     * former service discovery. A callback may be shared by several characteristics, so routes
+     * are matched by key rather than by callback.
+     */
+    private void removeNotifyRoutes(UUID serviceUuid, UUID characteristicUuid) {
+        Iterator<BluetoothGattCharacteristic> iterator = mNotifyRouteMap.keySet().iterator();
+        while (iterator.hasNext()) {
+            BluetoothGattCharacteristic c = iterator.next();
+            if (c.getUuid().equals(characteristicUuid) && c.getService().getUuid().equals(serviceUuid)) {
+                iterator.remove();
             }
         }
-        return null;
     }
 
     /**
@@ -1993,44 +2870,539 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
     }
 
     private static final class OperationIdentify {
-        UUID mServiceUuid;
-        UUID mCharacteristicUuid;
+        final UUID mServiceUuid;
+        final UUID mCharacteristicUuid;
 
         OperationIdentify(UUID serviceUuid, UUID characteristicUuid) {
             this.mServiceUuid = serviceUuid;
             this.mCharacteristicUuid = characteristicUuid;
         }
-    }
 
-    private static final class ConnectionRetry {
-        final long mConnectionTimeout;
-        int mRetryCount;
-        final long mRetryDelay;
-        final boolean mAutoConnect;
-        final BleConnectCallback mConnectCallback;
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof OperationIdentify)) {
+                return false;
+            }
+            OperationIdentify identify = (OperationIdentify) o;
+            return mServiceUuid.equals(identify.mServiceUuid) &&
+                    mCharacteristicUuid.equals(identify.mCharacteristicUuid);
+        }
 
-        public ConnectionRetry(long connectionTimeoutMillis, int retryCount, long retryDelay,
-                               boolean autoConnect, BleConnectCallback callback) {
-            this.mConnectionTimeout = connectionTimeoutMillis;
-            this.mRetryCount = retryCount;
-            this.mRetryDelay = retryDelay;
-            this.mAutoConnect = autoConnect;
-            this.mConnectCallback = callback;
+        @Override
+        public int hashCode() {
+            return 31 * mServiceUuid.hashCode() + mCharacteristicUuid.hashCode();
         }
     }
 
-    private interface CanTriggerBonding {
+    private static final class NotifyRoute {
+        final BleNotifyCallback mCallback;
+        final Executor mExecutor; // Null to deliver notifications on the binder thread directly
+        final NotificationRingBuffer mSink; // Non-null to write notifications into it instead
 
+        NotifyRoute(BleNotifyCallback callback, Executor executor, NotificationRingBuffer sink) {
+            this.mCallback = callback;
+            this.mExecutor = executor;
+            this.mSink = sink;
+        }
     }
 
-    private static abstract class BaseOperation {
+    /**
+     * The notification of a response characteristic enabled for transactions rather than by the
+     * app. It's also the notify callback of its route, which tells the route apart from the
+     * routes of the app.
+     */
+    private final class TransactionNotify implements BleNotifyCallback {
+        final OperationIdentify mIdentify;
+        final List<Transaction> mWaiting = new ArrayList<>(); // Waiting for it to be enabled
+        int mOutstandingCount; // Outstanding transactions relying on it
+        boolean mEnabled;
 
-    }
+        TransactionNotify(OperationIdentify identify) {
+            this.mIdentify = identify;
+        }
 
-    private static abstract class BaseWriteOperation extends BaseOperation implements CanTriggerBonding {
-        final UUID mServiceUuid;
-        final UUID mWriteUuid;
-        final byte[] mData;
+        @Override
+        public void onCharacteristicChanged(byte[] receivedData, UUID characteristicUuid, BleDevice device) {
+            // Responses are picked up before notifications are routed
+        }
+
+        @Override
+        public void onNotifySuccess(UUID characteristicUuid, BleDevice device) {
+            onTransactionNotifyEnabled(this, 0);
+        }
+
+        @Override
+        public void onNotifyFailed(int errorCode, UUID characteristicUuid, BleDevice device) {
+            onTransactionNotifyEnabled(this, errorCode);
+        }
+    }
+
+    private static final class Transaction implements Cancelable {
+        final BleGattCommunicator mCommunicator;
+        final UUID mServiceUuid;
+        final UUID mNotifyUuid;
+        final byte[] mRequest;
+        final ResponseMatcher mMatcher;
+        final Executor mExecutor;
+        final BleTransactionCallback mCallback;
+        volatile Cancelable mWrite; // The queued request
+        volatile boolean mIssued; // Whether the request has been written, only then can a response match
+        TransactionNotify mNotify; // The notification enabled for it, guarded by mTransactions
+
+        Transaction(BleGattCommunicator communicator, UUID serviceUuid, UUID notifyUuid, byte[] request,
+                    ResponseMatcher matcher, Executor executor, BleTransactionCallback callback) {
+            this.mCommunicator = communicator;
+            this.mServiceUuid = serviceUuid;
+            this.mNotifyUuid = notifyUuid;
+            this.mRequest = request;
+            this.mMatcher = matcher;
+            this.mExecutor = executor;
+            this.mCallback = callback;
+        }
+
+        @Override
+        public boolean cancel() {
+            return mCommunicator.failTransaction(this, BleErrorCodes.OPERATION_CANCELED);
+        }
+    }
+
+    private static final class ConnectionRetry {
+        final long mConnectionTimeout;
+        int mRetryCount;
+        final BleRetryPolicy mRetryPolicy;
+        final RetryBudget mRetryBudget;
+        int mRetryAttempt;
+        long mRetryDelay;
+        final boolean mAutoConnect;
+        final BleConnectCallback mConnectCallback;
+
+        public ConnectionRetry(long connectionTimeoutMillis, int retryCount, BleRetryPolicy retryPolicy,
+                               RetryBudget retryBudget, int retryAttempt, long retryDelay,
+                               boolean autoConnect, BleConnectCallback callback) {
+            this.mConnectionTimeout = connectionTimeoutMillis;
+            this.mRetryCount = retryCount;
+            this.mRetryPolicy = retryPolicy;
+            this.mRetryBudget = retryBudget;
+            this.mRetryAttempt = retryAttempt;
+            this.mRetryDelay = retryDelay;
+            this.mAutoConnect = autoConnect;
+            this.mConnectCallback = callback;
+        }
+
+        /**
+         * Get the delay before the next retry from the retry policy and take the retry from
+         * the budget
+         *
+         * @return the delay, or a negative value if no retry should be made
+         */
+        long nextRetryDelay() {
+            long delay = mRetryPolicy == null ? -1 : mRetryPolicy.getRetryDelay(mRetryAttempt + 1, mRetryDelay);
+            if (delay < 0) {
+                return -1;
+            }
+            if (mRetryBudget != null && !mRetryBudget.tryAcquire()) {
+                Logger.d("Connection retry budget is used up, give up retrying");
+                return -1;
+            }
+            mRetryAttempt++;
+            mRetryDelay = delay;
+            return delay;
+        }
+    }
+
+    private interface CanTriggerBonding {
+
+    }
+
+    private static abstract class BaseOperation implements Cancelable {
+        BleGattCommunicator mCommunicator;
+        Executor mCallbackExecutor; // The executor that results are delivered on
+        Object mCoalescingKey; // Operations with the same non-null key can be coalesced
+        BaseOperation mCoalescedInto; // The queued operation that this one has been merged into
+        int mParticipantCount = 1; // The number of callers sharing this operation
+        volatile boolean mCanceled;
+        boolean mQueued; // Whether it's waiting in the queue, discarded ones will be skipped
+        long mSequence; // The order in which operations are queued
+        int mLane; // The lane of the queue it's waiting in, see OperationQueue#offer()
+        long mTimeoutMillis; // Timeout once started, or the global timeout if it's not positive
+        long mDeadline; // Uptime by which it must be done, 0 means no deadline
+
+        /**
+         * Start the operation
+         *
+         * @return true if the request has been sent and the operation is waiting for the
+         * result, or false if it failed to start and its callback has been notified
+         */
+        abstract boolean execute(BleGattCommunicator communicator);
+
+        /**
+         * Notify the callback that the operation has timed out, it's called by the callback executor
+         */
+        void onTimeout(BleGattCommunicator communicator) {
+            onFailed(communicator, BleErrorCodes.TIMEOUT);
+        }
+
+        /**
+         * Notify the callback that the operation has failed, it's called by the callback executor
+         */
+        abstract void onFailed(BleGattCommunicator communicator, int errCode);
+
+        /**
+         * Get timeout millis, it's called after the operation has started
+         */
+        long getTimeoutMillis(BleGattCommunicator communicator) {
+            return mTimeoutMillis > 0 ? mTimeoutMillis : BleManager.getInstance().getGattOperationTimeout();
+        }
+
+        int getPriority() {
+            return PRIORITY_INTERACTIVE;
+        }
+
+        /**
+         * Whether it has been started and put back to the queue, e.g. a suspended batch
+         * writing, part of its request has been sent
+         */
+        boolean hasStarted() {
+            return false;
+        }
+
+        /**
+         * Coalesce a newer operation into this one while this one is waiting in the queue,
+         * it's called only if both of them have the same coalescing key
+         *
+         * @return true if the newer one has been merged into this one, or false if this one
+         * is superseded by the newer one, in this case this one will be removed from the queue
+         * and fail with {@link BleErrorCodes#OPERATION_SUPERSEDED}
+         */
+        boolean coalesce(BleGattCommunicator communicator, BaseOperation newer) {
+            return false;
+        }
+
+        /**
+         * Withdraw a canceled participant from this coalesced operation, so that it will not
+         * get the result. It's called while this one is waiting in the queue.
+         */
+        void withdraw(BaseOperation participant) {
+
+        }
+
+        /**
+         * Notify the callback of this operation only that it has been canceled, it's called
+         * by the callback executor
+         */
+        void onCanceled(BleGattCommunicator communicator) {
+            onFailed(communicator, BleErrorCodes.OPERATION_CANCELED);
+        }
+
+        @Override
+        public boolean cancel() {
+            return mCommunicator != null && mCommunicator.cancelOperation(this);
+        }
+    }
+
+    /**
+     * Operation queue with one FIFO lane per priority, it's guarded by mOperationLock
+     */
+    private static class OperationQueue {
+        @SuppressWarnings("unchecked")
+        private final ArrayDeque<BaseOperation>[] mLanes = new ArrayDeque[PRIORITY_BULK + 1];
+        private final Map<Object, BaseOperation> mPendingCoalescible = new HashMap<>();
+        private int mSize; // The number of operations that are not discarded
+        private long mNextSequence;
+
+        OperationQueue() {
+            for (int i = 0; i < mLanes.length; i++) {
+                mLanes[i] = new ArrayDeque<>();
+            }
+        }
+
+        void offer(BaseOperation operation) {
+            operation.mSequence = mNextSequence++;
+            operation.mQueued = true;
+            operation.mLane = BleManager.getInstance().isOperationPriorityEnabled() ?
+                    operation.getPriority() : PRIORITY_INTERACTIVE;
+            mLanes[operation.mLane].offerLast(operation);
+            mSize++;
+            if (operation.mCoalescingKey != null) {
+                mPendingCoalescible.put(operation.mCoalescingKey, operation);
+            }
+        }
+
+        BaseOperation getPendingOperation(Object coalescingKey) {
+            return coalescingKey == null ? null : mPendingCoalescible.get(coalescingKey);
+        }
+
+        void offerFirst(BaseOperation operation) {
+            operation.mQueued = true;
+            mLanes[operation.mLane].offerFirst(operation);
+            mSize++;
+        }
+
+        /**
+         * Discard an operation lazily, it's skipped when polled
+         */
+        void discard(BaseOperation operation) {
+            if (!operation.mQueued) {
+                return;
+            }
+            operation.mQueued = false;
+            mSize--;
+            Object key = operation.mCoalescingKey;
+            if (key != null && mPendingCoalescible.get(key) == operation) {
+                mPendingCoalescible.remove(key);
+            }
+        }
+
+        /**
+         * Get the operation that has waited for the longest time and has not started
+         *
+         * @return the operation, or null if no such operation is waiting
+         */
+        BaseOperation peekOldest() {
+            BaseOperation oldest = null;
+            for (ArrayDeque<BaseOperation> lane : mLanes) {
+                BaseOperation head;
+                while ((head = lane.peekFirst()) != null && !head.mQueued) {
+                    lane.pollFirst();
+                }
+                // Started operations are put back to the head of the lane
+                for (BaseOperation operation : lane) {
+                    if (operation.mQueued && !operation.hasStarted()) {
+                        if (oldest == null || operation.mSequence < oldest.mSequence) {
+                            oldest = operation;
+                        }
+                        break;
+                    }
+                }
+            }
+            return oldest;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        BaseOperation poll() {
+            for (ArrayDeque<BaseOperation> lane : mLanes) {
+                BaseOperation operation;
+                while ((operation = lane.pollFirst()) != null) {
+                    if (!operation.mQueued) {
+                        continue;
+                    }
+                    operation.mQueued = false;
+                    if (operation.mCoalescingKey != null) {
+                        mPendingCoalescible.remove(operation.mCoalescingKey);
+                    }
+                    mSize--;
+                    return operation;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Whether any operation is waiting in a lane of higher priority, discarded operations
+         * at the head of those lanes are purged
+         */
+        boolean hasPriorityHigherThan(int lane) {
+            for (int i = 0; i < lane; i++) {
+                BaseOperation head;
+                while ((head = mLanes[i].peekFirst()) != null && !head.mQueued) {
+                    mLanes[i].pollFirst();
+                }
+                if (head != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void clear() {
+            for (ArrayDeque<BaseOperation> lane : mLanes) {
+                for (BaseOperation operation : lane) {
+                    operation.mQueued = false;
+                }
+                lane.clear();
+            }
+            mPendingCoalescible.clear();
+            mSize = 0;
+        }
+    }
+
+    private static final class CoalescingKey {
+        final Class<?> mOperationClass;
+        final UUID mServiceUuid;
+        final UUID mCharacteristicUuid;
+
+        CoalescingKey(Class<?> operationClass, UUID serviceUuid, UUID characteristicUuid) {
+            this.mOperationClass = operationClass;
+            this.mServiceUuid = serviceUuid;
+            this.mCharacteristicUuid = characteristicUuid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CoalescingKey)) {
+                return false;
+            }
+            CoalescingKey key = (CoalescingKey) o;
+            return mOperationClass == key.mOperationClass &&
+                    (mServiceUuid == null ? key.mServiceUuid == null : mServiceUuid.equals(key.mServiceUuid)) &&
+                    (mCharacteristicUuid == null ? key.mCharacteristicUuid == null :
+                            mCharacteristicUuid.equals(key.mCharacteristicUuid));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mOperationClass.hashCode();
+            result = 31 * result + (mServiceUuid == null ? 0 : mServiceUuid.hashCode());
+            result = 31 * result + (mCharacteristicUuid == null ? 0 : mCharacteristicUuid.hashCode());
+            return result;
+        }
+    }
+
+    /**
+     * Callbacks of coalesced read operations, all of them get the same result
+     */
+    private static final class CoalescedReadCallback implements BleReadCallback {
+        private final List<BleReadCallback> mCallbacks = new ArrayList<>();
+
+        static BleReadCallback merge(BleReadCallback callback, BleReadCallback other) {
+            CoalescedReadCallback coalesced;
+            if (callback instanceof CoalescedReadCallback) {
+                coalesced = (CoalescedReadCallback) callback;
+            } else {
+                coalesced = new CoalescedReadCallback();
+                coalesced.mCallbacks.add(callback);
+            }
+            coalesced.mCallbacks.add(other);
+            return coalesced;
+        }
+
+        static void remove(BleReadCallback coalesced, BleReadCallback callback) {
+            if (!(coalesced instanceof CoalescedReadCallback)) {
+                return;
+            }
+            List<BleReadCallback> callbacks = ((CoalescedReadCallback) coalesced).mCallbacks;
+            for (int i = 0; i < callbacks.size(); i++) {
+                if (callbacks.get(i) == callback) {
+                    callbacks.remove(i);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onReadSuccess(byte[] readData, UUID characteristicUuid, BleDevice device) {
+            for (BleReadCallback callback : mCallbacks) {
+                callback.onReadSuccess(readData, characteristicUuid, device);
+            }
+        }
+
+        @Override
+        public void onReadFailed(int errorCode, UUID characteristicUuid, BleDevice device) {
+            for (BleReadCallback callback : mCallbacks) {
+                callback.onReadFailed(errorCode, characteristicUuid, device);
+            }
+        }
+    }
+
+    private static final class CoalescedRssiCallback implements BleRssiCallback {
+        private final List<BleRssiCallback> mCallbacks = new ArrayList<>();
+
+        static BleRssiCallback merge(BleRssiCallback callback, BleRssiCallback other) {
+            CoalescedRssiCallback coalesced;
+            if (callback instanceof CoalescedRssiCallback) {
+                coalesced = (CoalescedRssiCallback) callback;
+            } else {
+                coalesced = new CoalescedRssiCallback();
+                coalesced.mCallbacks.add(callback);
+            }
+            coalesced.mCallbacks.add(other);
+            return coalesced;
+        }
+
+        static void remove(BleRssiCallback coalesced, BleRssiCallback callback) {
+            if (!(coalesced instanceof CoalescedRssiCallback)) {
+                return;
+            }
+            List<BleRssiCallback> callbacks = ((CoalescedRssiCallback) coalesced).mCallbacks;
+            for (int i = 0; i < callbacks.size(); i++) {
+                if (callbacks.get(i) == callback) {
+                    callbacks.remove(i);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onRssiSuccess(int rssi, BleDevice device) {
+            for (BleRssiCallback callback : mCallbacks) {
+                callback.onRssiSuccess(rssi, device);
+            }
+        }
+
+        @Override
+        public void onRssiFailed(int errCode, BleDevice device) {
+            for (BleRssiCallback callback : mCallbacks) {
+                callback.onRssiFailed(errCode, device);
+            }
+        }
+    }
+
+    private static final class CoalescedPhyReadCallback implements BlePhyReadCallback {
+        private final List<BlePhyReadCallback> mCallbacks = new ArrayList<>();
+
+        static BlePhyReadCallback merge(BlePhyReadCallback callback, BlePhyReadCallback other) {
+            CoalescedPhyReadCallback coalesced;
+            if (callback instanceof CoalescedPhyReadCallback) {
+                coalesced = (CoalescedPhyReadCallback) callback;
+            } else {
+                coalesced = new CoalescedPhyReadCallback();
+                coalesced.mCallbacks.add(callback);
+            }
+            coalesced.mCallbacks.add(other);
+            return coalesced;
+        }
+
+        static void remove(BlePhyReadCallback coalesced, BlePhyReadCallback callback) {
+            if (!(coalesced instanceof CoalescedPhyReadCallback)) {
+                return;
+            }
+            List<BlePhyReadCallback> callbacks = ((CoalescedPhyReadCallback) coalesced).mCallbacks;
+            for (int i = 0; i < callbacks.size(); i++) {
+                if (callbacks.get(i) == callback) {
+                    callbacks.remove(i);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onPhyReadSuccess(int txPhy, int rxPhy, BleDevice device) {
+            for (BlePhyReadCallback callback : mCallbacks) {
+                callback.onPhyReadSuccess(txPhy, rxPhy, device);
+            }
+        }
+
+        @Override
+        public void onPhyReadFailed(int errCode, BleDevice device) {
+            for (BlePhyReadCallback callback : mCallbacks) {
+                callback.onPhyReadFailed(errCode, device);
+            }
+        }
+    }
+
+    private static abstract class BaseWriteOperation extends BaseOperation implements CanTriggerBonding {
+        final UUID mServiceUuid;
+        final UUID mWriteUuid;
+        final byte[] mData;
 
         BaseWriteOperation(UUID serviceUuid, UUID writeUuid, byte[] data) {
             this.mServiceUuid = serviceUuid;
@@ -2049,6 +3421,29 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             this.mConnectionPriority = connPriority;
             this.mBleConnectionPriorityCallback = callback;
         }
+
+        @Override
+        int getPriority() {
+            return PRIORITY_CONTROL;
+        }
+
+        @Override
+        boolean execute(BleGattCommunicator communicator) {
+            return communicator.requestConnectionPriority(this);
+        }
+
+        @Override
+        void onTimeout(BleGattCommunicator communicator) {
+            // No any callback will be triggered after requesting connection
+            // priority. so we consider this request succeed.
+            mBleConnectionPriorityCallback.onConnectionPriorityRequestSuccess(mConnectionPriority,
+                    communicator.mDevice);
+        }
+
+        @Override
+        void onFailed(BleGattCommunicator communicator, int errCode) {
+            mBleConnectionPriorityCallback.onConnectionPriorityFailed(errCode, communicator.mDevice);
+        }
     }
 
     private static class DescriptorRead extends BaseOperation implements CanTriggerBonding {
@@ -2063,6 +3458,17 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             this.mDescriptorUuid = descriptorUuid;
             this.mBleDescriptorReadCallback = callback;
         }
+
+        @Override
+        boolean execute(BleGattCommunicator communicator) {
+            return communicator.descriptorRead(this);
+        }
+
+        @Override
+        void onFailed(BleGattCommunicator communicator, int errCode) {
+            mBleDescriptorReadCallback.onDescriptorReadFailed(errCode, mDescriptorUuid,
+                    communicator.mDevice);
+        }
     }
 
     private static class DescriptorWrite extends BaseOperation implements CanTriggerBonding {
@@ -2080,6 +3486,17 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             this.mData = data;
             this.mBleDescriptorWriteCallback = callback;
         }
+
+        @Override
+        boolean execute(BleGattCommunicator communicator) {
+            return communicator.descriptorWrite(this);
+        }
+
+        @Override
+        void onFailed(BleGattCommunicator communicator, int errCode) {
+            mBleDescriptorWriteCallback.onDescriptorWriteFailed(errCode, mData,
+                    mDescriptorUuid, communicator.mDevice);
+        }
     }
 
     private static class MtuSet extends BaseOperation {
@@ -2090,6 +3507,21 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             this.mMtu = mtu;
             this.mBleMtuCallback = callback;
         }
+
+        @Override
+        int getPriority() {
+            return PRIORITY_CONTROL;
+        }
+
+        @Override
+        boolean execute(BleGattCommunicator communicator) {
+            return communicator.requestMtu(this);
+        }
+
+        @Override
+        void onFailed(BleGattCommunicator communicator, int errCode) {
+            mBleMtuCallback.onMtuFailed(errCode, communicator.mDevice);
+        }
     }
 
     private static class Notify extends BaseOperation implements CanTriggerBonding {
@@ -2097,6 +3529,9 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
         final UUID mNotifyUuid;
         final boolean mEnable;
         final BleNotifyCallback mBleNotifyCallback;
+        Executor mNotificationExecutor;
+        NotificationRingBuffer mNotificationSink;
+        BleNotifyCallback mOwner; // Non-null to disable only if the route still belongs to it
 
         Notify(UUID serviceUuid, UUID notifyUuid, boolean enable, BleNotifyCallback callback) {
             this.mServiceUuid = serviceUuid;
@@ -2104,6 +3539,18 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             this.mEnable = enable;
             this.mBleNotifyCallback = callback;
         }
+
+        @Override
+        boolean execute(BleGattCommunicator communicator) {
+            return communicator.notify(this) == NOTIFY_STARTED;
+        }
+
+        @Override
+        void onFailed(BleGattCommunicator communicator, int errCode) {
+            if (mEnable) {
+                mBleNotifyCallback.onNotifyFailed(errCode, mNotifyUuid, communicator.mDevice);
+            }
+        }
     }
 
     private static class PhyPreferenceSet extends BaseOperation {
@@ -2118,74 +3565,248 @@ public final class BleGattCommunicator extends BluetoothGattCallback {
             this.mPhyOptions = phyOptions;
             this.mBlePhyPreferenceCallback = callback;
         }
+
+        @Override
+        int getPriority() {
+            return PRIORITY_CONTROL;
+        }
+
+        @Override
+        boolean execute(BleGattCommunicator communicator) {
+            return communicator.setPreferencePhy(this);
+        }
+
+        @Override
+        void onTimeout(BleGattCommunicator communicator) {
+            super.onTimeout(communicator);
+            communicator.mPhyPreferenceCallback = mBlePhyPreferenceCallback;
+        }
+
+        @Override
+        void onFailed(BleGattCommunicator communicator, int errCode) {
+            mBlePhyPreferenceCallback.onPhyPreferenceSetFailed(errCode, communicator.mDevice);
+        }
     }
 
     private static class PhyRead extends BaseOperation {
-        final BlePhyReadCallback mBlePhyReadCallback;
+        final BlePhyReadCallback mCallerCallback;
+        BlePhyReadCallback mBlePhyReadCallback; // All callbacks of coalesced callers
 
-        PhyRead(BlePhyReadCallback callback) {
+        PhyRead(boolean coalesce, BlePhyReadCallback callback) {
+            this.mCallerCallback = callback;
             this.mBlePhyReadCallback = callback;
+            this.mCoalescingKey = coalesce ? new CoalescingKey(PhyRead.class, null, null) : null;
+        }
+
+        @Override
+        boolean coalesce(BleGattCommunicator communicator, BaseOperation newer) {
+            mBlePhyReadCallback = CoalescedPhyReadCallback.merge(mBlePhyReadCallback,
+                    ((PhyRead) newer).mCallerCallback);
+            return true;
+        }
+
+        @Override
+        void withdraw(BaseOperation participant) {
+            CoalescedPhyReadCallback.remove(mBlePhyReadCallback, ((PhyRead) participant).mCallerCallback);
+        }
+
+        @Override
+        void onCanceled(BleGattCommunicator communicator) {
+            mCallerCallback.onPhyReadFailed(BleErrorCodes.OPERATION_CANCELED, communicator.mDevice);
+        }
+
+        @Override
+        boolean execute(BleGattCommunicator communicator) {
+            return communicator.readPhy(this);
+        }
+
+        @Override
+        void onFailed(BleGattCommunicator communicator, int errCode) {
+            mBlePhyReadCallback.onPhyReadFailed(errCode, communicator.mDevice);
         }
     }
 
     private static class Read extends BaseOperation implements CanTriggerBonding {
         final UUID mServiceUuid;
         final UUID mReadUuid;
-        final BleReadCallback mBleReadCallback;
+        final BleReadCallback mCallerCallback;
+        BleReadCallback mBleReadCallback; // All callbacks of coalesced callers
 
-        Read(UUID serviceUuid, UUID readUuid, BleReadCallback callback) {
+        Read(UUID serviceUuid, UUID readUuid, boolean coalesce, BleReadCallback callback) {
             this.mServiceUuid = serviceUuid;
             this.mReadUuid = readUuid;
+            this.mCallerCallback = callback;
             this.mBleReadCallback = callback;
+            this.mCoalescingKey = coalesce ? new CoalescingKey(Read.class, serviceUuid, readUuid) : null;
+        }
+
+        @Override
+        boolean coalesce(BleGattCommunicator communicator, BaseOperation newer) {
+            mBleReadCallback = CoalescedReadCallback.merge(mBleReadCallback, ((Read) newer).mCallerCallback);
+            return true;
+        }
+
+        @Override
+        void withdraw(BaseOperation participant) {
+            CoalescedReadCallback.remove(mBleReadCallback, ((Read) participant).mCallerCallback);
+        }
+
+        @Override
+        void onCanceled(BleGattCommunicator communicator) {
+            mCallerCallback.onReadFailed(BleErrorCodes.OPERATION_CANCELED, mReadUuid, communicator.mDevice);
+        }
+
+        @Override
+        boolean execute(BleGattCommunicator communicator) {
+            return communicator.read(this);
+        }
+
+        @Override
+        void onFailed(BleGattCommunicator communicator, int errCode) {
+            mBleReadCallback.onReadFailed(errCode, mReadUuid, communicator.mDevice);
         }
     }
 
     private static class RssiRead extends BaseOperation {
-        final BleRssiCallback mBleRssiCallback;
+        final BleRssiCallback mCallerCallback;
+        BleRssiCallback mBleRssiCallback; // All callbacks of coalesced callers
 
-        RssiRead(BleRssiCallback callback) {
+        RssiRead(boolean coalesce, BleRssiCallback callback) {
+            this.mCallerCallback = callback;
             this.mBleRssiCallback = callback;
+            this.mCoalescingKey = coalesce ? new CoalescingKey(RssiRead.class, null, null) : null;
+        }
+
+        @Override
+        boolean coalesce(BleGattCommunicator communicator, BaseOperation newer) {
+            mBleRssiCallback = CoalescedRssiCallback.merge(mBleRssiCallback, ((RssiRead) newer).mCallerCallback);
+            return true;
+        }
+
+        @Override
+        void withdraw(BaseOperation participant) {
+            CoalescedRssiCallback.remove(mBleRssiCallback, ((RssiRead) participant).mCallerCallback);
+        }
+
+        @Override
+        void onCanceled(BleGattCommunicator communicator) {
+            mCallerCallback.onRssiFailed(BleErrorCodes.OPERATION_CANCELED, communicator.mDevice);
+        }
+
+        @Override
+        boolean execute(BleGattCommunicator communicator) {
+            return communicator.readRssi(this);
+        }
+
+        @Override
+        void onFailed(BleGattCommunicator communicator, int errCode) {
+            mBleRssiCallback.onRssiFailed(errCode, communicator.mDevice);
         }
     }
 
     private static class Write extends BaseWriteOperation {
         final BleWriteCallback mBleWriteCallback;
+        Transaction mTransaction; // Non-null if it's the request of a transaction
 
-        Write(UUID serviceUuid, UUID writeUuid, byte[] data, BleWriteCallback callback) {
+        Write(UUID serviceUuid, UUID writeUuid, byte[] data, boolean coalesce, BleWriteCallback callback) {
             super(serviceUuid, writeUuid, data);
             this.mBleWriteCallback = callback;
+            this.mCoalescingKey = coalesce ? new CoalescingKey(Write.class, serviceUuid, writeUuid) : null;
+        }
+
+        @Override
+        boolean coalesce(BleGattCommunicator communicator, BaseOperation newer) {
+            // Only the latest data is worth writing
+            return false;
         }
 
         @Override
         BleWriteCallback getBleWriteCallback() {
             return mBleWriteCallback;
         }
+
+        @Override
+        boolean execute(BleGattCommunicator communicator) {
+            Transaction transaction = mTransaction;
+            if (transaction != null) {
+                // The response may arrive before the write callback, so mark it before writing
+                transaction.mIssued = true;
+            }
+            return communicator.write(this);
+        }
+
+        @Override
+        void onFailed(BleGattCommunicator communicator, int errCode) {
+            mBleWriteCallback.onWriteFailed(errCode, mData, mWriteUuid, communicator.mDevice);
+        }
     }
 
     private static class WriteBatch extends BaseWriteOperation {
         final int mLengthPerBatch;
         final long mBatchInterval;
-        final Queue<byte[]> mBatchQueue;
-        final int mBatchNum;
+        final boolean mWriteWithoutResponse;
+        final boolean mAutoMtu;
+        final BatchDataCursor mCursor;
         final BleWriteByBatchCallback mBleWriteByBatchCallback;
         BleWriteCallback mBleWriteCallback;
-
-        WriteBatch(UUID serviceUuid, UUID writeUuid, byte[] data, int lengthPerBatch,
-                   long batchInterval, Queue<byte[]> batchQueue, BleWriteByBatchCallback callback) {
-            super(serviceUuid, writeUuid, data);
-            if (batchQueue == null) {
-                throw new IllegalArgumentException("BatchQueue is null");
-            }
+        int mInFlightLength; // The length of the batch being written
+        byte[] mPendingBatch; // The next batch to write
+        int mPendingWrittenLen; // The length written before the pending batch
+        int mBusyRetryCount;
+        BluetoothGattCharacteristic mCharacteristic;
+        boolean mMtuRequesting;
+        Runnable mResumeTask; // Set when yielding to operations with higher priority
+
+        WriteBatch(UUID serviceUuid, UUID writeUuid, int lengthPerBatch, long batchInterval,
+                   boolean writeWithoutResponse, boolean autoMtu, BatchDataCursor cursor,
+                   BleWriteByBatchCallback callback) {
+            // Only data wrapped from a whole array can be returned by callbacks
+            super(serviceUuid, writeUuid, cursor.array());
             this.mLengthPerBatch = lengthPerBatch;
             this.mBatchInterval = batchInterval;
-            this.mBatchQueue = batchQueue;
-            this.mBatchNum = batchQueue.size();
+            this.mWriteWithoutResponse = writeWithoutResponse;
+            this.mAutoMtu = autoMtu;
+            this.mCursor = cursor;
             this.mBleWriteByBatchCallback = callback;
         }
 
+        @Override
+        int getPriority() {
+            return PRIORITY_BULK;
+        }
+
+        @Override
+        boolean hasStarted() {
+            return mResumeTask != null;
+        }
+
         @Override
         BleWriteCallback getBleWriteCallback() {
             return mBleWriteCallback;
         }
+
+        @Override
+        boolean execute(BleGattCommunicator communicator) {
+            return communicator.writeByBatch(this);
+        }
+
+        @Override
+        void onTimeout(BleGattCommunicator communicator) {
+            communicator.mHandler.removeMessages(MSG_WHAT_WRITE_BATCH_DELAY);
+            super.onTimeout(communicator);
+        }
+
+        @Override
+        void onFailed(BleGattCommunicator communicator, int errCode) {
+            // Current batch may not succeed
+            int writtenLen = mCursor.position() - mInFlightLength;
+            mBleWriteByBatchCallback.onWriteBatchFailed(errCode, writtenLen, mData, mWriteUuid,
+                    communicator.mDevice);
+        }
+
+        @Override
+        long getTimeoutMillis(BleGattCommunicator communicator) {
+            return communicator.getWriteBatchTimeout(this);
+        }
     }
 }
\ No newline at end of file
@@ -3,32 +3,41 @@ package com.ficat.easyble.gatt;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
-import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 
 import com.ficat.easyble.BleDevice;
 import com.ficat.easyble.BleErrorCodes;
 import com.ficat.easyble.BleManager;
+import com.ficat.easyble.BleManager.BatchWriteOptions;
+import com.ficat.easyble.BleManager.ConnectionOptions;
+import com.ficat.easyble.BleManager.NotifyBatchOptions;
+import com.ficat.easyble.BleManager.OperationOptions;
+import com.ficat.easyble.BleManager.TransactionOptions;
 import com.ficat.easyble.gatt.callback.BleConnectCallback;
 import com.ficat.easyble.gatt.callback.BleConnectionPriorityCallback;
 import com.ficat.easyble.gatt.callback.BleDescriptorReadCallback;
 import com.ficat.easyble.gatt.callback.BleDescriptorWriteCallback;
+import com.ficat.easyble.gatt.callback.BleFrameCallback;
 import com.ficat.easyble.gatt.callback.BleMtuCallback;
+import com.ficat.easyble.gatt.callback.BleNotifyBatchCallback;
 import com.ficat.easyble.gatt.callback.BleNotifyCallback;
 import com.ficat.easyble.gatt.callback.BlePhyPreferenceCallback;
 import com.ficat.easyble.gatt.callback.BlePhyReadCallback;
 import com.ficat.easyble.gatt.callback.BleReadCallback;
 import com.ficat.easyble.gatt.callback.BleRssiCallback;
+import com.ficat.easyble.gatt.callback.BleTransactionCallback;
 import com.ficat.easyble.gatt.callback.BleWriteByBatchCallback;
 import com.ficat.easyble.gatt.callback.BleWriteCallback;
+import com.ficat.easyble.utils.BatchDataCursor;
+import com.ficat.easyble.utils.FrameDecoder;
 import com.ficat.easyble.utils.Logger;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -38,15 +47,23 @@ public final class BleGattImpl implements BleGatt, BleManager.BluetoothStateList
         BleManager.BluetoothBondListen {
     private final Map<String, BleGattCommunicator> mBleGattCommunicatorMap;
     private final Handler mMainHandler;
+    private final Executor mMainExecutor;
+    private final ConnectionStateIndex mConnectionStateIndex;
+    private final ConnectionScheduler mConnectionScheduler;
+    private final Object mConnectionSlotLock = new Object(); // Serializes taking connection slots
 
     BleGattImpl() {
         mMainHandler = new Handler(Looper.getMainLooper());
+        mMainExecutor = mMainHandler::post;
         mBleGattCommunicatorMap = new ConcurrentHashMap<>();
+        mConnectionStateIndex = new ConnectionStateIndex();
+        mConnectionScheduler = new ConnectionScheduler(mConnectionStateIndex);
     }
 
     @Override
-    public void connect(long timeoutMillis, int retryCount, long retryDelay, boolean autoConnect,
-                        BleDevice device, BleConnectCallback callback) {
+    public void connect(BleDevice device, ConnectionOptions options, BleConnectCallback callback) {
+        // Take a copy, the options may be changed while the request is waiting for a slot
+        ConnectionParams params = new ConnectionParams(options);
         // Check bluetooth and permission state
         boolean bluetoothOff = !BleManager.isBluetoothEnabled();
         boolean noPermissions = !BleManager.connectionPermissionGranted(BleManager.getInstance().getContext());
@@ -57,7 +74,7 @@ public final class BleGattImpl implements BleGatt, BleManager.BluetoothStateList
             } else {
                 code = BleErrorCodes.PERMISSION_MISSING;
             }
-            mMainHandler.post(new Runnable() {
+            getCallbackExecutor(params.mCallbackExecutor).execute(new Runnable() {
                 @Override
                 public void run() {
                     callback.onConnectionFailed(code, device);
@@ -66,53 +83,107 @@ public final class BleGattImpl implements BleGatt, BleManager.BluetoothStateList
             return;
         }
 
-        // Check if connected device number reached max
-        List<BleDevice> connectedDevices = getConnectedDevices();
-        int connectedNum = connectedDevices.size();
-        if (connectedNum >= BleGatt.MAX_CONNECTION_NUM) {
-            // Exclude the target device
-            for (BleDevice d : connectedDevices) {
-                if (d == device || d.getAddress().equals(device.getAddress())) {
-                    connectedNum -= 1;
-                    break;
-                }
-            }
-            if (connectedNum >= BleGatt.MAX_CONNECTION_NUM) {
-                mMainHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        callback.onConnectionFailed(BleErrorCodes.CONNECTION_REACH_MAX_NUM, device);
-                    }
-                });
-                return;
-            }
-        }
-
         // Start connection
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            communicator = new BleGattCommunicator(device);
+            communicator = new BleGattCommunicator(device, mConnectionScheduler, mConnectionStateIndex);
             mBleGattCommunicatorMap.put(device.getAddress(), communicator);
         }
         if (communicator.getBleDevice() != device) {
             communicator.updateBleDevice(device);
         }
 
+        // Auto-connection waits for the device in background, so it's not scheduled
+        if (params.mAutoConnect) {
+            startConnection(communicator, params, callback);
+            return;
+        }
+
         // Android versions below 10 allow only one connection request at a time and queue all
         // subsequent requests. In Android 10 and higher, the system groups connection requests
-        // for batched execution. That means, if Android versions below 10, we must wait for a
-        // callback for a previous connection before we initiate a new connection request
-        if (Build.VERSION.SDK_INT < 29) {
-            for (BleDevice d : getConnectingDevices()) {
-                if (!d.getAddress().equals(device.getAddress())) {
-                    Logger.w("The current connection request may be blocked or fail" +
-                            " because the local device is connecting to other devices");
-                    break;
+        // for batched execution. So connection requests are queued by the scheduler and
+        // started with a concurrency limit of the OS level, rather than colliding in the stack
+        final BleGattCommunicator target = communicator;
+        ConnectionScheduler.Request pending = mConnectionScheduler.schedule(new ConnectionScheduler.Request(
+                target, params, callback, new Runnable() {
+            @Override
+            public void run() {
+                startConnection(target, params, callback);
+            }
+        }));
+        if (pending != null && pending.mCallback != callback) {
+            getCallbackExecutor(params.mCallbackExecutor).execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onConnectionFailed(BleErrorCodes.CONNECTION_ALREADY_STARTED_OR_ESTABLISHED, device);
                 }
+            });
+        }
+    }
+
+    private void startConnection(BleGattCommunicator communicator, ConnectionParams params,
+                                 BleConnectCallback callback) {
+        synchronized (mConnectionSlotLock) {
+            // A device which is connecting or connected already has a slot
+            if (communicator.isDisconnected() &&
+                    mConnectionStateIndex.getOccupiedSlotCount() >= BleManager.getInstance().getMaxConnectionNum() &&
+                    !evictConnection(params.mSchedulingPriority)) {
+                // The scheduler may have given it a slot
+                mConnectionScheduler.release(communicator);
+                BleDevice device = communicator.getBleDevice();
+                getCallbackExecutor(params.mCallbackExecutor).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onConnectionFailed(BleErrorCodes.CONNECTION_REACH_MAX_NUM, device);
+                    }
+                });
+                return;
             }
+            communicator.setSchedulingPriority(params.mSchedulingPriority);
+            communicator.connect(params, callback);
         }
+    }
 
-        communicator.connect(timeoutMillis, retryCount, retryDelay, autoConnect, callback);
+    /**
+     * Disconnect from a connected device by the eviction policy to free a connection slot
+     *
+     * @param priority scheduling priority of the new connection
+     * @return false if no device can be evicted
+     */
+    private boolean evictConnection(int priority) {
+        BleGattCommunicator victim = null;
+        switch (BleManager.getInstance().getConnectionEvictionPolicy()) {
+            case BleManager.EVICTION_POLICY_LRU_IDLE:
+                for (BleGattCommunicator c : mConnectionStateIndex.getConnectedCommunicators()) {
+                    if (c.isIdle() && (victim == null || c.getLastActiveTime() < victim.getLastActiveTime())) {
+                        victim = c;
+                    }
+                }
+                break;
+            case BleManager.EVICTION_POLICY_LOWEST_PRIORITY:
+                // The longest connected one goes first if several have the lowest priority
+                for (BleGattCommunicator c : mConnectionStateIndex.getConnectedCommunicators()) {
+                    if (c.getSchedulingPriority() < priority &&
+                            (victim == null || c.getSchedulingPriority() < victim.getSchedulingPriority())) {
+                        victim = c;
+                    }
+                }
+                break;
+            case BleManager.EVICTION_POLICY_OLDEST:
+                List<BleGattCommunicator> connected = mConnectionStateIndex.getConnectedCommunicators();
+                if (!connected.isEmpty()) {
+                    victim = connected.get(0);
+                }
+                break;
+            default:
+                break;
+        }
+        if (victim == null) {
+            return false;
+        }
+        Logger.i("All connection slots are in use, disconnect from " + victim.getBleDevice().getAddress());
+        victim.disconnect(true, true);
+        return true;
     }
 
     @Override
@@ -124,252 +195,323 @@ public final class BleGattImpl implements BleGatt, BleManager.BluetoothStateList
         if (communicator == null) {
             return;
         }
+        ConnectionScheduler.Request pending = mConnectionScheduler.cancel(communicator);
+        if (pending != null) {
+            failScheduledConnection(pending, BleErrorCodes.CONNECTION_CANCELED);
+        }
         communicator.disconnect(closeGattImmediately, true);
     }
 
     @Override
     public void disconnectAll(boolean closeGattImmediately) {
         mMainHandler.removeCallbacksAndMessages(null);
+        for (ConnectionScheduler.Request pending : mConnectionScheduler.cancelAll()) {
+            failScheduledConnection(pending, BleErrorCodes.CONNECTION_CANCELED);
+        }
         for (BleGattCommunicator communicator : mBleGattCommunicatorMap.values()) {
             communicator.disconnect(closeGattImmediately, true);
         }
     }
 
     @Override
-    public void notify(BleDevice device, UUID serviceUuid, UUID notifyUuid, BleNotifyCallback callback) {
+    public Cancelable notify(BleDevice device, UUID serviceUuid, UUID notifyUuid, OperationOptions options,
+                             BleNotifyCallback callback) {
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            mMainHandler.post(new Runnable() {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
                 @Override
                 public void run() {
                     callback.onNotifyFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, notifyUuid, device);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        communicator.enableNotify(serviceUuid, notifyUuid, callback);
+        return communicator.enableNotify(serviceUuid, notifyUuid, options, callback);
     }
 
     @Override
-    public void cancelNotify(BleDevice device, UUID serviceUuid, UUID notifyUuid) {
+    public Cancelable notifyByBatch(BleDevice device, UUID serviceUuid, UUID notifyUuid, NotifyBatchOptions options,
+                                    BleNotifyBatchCallback callback) {
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            return;
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onNotifyFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, notifyUuid, device);
+                }
+            });
+            return Cancelable.COMPLETED;
+        }
+        return communicator.enableBatchNotify(serviceUuid, notifyUuid, options, callback);
+    }
+
+    @Override
+    public Cancelable notifyByFrame(BleDevice device, UUID serviceUuid, UUID notifyUuid, FrameDecoder decoder,
+                                    OperationOptions options, BleFrameCallback callback) {
+        BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
+        if (communicator == null) {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onNotifyFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, notifyUuid, device);
+                }
+            });
+            return Cancelable.COMPLETED;
         }
-        communicator.disableNotify(serviceUuid, notifyUuid);
+        return communicator.enableFrameNotify(serviceUuid, notifyUuid, decoder, options, callback);
     }
 
     @Override
-    public void read(BleDevice device, UUID serviceUuid, UUID readUuid, BleReadCallback callback) {
+    public Cancelable transact(BleDevice device, UUID serviceUuid, UUID writeUuid, UUID notifyUuid, byte[] request,
+                               ResponseMatcher matcher, TransactionOptions options, BleTransactionCallback callback) {
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            mMainHandler.post(new Runnable() {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onTransactionFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, request, device);
+                }
+            });
+            return Cancelable.COMPLETED;
+        }
+        return communicator.transact(serviceUuid, writeUuid, notifyUuid, request, matcher, options, callback);
+    }
+
+    @Override
+    public Cancelable cancelNotify(BleDevice device, UUID serviceUuid, UUID notifyUuid) {
+        BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
+        if (communicator == null) {
+            return Cancelable.COMPLETED;
+        }
+        return communicator.disableNotify(serviceUuid, notifyUuid);
+    }
+
+    @Override
+    public Cancelable read(BleDevice device, UUID serviceUuid, UUID readUuid, OperationOptions options,
+                           BleReadCallback callback) {
+        BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
+        if (communicator == null) {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
                 @Override
                 public void run() {
                     callback.onReadFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, readUuid, device);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        communicator.read(serviceUuid, readUuid, callback);
+        return communicator.read(serviceUuid, readUuid, options, callback);
     }
 
     @Override
-    public void write(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data, BleWriteCallback callback) {
+    public Cancelable write(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] data, OperationOptions options,
+                            BleWriteCallback callback) {
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            mMainHandler.post(new Runnable() {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
                 @Override
                 public void run() {
                     callback.onWriteFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, data, writeUuid, device);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        communicator.write(serviceUuid, writeUuid, data, callback);
+        return communicator.write(serviceUuid, writeUuid, data, options, callback);
     }
 
     @Override
-    public void writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, byte[] writeData,
-                             int lengthPerBatch, long batchInterval, BleWriteByBatchCallback callback) {
+    public Cancelable writeByBatch(BleDevice device, UUID serviceUuid, UUID writeUuid, BatchDataCursor writeData,
+                                   BatchWriteOptions options, BleWriteByBatchCallback callback) {
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            mMainHandler.post(new Runnable() {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
                 @Override
                 public void run() {
-                    callback.onWriteBatchFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, 0, writeData, writeUuid, device);
+                    callback.onWriteBatchFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, 0, writeData.array(),
+                            writeUuid, device);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        communicator.writeByBatch(serviceUuid, writeUuid, writeData, lengthPerBatch, batchInterval, callback);
+        return communicator.writeByBatch(serviceUuid, writeUuid, writeData, options, callback);
     }
 
     @Override
-    public void readRssi(BleDevice device, BleRssiCallback callback) {
+    public Cancelable readRssi(BleDevice device, OperationOptions options, BleRssiCallback callback) {
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            mMainHandler.post(new Runnable() {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
                 @Override
                 public void run() {
                     callback.onRssiFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, device);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        communicator.readRssi(callback);
+        return communicator.readRssi(options, callback);
     }
 
     @SuppressWarnings("NewApi")
     @Override
-    public void setMtu(final BleDevice device, int mtu, final BleMtuCallback callback) {
+    public Cancelable setMtu(final BleDevice device, int mtu, OperationOptions options, final BleMtuCallback callback) {
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            mMainHandler.post(new Runnable() {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
                 @Override
                 public void run() {
                     callback.onMtuFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, device);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        communicator.requestMtu(mtu, callback);
+        return communicator.requestMtu(mtu, options, callback);
     }
 
     @Override
-    public void descriptorWrite(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
-                                UUID descriptorUuid, byte[] data, BleDescriptorWriteCallback callback) {
+    public Cancelable descriptorWrite(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
+                                      UUID descriptorUuid, byte[] data, OperationOptions options,
+                                      BleDescriptorWriteCallback callback) {
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            mMainHandler.post(new Runnable() {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
                 @Override
                 public void run() {
                     callback.onDescriptorWriteFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, data, descriptorUuid, device);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        communicator.descriptorWrite(serviceUuid, characteristicUuid, descriptorUuid, data, callback);
+        return communicator.descriptorWrite(serviceUuid, characteristicUuid, descriptorUuid, data, options, callback);
     }
 
     @Override
-    public void descriptorRead(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
-                               UUID descriptorUuid, BleDescriptorReadCallback callback) {
+    public Cancelable descriptorRead(BleDevice device, UUID serviceUuid, UUID characteristicUuid,
+                                     UUID descriptorUuid, OperationOptions options,
+                                     BleDescriptorReadCallback callback) {
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            mMainHandler.post(new Runnable() {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
                 @Override
                 public void run() {
                     callback.onDescriptorReadFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, descriptorUuid, device);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        communicator.descriptorRead(serviceUuid, characteristicUuid, descriptorUuid, callback);
+        return communicator.descriptorRead(serviceUuid, characteristicUuid, descriptorUuid, options, callback);
     }
 
     @Override
-    public void readPhy(BleDevice device, BlePhyReadCallback callback) {
+    public Cancelable readPhy(BleDevice device, OperationOptions options, BlePhyReadCallback callback) {
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            mMainHandler.post(new Runnable() {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
                 @Override
                 public void run() {
                     callback.onPhyReadFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, device);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        communicator.readPhy(callback);
+        return communicator.readPhy(options, callback);
     }
 
     @Override
-    public void setPreferencePhy(BleDevice device, int txPhy, int rxPhy, int phyOptions,
-                                 BlePhyPreferenceCallback callback) {
+    public Cancelable setPreferencePhy(BleDevice device, int txPhy, int rxPhy, int phyOptions,
+                                       OperationOptions options, BlePhyPreferenceCallback callback) {
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            mMainHandler.post(new Runnable() {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
                 @Override
                 public void run() {
                     callback.onPhyPreferenceSetFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, device);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        communicator.setPreferencePhy(txPhy, rxPhy, phyOptions, callback);
+        return communicator.setPreferencePhy(txPhy, rxPhy, phyOptions, options, callback);
     }
 
     @Override
-    public void requestConnectionPriority(BleDevice device, int connPriority,
-                                          BleConnectionPriorityCallback callback) {
+    public Cancelable requestConnectionPriority(BleDevice device, int connPriority, OperationOptions options,
+                                                BleConnectionPriorityCallback callback) {
         BleGattCommunicator communicator = mBleGattCommunicatorMap.get(device.getAddress());
         if (communicator == null) {
-            mMainHandler.post(new Runnable() {
+            getCallbackExecutor(options.getCallbackExecutor()).execute(new Runnable() {
                 @Override
                 public void run() {
                     callback.onConnectionPriorityFailed(BleErrorCodes.CONNECTION_NOT_ESTABLISHED, device);
                 }
             });
-            return;
+            return Cancelable.COMPLETED;
         }
-        communicator.requestConnectionPriority(connPriority, callback);
+        return communicator.requestConnectionPriority(connPriority, options, callback);
     }
 
     @Override
     public List<BleDevice> getConnectedDevices() {
-        List<BleDevice> deviceList = new ArrayList<>();
-        for (BleGattCommunicator d : mBleGattCommunicatorMap.values()) {
-            if (d.isConnected()) {
-                deviceList.add(d.getBleDevice());
-            }
-        }
-        return deviceList;
+        return mConnectionStateIndex.getConnectedDevices();
     }
 
     @Override
     public List<BleDevice> getConnectingDevices() {
-        List<BleDevice> deviceList = new ArrayList<>();
-        for (BleGattCommunicator d : mBleGattCommunicatorMap.values()) {
-            if (d.isConnecting()) {
-                deviceList.add(d.getBleDevice());
-            }
-        }
-        return deviceList;
+        return mConnectionStateIndex.getConnectingDevices();
+    }
+
+    @Override
+    public int getConnectedDeviceCount() {
+        return mConnectionStateIndex.getConnectedCount();
+    }
+
+    @Override
+    public int getConnectingDeviceCount() {
+        return mConnectionStateIndex.getConnectingCount();
     }
 
     @Override
     public boolean isConnecting(String address) {
-        for (BleGattCommunicator d : mBleGattCommunicatorMap.values()) {
-            if (d.isConnecting() && d.getBleDevice().getAddress().equals(address)) {
-                return true;
-            }
-        }
-        return false;
+        BleGattCommunicator communicator = mBleGattCommunicatorMap.get(address);
+        // Requests waiting for the scheduler are connecting as well
+        return communicator != null && (communicator.isConnecting() || communicator.isConnectionPending());
+    }
+
+    @Override
+    public int getPendingOperationCount(String address) {
+        BleGattCommunicator communicator = mBleGattCommunicatorMap.get(address);
+        return communicator == null ? 0 : communicator.getPendingOperationCount();
     }
 
     @Override
     public boolean isConnected(String address) {
-        for (BleGattCommunicator d : mBleGattCommunicatorMap.values()) {
-            if (d.isConnected() && d.getBleDevice().getAddress().equals(address)) {
-                return true;
-            }
-        }
-        return false;
+        BleGattCommunicator communicator = mBleGattCommunicatorMap.get(address);
+        return communicator != null && communicator.isConnected();
     }
 
     @Override
     public BluetoothGatt getBluetoothGatt(String address) {
-        for (BleGattCommunicator d : mBleGattCommunicatorMap.values()) {
-            if (d.getBleDevice().getAddress().equals(address)) {
-                return d.getBluetoothGatt();
+        BleGattCommunicator communicator = mBleGattCommunicatorMap.get(address);
+        return communicator == null ? null : communicator.getBluetoothGatt();
+    }
+
+    private Executor getCallbackExecutor(Executor preferred) {
+        return preferred != null ? preferred : mMainExecutor;
+    }
+
+    private void failScheduledConnection(ConnectionScheduler.Request request, int errorCode) {
+        BleDevice device = request.mCommunicator.getBleDevice();
+        getCallbackExecutor(request.mParams.mCallbackExecutor).execute(new Runnable() {
+            @Override
+            public void run() {
+                request.mCallback.onConnectionFailed(errorCode, device);
             }
-        }
-        return null;
+        });
     }
 
     @Override
     public void onBluetoothStateChanged(int state) {
         if (state == BluetoothAdapter.STATE_OFF) {
+            for (ConnectionScheduler.Request pending : mConnectionScheduler.cancelAll()) {
+                failScheduledConnection(pending, BleErrorCodes.BLUETOOTH_OFF);
+            }
             for (BleGattCommunicator d : mBleGattCommunicatorMap.values()) {
                 d.onBluetoothOff();
             }
@@ -387,9 +529,16 @@ public final class BleGattImpl implements BleGatt, BleManager.BluetoothStateList
 
     @Override
     public void destroy(boolean callbackEnabledOnDestroy) {
+        List<ConnectionScheduler.Request> pendingRequests = mConnectionScheduler.cancelAll();
+        if (callbackEnabledOnDestroy) {
+            for (ConnectionScheduler.Request pending : pendingRequests) {
+                failScheduledConnection(pending, BleErrorCodes.CONNECTION_CANCELED);
+            }
+        }
         for (BleGattCommunicator communicator : mBleGattCommunicatorMap.values()) {
             communicator.disconnect(true, callbackEnabledOnDestroy);
         }
         mBleGattCommunicatorMap.clear();
+        mConnectionStateIndex.clear();
     }
 }
@@ -0,0 +1,102 @@
+package com.ficat.easyble.gatt;
+
+import java.util.Random;
+
+/**
+ * Decides the delay before every connection retry, see
+ * {@link com.ficat.easyble.BleManager.ConnectionOptions#retryWhenConnectionFailed(int, BleRetryPolicy)}.
+ * <p>
+ * When many devices lose their connections at the same time, e.g. after a power blip, fixed
+ * delays make them retry in lockstep and flood the controller. A policy with jitter spreads
+ * the retries out. It's called on the bluetooth binder thread or the worker thread of
+ * EasyBle, and may be shared by several devices.
+ * </p>
+ */
+public interface BleRetryPolicy {
+    /**
+     * @param retry         the retry to be made, 1 for the first retry
+     * @param previousDelay delay before the previous retry, 0 before the first retry
+     * @return delay before the retry in milliseconds, or a negative value to give up retrying
+     */
+    long getRetryDelay(int retry, long previousDelay);
+
+    /**
+     * Waits the same delay before every retry
+     */
+    final class Fixed implements BleRetryPolicy {
+        private final long mDelay;
+
+        public Fixed(long delayMillis) {
+            if (delayMillis < 0) {
+                throw new IllegalArgumentException("Invalid retry delay: " + delayMillis);
+            }
+            this.mDelay = delayMillis;
+        }
+
+        @Override
+        public long getRetryDelay(int retry, long previousDelay) {
+            return mDelay;
+        }
+    }
+
+    /**
+     * Doubles the delay on every retry up to a cap. With jitter, the delay is picked randomly
+     * between half of it and all of it.
+     */
+    final class Exponential implements BleRetryPolicy {
+        private final long mInitialDelay;
+        private final long mMaxDelay;
+        private final boolean mJitter;
+        private final Random mRandom = new Random();
+
+        public Exponential(long initialDelayMillis, long maxDelayMillis, boolean jitter) {
+            if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+                throw new IllegalArgumentException("Invalid retry delay: " + initialDelayMillis + ", " + maxDelayMillis);
+            }
+            this.mInitialDelay = initialDelayMillis;
+            this.mMaxDelay = maxDelayMillis;
+            this.mJitter = jitter;
+        }
+
+        @Override
+        public long getRetryDelay(int retry, long previousDelay) {
+            int shift = Math.min(Math.max(retry - 1, 0), 30);
+            // Shifting a bit into the sign bit or beyond overflows, the delay is capped then
+            long delay = shift >= Long.numberOfLeadingZeros(mInitialDelay) ? mMaxDelay : mInitialDelay << shift;
+            if (delay > mMaxDelay) {
+                delay = mMaxDelay;
+            }
+            if (!mJitter) {
+                return delay;
+            }
+            long half = delay / 2;
+            return half + (long) (mRandom.nextDouble() * (delay - half));
+        }
+    }
+
+    /**
+     * Picks every delay randomly between the base delay and three times the previous delay,
+     * up to a cap, so the delays of different devices drift apart quickly
+     */
+    final class DecorrelatedJitter implements BleRetryPolicy {
+        private final long mBaseDelay;
+        private final long mMaxDelay;
+        private final Random mRandom = new Random();
+
+        public DecorrelatedJitter(long baseDelayMillis, long maxDelayMillis) {
+            if (baseDelayMillis <= 0 || maxDelayMillis < baseDelayMillis) {
+                throw new IllegalArgumentException("Invalid retry delay: " + baseDelayMillis + ", " + maxDelayMillis);
+            }
+            this.mBaseDelay = baseDelayMillis;
+            this.mMaxDelay = maxDelayMillis;
+        }
+
+        @Override
+        public long getRetryDelay(int retry, long previousDelay) {
+            long previous = Math.max(previousDelay, mBaseDelay);
+            // Compare before multiplying, so a large previous delay cannot overflow
+            long upper = previous > mMaxDelay / 3 ? mMaxDelay : Math.min(previous * 3, mMaxDelay);
+            return mBaseDelay + (long) (mRandom.nextDouble() * (upper - mBaseDelay));
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.ficat.easyble.gatt;
+
+import android.bluetooth.BluetoothGatt;
+
+import com.ficat.easyble.BleDevice;
+import com.ficat.easyble.gatt.callback.BleNotifyCallback;
+import com.ficat.easyble.gatt.callback.BleReadCallback;
+import com.ficat.easyble.gatt.callback.BleWriteByBatchCallback;
+import com.ficat.easyble.gatt.callback.BleWriteCallback;
+
+import java.util.UUID;
+
+/**
+ * A recyclable event that delivers a result of the frequent operations, i.e. reading,
+ * writing and notification, to its callback. Events are kept in a global pool like
+ * {@link android.os.Message}, so that delivering results in steady state allocates nothing.
+ * <p>
+ * A pooled event recycles itself after it has run, so it must be run only once, and must not
+ * be touched after it has been handed to a handler or an executor. Pooled events are therefore
+ * only handed to internal handlers. An executor supplied by users may reject a task, keep it or
+ * run it twice, so it gets an event created outside the pool instead.
+ * </p>
+ */
+final class CallbackEvent implements Runnable {
+    private static final int TYPE_READ = 1;
+    private static final int TYPE_WRITE = 2;
+    private static final int TYPE_NOTIFICATION = 3;
+    private static final int TYPE_WRITE_BATCH_PROGRESS = 4;
+
+    private static final int MAX_POOL_SIZE = 50;
+    private static final Object sPoolSync = new Object();
+    private static CallbackEvent sPool;
+    private static int sPoolSize = 0;
+
+    private int mType;
+    private Object mCallback;
+    private int mStatus;
+    private float mProgress;
+    private byte[] mData;
+    private UUID mUuid;
+    private BleDevice mDevice;
+    private CallbackEvent mNext;
+    private boolean mPooled; // Whether it's returned to the pool after it has run
+
+    private CallbackEvent() {
+
+    }
+
+    private static CallbackEvent obtain(boolean pooled, int type, Object callback, UUID uuid, BleDevice device) {
+        CallbackEvent event = null;
+        if (pooled) {
+            synchronized (sPoolSync) {
+                if (sPool != null) {
+                    event = sPool;
+                    sPool = event.mNext;
+                    event.mNext = null;
+                    sPoolSize--;
+                }
+            }
+        }
+        if (event == null) {
+            event = new CallbackEvent();
+        }
+        event.mPooled = pooled;
+        event.mType = type;
+        event.mCallback = callback;
+        event.mUuid = uuid;
+        event.mDevice = device;
+        return event;
+    }
+
+    static CallbackEvent obtainRead(boolean pooled, BleReadCallback callback, int status, byte[] data, UUID uuid,
+                                    BleDevice device) {
+        CallbackEvent event = obtain(pooled, TYPE_READ, callback, uuid, device);
+        event.mStatus = status;
+        event.mData = data;
+        return event;
+    }
+
+    static CallbackEvent obtainWrite(boolean pooled, BleWriteCallback callback, int status, byte[] data, UUID uuid,
+                                     BleDevice device) {
+        CallbackEvent event = obtain(pooled, TYPE_WRITE, callback, uuid, device);
+        event.mStatus = status;
+        event.mData = data;
+        return event;
+    }
+
+    static CallbackEvent obtainNotification(boolean pooled, BleNotifyCallback callback, byte[] data, UUID uuid,
+                                            BleDevice device) {
+        CallbackEvent event = obtain(pooled, TYPE_NOTIFICATION, callback, uuid, device);
+        event.mData = data;
+        return event;
+    }
+
+    static CallbackEvent obtainWriteBatchProgress(boolean pooled, BleWriteByBatchCallback callback, float progress,
+                                                  UUID uuid, BleDevice device) {
+        CallbackEvent event = obtain(pooled, TYPE_WRITE_BATCH_PROGRESS, callback, uuid, device);
+        event.mProgress = progress;
+        return event;
+    }
+
+    @Override
+    public void run() {
+        try {
+            switch (mType) {
+                case TYPE_READ:
+                    BleReadCallback readCallback = (BleReadCallback) mCallback;
+                    if (mStatus == BluetoothGatt.GATT_SUCCESS) {
+                        readCallback.onReadSuccess(mData, mUuid, mDevice);
+                    } else {
+                        readCallback.onReadFailed(mStatus, mUuid, mDevice);
+                    }
+                    break;
+                case TYPE_WRITE:
+                    BleWriteCallback writeCallback = (BleWriteCallback) mCallback;
+                    if (mStatus == BluetoothGatt.GATT_SUCCESS) {
+                        writeCallback.onWriteSuccess(mData, mUuid, mDevice);
+                    } else {
+                        writeCallback.onWriteFailed(mStatus, mData, mUuid, mDevice);
+                    }
+                    break;
+                case TYPE_NOTIFICATION:
+                    ((BleNotifyCallback) mCallback).onCharacteristicChanged(mData, mUuid, mDevice);
+                    break;
+                case TYPE_WRITE_BATCH_PROGRESS:
+                    ((BleWriteByBatchCallback) mCallback).onWriteBatchProgress(mProgress, mUuid, mDevice);
+                    break;
+                default:
+                    break;
+            }
+        } finally {
+            recycle();
+        }
+    }
+
+    private void recycle() {
+        // Guard against running twice, an event out of the pool is never reused anyway
+        if (!mPooled) {
+            return;
+        }
+        mPooled = false;
+        // Clear references so that a pooled event doesn't hold callbacks or data
+        mType = 0;
+        mCallback = null;
+        mStatus = 0;
+        mProgress = 0;
+        mData = null;
+        mUuid = null;
+        mDevice = null;
+        synchronized (sPoolSync) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                mNext = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+}
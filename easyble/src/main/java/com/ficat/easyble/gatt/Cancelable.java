@@ -0,0 +1,34 @@
+package com.ficat.easyble.gatt;
+
+/**
+ * A handle of a gatt operation, it can be used to withdraw the operation if its result is
+ * no longer needed.
+ */
+public interface Cancelable {
+    /**
+     * The handle of an operation that has already finished, for example, failed before it's
+     * queued. It can not be canceled.
+     */
+    Cancelable COMPLETED = new Cancelable() {
+        @Override
+        public boolean cancel() {
+            return false;
+        }
+    };
+
+    /**
+     * Cancel the operation.
+     * <p>
+     * An operation still waiting in the queue is removed immediately, and its callback fails
+     * with {@link com.ficat.easyble.BleErrorCodes#OPERATION_CANCELED}. A batch writing in
+     * progress is aborted before its next batch is sent, and its callback fails with the same
+     * error code. Other operations in progress can not be canceled, because their requests
+     * have already been sent to the remote device.
+     * </p>
+     * It's safe to call it on any thread.
+     *
+     * @return true if the operation has been canceled, or false if it has finished, is in
+     * progress and can not be aborted, or has already been canceled
+     */
+    boolean cancel();
+}
@@ -0,0 +1,31 @@
+package com.ficat.easyble.gatt;
+
+import com.ficat.easyble.BleManager.ConnectionOptions;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An immutable copy of {@link ConnectionOptions} taken when a connection is requested, so a
+ * request that waits for a slot is not affected if the options are changed meanwhile.
+ */
+final class ConnectionParams {
+    final long mTimeoutMillis;
+    final int mRetryCount;
+    final BleRetryPolicy mRetryPolicy;
+    final RetryBudget mRetryBudget;
+    final boolean mAutoConnect;
+    final int mSchedulingPriority;
+    final int mLastSeenRssi;
+    final Executor mCallbackExecutor;
+
+    ConnectionParams(ConnectionOptions options) {
+        this.mTimeoutMillis = options.getConnectionPeriod();
+        this.mRetryCount = options.getRetryCount();
+        this.mRetryPolicy = options.getRetryPolicy();
+        this.mRetryBudget = options.getRetryBudget();
+        this.mAutoConnect = options.isAutoConnect();
+        this.mSchedulingPriority = options.getSchedulingPriority();
+        this.mLastSeenRssi = options.getLastSeenRssi();
+        this.mCallbackExecutor = options.getCallbackExecutor();
+    }
+}
@@ -0,0 +1,187 @@
+package com.ficat.easyble.gatt;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.ficat.easyble.BleManager;
+import com.ficat.easyble.gatt.callback.BleConnectCallback;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Queues direct connection requests and starts them with a concurrency limit, see
+ * {@link BleManager#setConnectionScheduling(int, long)}.
+ * <p>
+ * A started request occupies a slot until the connection is established or it finally fails,
+ * connection retries included. Waiting requests are started in order of scheduling priority,
+ * then last seen rssi, then arrival, and two requests are never started closer than the
+ * connection interval.
+ * </p>
+ */
+final class ConnectionScheduler {
+    private final ConnectionStateIndex mStateIndex;
+    private final List<Request> mPending = new ArrayList<>();
+    private final Set<BleGattCommunicator> mActive = new HashSet<>();
+    private final Runnable mDrainTask = this::drain;
+    private Handler mHandler;
+    private long mLastStartTime;
+    private long mNextSequence;
+
+    ConnectionScheduler(ConnectionStateIndex stateIndex) {
+        this.mStateIndex = stateIndex;
+    }
+
+    static final class Request {
+        final BleGattCommunicator mCommunicator;
+        final ConnectionParams mParams;
+        final BleConnectCallback mCallback;
+        final Runnable mStartTask;
+        long mSequence;
+
+        Request(BleGattCommunicator communicator, ConnectionParams params, BleConnectCallback callback,
+                Runnable startTask) {
+            this.mCommunicator = communicator;
+            this.mParams = params;
+            this.mCallback = callback;
+            this.mStartTask = startTask;
+        }
+
+        boolean runsBefore(Request other) {
+            if (mParams.mSchedulingPriority != other.mParams.mSchedulingPriority) {
+                return mParams.mSchedulingPriority > other.mParams.mSchedulingPriority;
+            }
+            if (mParams.mLastSeenRssi != other.mParams.mLastSeenRssi) {
+                return mParams.mLastSeenRssi > other.mParams.mLastSeenRssi;
+            }
+            return mSequence < other.mSequence;
+        }
+    }
+
+    /**
+     * Queue a connection request, it's started at once if a slot is free
+     *
+     * @return the request of the same device that is already waiting, in this case the new
+     * request is not queued, otherwise null
+     */
+    Request schedule(Request request) {
+        synchronized (this) {
+            Request pending = getPending(request.mCommunicator);
+            if (pending != null) {
+                return pending;
+            }
+            request.mSequence = mNextSequence++;
+            mPending.add(request);
+            setPending(request.mCommunicator, true);
+        }
+        drain();
+        return null;
+    }
+
+    /**
+     * Remove the waiting request of a device
+     *
+     * @return the removed request, or null if the device has no waiting request
+     */
+    synchronized Request cancel(BleGattCommunicator communicator) {
+        Request pending = getPending(communicator);
+        if (pending != null) {
+            mPending.remove(pending);
+            setPending(communicator, false);
+        }
+        return pending;
+    }
+
+    /**
+     * Remove all waiting requests
+     *
+     * @return the removed requests
+     */
+    synchronized List<Request> cancelAll() {
+        List<Request> requests = new ArrayList<>(mPending);
+        mPending.clear();
+        for (Request r : requests) {
+            setPending(r.mCommunicator, false);
+        }
+        return requests;
+    }
+
+    /**
+     * Free the slot of a device once its connection request has finished, it's safe to call
+     * it if the device has no slot
+     */
+    void release(BleGattCommunicator communicator) {
+        synchronized (this) {
+            if (!mActive.remove(communicator) || mPending.isEmpty()) {
+                return;
+            }
+        }
+        // The caller may hold the connection lock of the device, so start the next request
+        // on the worker thread to keep lock ordering out of it
+        getHandler().post(mDrainTask);
+    }
+
+    private void drain() {
+        while (true) {
+            Request next;
+            synchronized (this) {
+                if (mPending.isEmpty()) {
+                    return;
+                }
+                BleManager manager = BleManager.getInstance();
+                if (mActive.size() >= manager.getMaxConcurrentConnections()) {
+                    return;
+                }
+                long now = SystemClock.uptimeMillis();
+                long wait = mLastStartTime > 0 ? mLastStartTime + manager.getConnectionInterval() - now : 0;
+                if (wait > 0) {
+                    Handler handler = getHandler();
+                    handler.removeCallbacks(mDrainTask);
+                    handler.postDelayed(mDrainTask, wait);
+                    return;
+                }
+                next = mPending.get(0);
+                for (int i = 1; i < mPending.size(); i++) {
+                    Request r = mPending.get(i);
+                    if (r.runsBefore(next)) {
+                        next = r;
+                    }
+                }
+                mPending.remove(next);
+                setPending(next.mCommunicator, false);
+                // A device which is connecting or connected already fails at once without a slot
+                if (next.mCommunicator.isDisconnected()) {
+                    mActive.add(next.mCommunicator);
+                    mLastStartTime = now;
+                }
+            }
+            next.mStartTask.run();
+        }
+    }
+
+    private void setPending(BleGattCommunicator communicator, boolean pending) {
+        communicator.setConnectionPending(pending);
+        mStateIndex.update(communicator);
+    }
+
+    private Request getPending(BleGattCommunicator communicator) {
+        if (!communicator.isConnectionPending()) {
+            return null;
+        }
+        for (Request r : mPending) {
+            if (r.mCommunicator == communicator) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    private synchronized Handler getHandler() {
+        if (mHandler == null) {
+            mHandler = new Handler(BleManager.getInstance().getWorkerLooper());
+        }
+        return mHandler;
+    }
+}
@@ -0,0 +1,100 @@
+package com.ficat.easyble.gatt;
+
+import com.ficat.easyble.BleDevice;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Connected and connecting devices, updated on every connection state change so that
+ * queries don't have to visit every device.
+ * <p>
+ * A device whose connection request is waiting in the {@link ConnectionScheduler} is
+ * connecting as well, but it does not occupy a connection slot until its request starts.
+ * The counts can be read without taking the lock.
+ * </p>
+ */
+final class ConnectionStateIndex {
+    // Kept in the order devices entered the state
+    private final Set<BleGattCommunicator> mConnected = new LinkedHashSet<>();
+    private final Set<BleGattCommunicator> mConnecting = new LinkedHashSet<>();
+    private final Set<BleGattCommunicator> mOccupying = new LinkedHashSet<>(); // Connected or started connecting
+    private volatile int mConnectedCount;
+    private volatile int mConnectingCount;
+    private volatile int mOccupiedSlotCount;
+
+    /**
+     * Update the state of a device, it's called after the connection state or the waiting
+     * state of the device has changed
+     */
+    synchronized void update(BleGattCommunicator communicator) {
+        if (communicator.isConnected()) {
+            mConnected.add(communicator);
+        } else {
+            mConnected.remove(communicator);
+        }
+        if (communicator.isConnecting() || communicator.isConnectionPending()) {
+            mConnecting.add(communicator);
+        } else {
+            mConnecting.remove(communicator);
+        }
+        if (communicator.isConnected() || communicator.isConnecting()) {
+            mOccupying.add(communicator);
+        } else {
+            mOccupying.remove(communicator);
+        }
+        mConnectedCount = mConnected.size();
+        mConnectingCount = mConnecting.size();
+        mOccupiedSlotCount = mOccupying.size();
+    }
+
+    synchronized void clear() {
+        mConnected.clear();
+        mConnecting.clear();
+        mOccupying.clear();
+        mConnectedCount = 0;
+        mConnectingCount = 0;
+        mOccupiedSlotCount = 0;
+    }
+
+    int getConnectedCount() {
+        return mConnectedCount;
+    }
+
+    int getConnectingCount() {
+        return mConnectingCount;
+    }
+
+    /**
+     * Get the number of connection slots in use, i.e. devices connected or whose connection
+     * has started
+     */
+    int getOccupiedSlotCount() {
+        return mOccupiedSlotCount;
+    }
+
+    /**
+     * Get connected devices in the order they were connected, the longest connected first
+     */
+    synchronized List<BleGattCommunicator> getConnectedCommunicators() {
+        return new ArrayList<>(mConnected);
+    }
+
+    synchronized List<BleDevice> getConnectedDevices() {
+        return toDeviceList(mConnected);
+    }
+
+    synchronized List<BleDevice> getConnectingDevices() {
+        return toDeviceList(mConnecting);
+    }
+
+    private static List<BleDevice> toDeviceList(Set<BleGattCommunicator> communicators) {
+        List<BleDevice> deviceList = new ArrayList<>(communicators.size());
+        for (BleGattCommunicator c : communicators) {
+            deviceList.add(c.getBleDevice());
+        }
+        return deviceList;
+    }
+}
@@ -0,0 +1,109 @@
+package com.ficat.easyble.gatt;
+
+import com.ficat.easyble.BleDevice;
+import com.ficat.easyble.gatt.callback.BleFrameCallback;
+import com.ficat.easyble.gatt.callback.BleNotifyCallback;
+import com.ficat.easyble.utils.FrameDecoder;
+import com.ficat.easyble.utils.Logger;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Feeds notifications of one characteristic to a {@link FrameDecoder} on the bluetooth binder
+ * thread, and delivers every decoded frame to a {@link BleFrameCallback} by the callback
+ * executor. Frames are copied into pooled buffers that are recycled after the callback
+ * returns, so the steady state allocates nothing.
+ */
+final class FrameAssembler implements BleNotifyCallback, FrameDecoder.FrameOutput {
+    private static final int MAX_SPARE_FRAME_NUM = 8;
+
+    private final FrameDecoder mDecoder;
+    private final UUID mCharacteristicUuid;
+    private final Executor mExecutor;
+    private final BleFrameCallback mCallback;
+    private final ArrayDeque<Frame> mSpareFrames = new ArrayDeque<>();
+    private volatile BleDevice mDevice;
+
+    FrameAssembler(UUID characteristicUuid, FrameDecoder decoder, Executor executor, BleFrameCallback callback) {
+        this.mCharacteristicUuid = characteristicUuid;
+        this.mDecoder = decoder;
+        this.mExecutor = executor;
+        this.mCallback = callback;
+        decoder.reset();
+    }
+
+    @Override
+    public void onCharacteristicChanged(byte[] receivedData, UUID characteristicUuid, BleDevice device) {
+        if (receivedData == null) {
+            return;
+        }
+        mDevice = device;
+        mDecoder.decode(receivedData, this);
+    }
+
+    @Override
+    public void onFrame(byte[] buffer, int offset, int length) {
+        Frame frame = obtainFrame(length);
+        System.arraycopy(buffer, offset, frame.mData, 0, length);
+        frame.mLength = length;
+        try {
+            mExecutor.execute(frame.mDeliverTask);
+        } catch (RejectedExecutionException e) {
+            // Drop the frame rather than throwing on the binder thread
+            Logger.w("Callback executor rejected a frame: " + e.getMessage());
+            recycle(frame);
+        }
+    }
+
+    @Override
+    public void onNotifySuccess(UUID characteristicUuid, BleDevice device) {
+        mCallback.onNotifySuccess(characteristicUuid, device);
+    }
+
+    @Override
+    public void onNotifyFailed(int errorCode, UUID characteristicUuid, BleDevice device) {
+        mCallback.onNotifyFailed(errorCode, characteristicUuid, device);
+    }
+
+    private Frame obtainFrame(int length) {
+        Frame frame;
+        synchronized (mSpareFrames) {
+            frame = mSpareFrames.poll();
+        }
+        if (frame == null) {
+            frame = new Frame();
+        }
+        if (frame.mData == null || frame.mData.length < length) {
+            // Size it for the largest frame, so that it's allocated only once
+            frame.mData = new byte[Math.max(length, mDecoder.getMaxFrameLength())];
+        }
+        return frame;
+    }
+
+    private void recycle(Frame frame) {
+        frame.mLength = 0;
+        synchronized (mSpareFrames) {
+            if (mSpareFrames.size() < MAX_SPARE_FRAME_NUM) {
+                mSpareFrames.offer(frame);
+            }
+        }
+    }
+
+    private final class Frame {
+        byte[] mData;
+        int mLength;
+        final Runnable mDeliverTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mCallback.onFrameReceived(mData, mLength, mCharacteristicUuid, mDevice);
+                } finally {
+                    recycle(Frame.this);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,72 @@
+package com.ficat.easyble.gatt;
+
+/**
+ * A batch of notifications received from one characteristic, see
+ * {@link com.ficat.easyble.gatt.callback.BleNotifyBatchCallback}.
+ * <p>
+ * Batches are recycled after they have been delivered, so a batch is only valid during the
+ * callback it's passed to.
+ * </p>
+ */
+public final class NotificationBatch {
+    private final byte[][] mData;
+    private final long[] mTimestamps;
+    private int mSize;
+    Runnable mDeliverTask; // Delivers this batch, allocated once with the batch
+
+    NotificationBatch(int capacity) {
+        this.mData = new byte[capacity][];
+        this.mTimestamps = new long[capacity];
+    }
+
+    /**
+     * Get the number of notifications in this batch
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Get the data of a notification
+     *
+     * @param index index of the notification, from 0 to {@link #size()} - 1
+     */
+    public byte[] getData(int index) {
+        checkIndex(index);
+        return mData[index];
+    }
+
+    /**
+     * Get the time when a notification arrived
+     *
+     * @param index index of the notification, from 0 to {@link #size()} - 1
+     * @return arrival time based on {@link android.os.SystemClock#elapsedRealtimeNanos()}
+     */
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return mTimestamps[index];
+    }
+
+    boolean add(byte[] data, long timestamp) {
+        mData[mSize] = data;
+        mTimestamps[mSize] = timestamp;
+        return ++mSize == mData.length;
+    }
+
+    boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    void clear() {
+        for (int i = 0; i < mSize; i++) {
+            mData[i] = null;
+        }
+        mSize = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + mSize);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.ficat.easyble.gatt;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.ficat.easyble.BleDevice;
+import com.ficat.easyble.gatt.callback.BleNotifyBatchCallback;
+import com.ficat.easyble.gatt.callback.BleNotifyCallback;
+import com.ficat.easyble.utils.Logger;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Collects notifications of one characteristic into batches and delivers each batch to a
+ * {@link BleNotifyBatchCallback} once it's full or its time window has elapsed.
+ * <p>
+ * Notifications are added on the bluetooth binder thread, the time window is counted on the
+ * worker handler, and batches are delivered by the callback executor. Delivered batches are
+ * recycled, so the steady state allocates no batch.
+ * </p>
+ * <p>
+ * Once notifications are disabled, or the device disconnects or is released, the batcher is
+ * closed: the pending window is cancelled and a partial batch is dropped, so no batch arrives
+ * after notifications have stopped. A full batch already handed to the executor is delivered.
+ * </p>
+ */
+final class NotificationBatcher implements BleNotifyCallback {
+    private static final int MAX_SPARE_BATCH_NUM = 2;
+
+    private final BleNotifyBatchCallback mCallback;
+    private final UUID mCharacteristicUuid;
+    private final int mBatchSize;
+    private final long mWindowMillis;
+    private final Handler mHandler;
+    private final Executor mExecutor;
+    private final Runnable mFlushTask = this::flush;
+    private final ArrayDeque<NotificationBatch> mSpareBatches = new ArrayDeque<>();
+    private NotificationBatch mCurrentBatch;
+    private volatile BleDevice mDevice;
+    private boolean mClosed;
+
+    NotificationBatcher(UUID characteristicUuid, int batchSize, long windowMillis, Handler handler,
+                        Executor executor, BleNotifyBatchCallback callback) {
+        this.mCharacteristicUuid = characteristicUuid;
+        this.mBatchSize = batchSize;
+        this.mWindowMillis = windowMillis;
+        this.mHandler = handler;
+        this.mExecutor = executor;
+        this.mCallback = callback;
+    }
+
+    @Override
+    public void onCharacteristicChanged(byte[] receivedData, UUID characteristicUuid, BleDevice device) {
+        long timestamp = SystemClock.elapsedRealtimeNanos();
+        NotificationBatch full;
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mDevice = device;
+            if (mCurrentBatch == null) {
+                mCurrentBatch = obtainBatch();
+            }
+            if (mCurrentBatch.isEmpty() && mWindowMillis > 0) {
+                // The window starts with the first notification of the batch
+                mHandler.postDelayed(mFlushTask, mWindowMillis);
+            }
+            if (!mCurrentBatch.add(receivedData, timestamp)) {
+                return;
+            }
+            mHandler.removeCallbacks(mFlushTask);
+            full = mCurrentBatch;
+            mCurrentBatch = null;
+        }
+        deliver(full);
+    }
+
+    @Override
+    public void onNotifySuccess(UUID characteristicUuid, BleDevice device) {
+        mCallback.onNotifySuccess(characteristicUuid, device);
+    }
+
+    @Override
+    public void onNotifyFailed(int errorCode, UUID characteristicUuid, BleDevice device) {
+        mCallback.onNotifyFailed(errorCode, characteristicUuid, device);
+    }
+
+    /**
+     * Stop collecting notifications, the pending window is cancelled and a partial batch is dropped
+     */
+    void close() {
+        synchronized (this) {
+            mClosed = true;
+            mHandler.removeCallbacks(mFlushTask);
+            if (mCurrentBatch != null) {
+                mCurrentBatch.clear();
+                mCurrentBatch = null;
+            }
+        }
+    }
+
+    private void flush() {
+        NotificationBatch batch;
+        synchronized (this) {
+            batch = mCurrentBatch;
+            if (batch == null || batch.isEmpty()) {
+                return;
+            }
+            mCurrentBatch = null;
+        }
+        deliver(batch);
+    }
+
+    /**
+     * Hand a batch to the callback executor, a rejected batch is dropped and recycled rather
+     * than throwing on the binder thread
+     */
+    private void deliver(NotificationBatch batch) {
+        try {
+            mExecutor.execute(batch.mDeliverTask);
+        } catch (RejectedExecutionException e) {
+            Logger.w("Callback executor rejected a notification batch: " + e.getMessage());
+            recycle(batch);
+        }
+    }
+
+    private NotificationBatch obtainBatch() {
+        NotificationBatch batch = mSpareBatches.poll();
+        if (batch != null) {
+            return batch;
+        }
+        NotificationBatch newBatch = new NotificationBatch(mBatchSize);
+        newBatch.mDeliverTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mCallback.onCharacteristicChanged(newBatch, mCharacteristicUuid, mDevice);
+                } finally {
+                    recycle(newBatch);
+                }
+            }
+        };
+        return newBatch;
+    }
+
+    private void recycle(NotificationBatch batch) {
+        batch.clear();
+        synchronized (this) {
+            if (mSpareBatches.size() < MAX_SPARE_BATCH_NUM) {
+                mSpareBatches.offer(batch);
+            }
+        }
+    }
+}
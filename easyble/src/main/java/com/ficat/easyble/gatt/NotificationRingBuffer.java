@@ -0,0 +1,143 @@
+package com.ficat.easyble.gatt;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pre-sized ring buffer that notifications are written into, see
+ * {@link com.ficat.easyble.BleManager.OperationOptions#notificationSink(NotificationRingBuffer)}.
+ * <p>
+ * It's single-producer/single-consumer and lock-free: notifications are copied into one
+ * byte array on the bluetooth binder thread without creating any object, and exactly one
+ * consumer thread of yours drains them by {@link #poll(byte[])} at its own pace. If the
+ * consumer can not keep up, new notifications are dropped rather than old ones being
+ * overwritten, and they are counted by {@link #getDroppedCount()}.
+ * </p>
+ * Every notification takes 2 bytes of header plus its length in the buffer.
+ */
+public final class NotificationRingBuffer {
+    private static final int HEADER_LENGTH = 2;
+    private static final int MAX_RECORD_LENGTH = 0xFFFF;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final byte[] mBuffer;
+    private final int mMask;
+    private final AtomicLong mHead = new AtomicLong(); // Read position, advanced by the consumer only
+    private final AtomicLong mTail = new AtomicLong(); // Write position, advanced by the producer only
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    /**
+     * @param capacity buffer size in bytes, it's rounded up to a power of two
+     */
+    public NotificationRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be in (0, " + MAX_CAPACITY + "]");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mBuffer = new byte[size];
+        this.mMask = size - 1;
+    }
+
+    /**
+     * Get the buffer size in bytes
+     */
+    public int capacity() {
+        return mBuffer.length;
+    }
+
+    /**
+     * Check if there is no notification to poll
+     */
+    public boolean isEmpty() {
+        return mHead.get() == mTail.get();
+    }
+
+    /**
+     * Get the length of the next notification without removing it, it's called on the
+     * consumer thread only
+     *
+     * @return length of the next notification, or -1 if the buffer is empty
+     */
+    public int nextLength() {
+        long head = mHead.get();
+        if (head == mTail.get()) {
+            return -1;
+        }
+        return readLength(head);
+    }
+
+    /**
+     * Remove the next notification and copy it into dst, it's called on the consumer thread
+     * only
+     *
+     * @param dst destination array, its length must not be less than {@link #nextLength()}.
+     *            An array of (MTU - 3) bytes is always large enough
+     * @return length of the notification, or -1 if the buffer is empty
+     */
+    public int poll(byte[] dst) {
+        long head = mHead.get();
+        if (head == mTail.get()) {
+            return -1;
+        }
+        int length = readLength(head);
+        if (dst.length < length) {
+            throw new IllegalArgumentException("Destination is too small, length of next notification: " + length);
+        }
+        copyOut(head + HEADER_LENGTH, dst, length);
+        // Publish the freed space to the producer
+        mHead.lazySet(head + HEADER_LENGTH + length);
+        return length;
+    }
+
+    /**
+     * Get the number of notifications dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return mDroppedCount.get();
+    }
+
+    /**
+     * Write a notification, it's called on the binder thread only
+     */
+    boolean offer(byte[] data) {
+        int length = data == null ? 0 : data.length;
+        long tail = mTail.get();
+        long required = HEADER_LENGTH + length;
+        if (length > MAX_RECORD_LENGTH || tail - mHead.get() + required > mBuffer.length) {
+            mDroppedCount.incrementAndGet();
+            return false;
+        }
+        mBuffer[(int) tail & mMask] = (byte) (length >>> 8);
+        mBuffer[(int) (tail + 1) & mMask] = (byte) length;
+        if (length > 0) {
+            copyIn(data, tail + HEADER_LENGTH, length);
+        }
+        // Publish the notification to the consumer
+        mTail.lazySet(tail + required);
+        return true;
+    }
+
+    private int readLength(long position) {
+        return ((mBuffer[(int) position & mMask] & 0xFF) << 8) | (mBuffer[(int) (position + 1) & mMask] & 0xFF);
+    }
+
+    private void copyIn(byte[] src, long position, int length) {
+        int offset = (int) position & mMask;
+        int firstPart = Math.min(length, mBuffer.length - offset);
+        System.arraycopy(src, 0, mBuffer, offset, firstPart);
+        if (firstPart < length) {
+            System.arraycopy(src, firstPart, mBuffer, 0, length - firstPart);
+        }
+    }
+
+    private void copyOut(long position, byte[] dst, int length) {
+        int offset = (int) position & mMask;
+        int firstPart = Math.min(length, mBuffer.length - offset);
+        System.arraycopy(mBuffer, offset, dst, 0, firstPart);
+        if (firstPart < length) {
+            System.arraycopy(mBuffer, 0, dst, firstPart, length - firstPart);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.ficat.easyble.gatt;
+
+/**
+ * Pairs a notification with the request of a transaction, see
+ * {@link com.ficat.easyble.BleManager#transact(com.ficat.easyble.BleDevice, java.util.UUID,
+ * java.util.UUID, java.util.UUID, byte[], ResponseMatcher,
+ * com.ficat.easyble.gatt.callback.BleTransactionCallback)}.
+ * <p>
+ * It's called on the bluetooth binder thread for every notification of the response
+ * characteristic while the transaction is outstanding, so it must be fast and must not block.
+ * </p>
+ */
+public interface ResponseMatcher {
+    /**
+     * @param request  request data of the transaction
+     * @param response received notification
+     * @return true if the notification is the response of the request
+     */
+    boolean matches(byte[] request, byte[] response);
+
+    /**
+     * Extracts the correlation id, e.g. a sequence number, from a request or a response
+     */
+    interface IdExtractor {
+        /**
+         * @return the id of the data, or {@link #NO_ID} if the data doesn't carry one
+         */
+        long extractId(byte[] data);
+
+        long NO_ID = Long.MIN_VALUE;
+    }
+
+    /**
+     * Matches a response whose id equals the id of the request
+     */
+    final class ById implements ResponseMatcher {
+        private final IdExtractor mRequestIdExtractor;
+        private final IdExtractor mResponseIdExtractor;
+
+        public ById(IdExtractor idExtractor) {
+            this(idExtractor, idExtractor);
+        }
+
+        public ById(IdExtractor requestIdExtractor, IdExtractor responseIdExtractor) {
+            if (requestIdExtractor == null || responseIdExtractor == null) {
+                throw new IllegalArgumentException("IdExtractor is null");
+            }
+            this.mRequestIdExtractor = requestIdExtractor;
+            this.mResponseIdExtractor = responseIdExtractor;
+        }
+
+        @Override
+        public boolean matches(byte[] request, byte[] response) {
+            long responseId = mResponseIdExtractor.extractId(response);
+            return responseId != IdExtractor.NO_ID && responseId == mRequestIdExtractor.extractId(request);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.ficat.easyble.gatt;
+
+import android.os.SystemClock;
+
+/**
+ * Limits connection retries across devices, see
+ * {@link com.ficat.easyble.BleManager.ConnectionOptions#retryBudget(RetryBudget)}.
+ * <p>
+ * Every retry takes a token, and tokens are refilled one at a time up to the max. Pass the
+ * same instance to the connection options of several devices to share it, a device whose
+ * retry finds no token stops retrying and its connection fails, so a fleet that keeps failing
+ * cannot keep the controller busy with reconnections.
+ * </p>
+ */
+public final class RetryBudget {
+    private final int mMaxTokens;
+    private final long mRefillInterval;
+    private int mTokens;
+    private long mLastRefillTime;
+
+    /**
+     * @param maxRetries           max number of retries that can be made in a burst
+     * @param refillIntervalMillis interval to regain a retry
+     */
+    public RetryBudget(int maxRetries, long refillIntervalMillis) {
+        if (maxRetries <= 0) {
+            throw new IllegalArgumentException("Invalid max retries: " + maxRetries);
+        }
+        if (refillIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Invalid refill interval: " + refillIntervalMillis);
+        }
+        this.mMaxTokens = maxRetries;
+        this.mRefillInterval = refillIntervalMillis;
+        this.mTokens = maxRetries;
+        this.mLastRefillTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Take a retry from the budget
+     *
+     * @return false if the budget is used up
+     */
+    public boolean tryAcquire() {
+        return tryAcquire(SystemClock.uptimeMillis());
+    }
+
+    synchronized boolean tryAcquire(long now) {
+        refill(now);
+        if (mTokens == 0) {
+            return false;
+        }
+        mTokens--;
+        return true;
+    }
+
+    /**
+     * Get the number of retries that can be made now
+     */
+    public int getAvailableRetries() {
+        return getAvailableRetries(SystemClock.uptimeMillis());
+    }
+
+    synchronized int getAvailableRetries(long now) {
+        refill(now);
+        return mTokens;
+    }
+
+    private void refill(long now) {
+        if (mTokens >= mMaxTokens) {
+            mLastRefillTime = now;
+            return;
+        }
+        long refilled = (now - mLastRefillTime) / mRefillInterval;
+        if (refilled <= 0) {
+            return;
+        }
+        if (refilled >= mMaxTokens - mTokens) {
+            mTokens = mMaxTokens;
+            mLastRefillTime = now;
+        } else {
+            mTokens += (int) refilled;
+            mLastRefillTime += refilled * mRefillInterval;
+        }
+    }
+}
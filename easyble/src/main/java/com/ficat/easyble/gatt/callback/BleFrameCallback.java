@@ -0,0 +1,38 @@
+package com.ficat.easyble.gatt.callback;
+
+
+import com.ficat.easyble.BleDevice;
+
+import java.util.UUID;
+
+public interface BleFrameCallback {
+    /**
+     * Receive a whole frame reassembled from notifications
+     * <p>
+     * Note that the frame array is reused once this method returns, only the first
+     * {@code length} bytes belong to the frame, so copy it if it's needed later.
+     *
+     * @param frame              frame array
+     * @param length             frame length
+     * @param characteristicUuid target characteristic uuid
+     * @param device             the remote device
+     */
+    void onFrameReceived(byte[] frame, int length, UUID characteristicUuid, BleDevice device);
+
+    /**
+     * Enable target characteristic notification successfully
+     *
+     * @param characteristicUuid target characteristic uuid
+     * @param device             the remote device
+     */
+    void onNotifySuccess(UUID characteristicUuid, BleDevice device);
+
+    /**
+     * Failed to set notification
+     *
+     * @param errorCode          see {@link BleNotifyCallback#onNotifyFailed(int, UUID, BleDevice)}
+     * @param characteristicUuid target characteristic uuid
+     * @param device             the remote device
+     */
+    void onNotifyFailed(int errorCode, UUID characteristicUuid, BleDevice device);
+}
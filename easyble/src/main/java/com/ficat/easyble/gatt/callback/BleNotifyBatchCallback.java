@@ -0,0 +1,38 @@
+package com.ficat.easyble.gatt.callback;
+
+
+import com.ficat.easyble.BleDevice;
+import com.ficat.easyble.gatt.NotificationBatch;
+
+import java.util.UUID;
+
+public interface BleNotifyBatchCallback {
+    /**
+     * Receive a batch of notifications from the remote device
+     * <p>
+     * Note that the batch is reused once this method returns, so do not keep a reference to
+     * it, copy what you need instead. The received data of each notification can be kept.
+     *
+     * @param batch              notifications collected in a time window, in arrival order
+     * @param characteristicUuid target characteristic uuid
+     * @param device             the remote device
+     */
+    void onCharacteristicChanged(NotificationBatch batch, UUID characteristicUuid, BleDevice device);
+
+    /**
+     * Enable target characteristic notification successfully
+     *
+     * @param characteristicUuid target characteristic uuid
+     * @param device             the remote device
+     */
+    void onNotifySuccess(UUID characteristicUuid, BleDevice device);
+
+    /**
+     * Failed to set notification
+     *
+     * @param errorCode          see {@link BleNotifyCallback#onNotifyFailed(int, UUID, BleDevice)}
+     * @param characteristicUuid target characteristic uuid
+     * @param device             the remote device
+     */
+    void onNotifyFailed(int errorCode, UUID characteristicUuid, BleDevice device);
+}
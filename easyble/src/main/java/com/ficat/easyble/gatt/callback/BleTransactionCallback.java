@@ -0,0 +1,32 @@
+package com.ficat.easyble.gatt.callback;
+
+
+import com.ficat.easyble.BleDevice;
+
+public interface BleTransactionCallback {
+    /**
+     * The request has been written and its response has been received
+     *
+     * @param request  request data
+     * @param response the notification matched with the request
+     * @param device   the remote device
+     */
+    void onTransactionSuccess(byte[] request, byte[] response, BleDevice device);
+
+    /**
+     * The transaction failed
+     *
+     * @param errCode If it's sdk custom error, it will be one of the following:
+     *                {@link com.ficat.easyble.BleErrorCodes#TIMEOUT}, the response didn't
+     *                arrive in time
+     *                {@link com.ficat.easyble.BleErrorCodes#OPERATION_CANCELED}
+     *                {@link com.ficat.easyble.BleErrorCodes#CONNECTION_NOT_ESTABLISHED}, the
+     *                connection was lost or released before the response arrived
+     *                Or an error code of writing the request or enabling notification, see
+     *                {@link BleWriteCallback#onWriteFailed(int, byte[], java.util.UUID, BleDevice)}
+     *                and {@link BleNotifyCallback#onNotifyFailed(int, java.util.UUID, BleDevice)}
+     * @param request request data
+     * @param device  the remote device
+     */
+    void onTransactionFailed(int errCode, byte[] request, BleDevice device);
+}
@@ -9,14 +9,17 @@ public interface BleWriteByBatchCallback {
     /**
      * Write successfully, that means all batches have been written
      *
-     * @param originalData       original data
+     * @param originalData       original data, null if the data is not from a byte array,
+     *                           like an input stream
      * @param characteristicUuid target characteristic uuid
      * @param device             the remote device
      */
     void onWriteBatchSuccess(byte[] originalData, UUID characteristicUuid, BleDevice device);
 
     /**
-     * Batch progress
+     * Batch progress, progress callbacks are called in order before the final result only if
+     * the callback executor is serial, see
+     * {@link com.ficat.easyble.BleManager.BatchWriteOptions#callbackExecutor(java.util.concurrent.Executor)}
      *
      * @param progress           current progress
      * @param characteristicUuid target characteristic uuid
@@ -34,13 +37,14 @@ public interface BleWriteByBatchCallback {
      *                           {@link com.ficat.easyble.BleErrorCodes#CHARACTERISTIC_NOT_FOUND_IN_SERVICE}
      *                           {@link com.ficat.easyble.BleErrorCodes#WRITE_UNSUPPORTED}
      *                           {@link com.ficat.easyble.BleErrorCodes#DATA_LENGTH_GREATER_THAN_MTU}
+     *                           {@link com.ficat.easyble.BleErrorCodes#BATCH_DATA_READ_FAILED}
      *                           {@link com.ficat.easyble.BleErrorCodes#TIMEOUT}
      *                           {@link com.ficat.easyble.BleErrorCodes#UNKNOWN}
      *                           Or it belongs to gatt error codes, like
      *                           {@link com.ficat.easyble.BleErrorCodes#GATT_INSUFFICIENT_AUTHORIZATION},
      *                           {@link com.ficat.easyble.BleErrorCodes#GATT_FAILURE} and so on.
      * @param writtenLength      written length from original data
-     * @param originalData       original data
+     * @param originalData       original data, null if the data is not from a byte array
      * @param characteristicUuid target characteristic uuid
      * @param device             the remote device
      */
@@ -25,6 +25,7 @@ public interface BleWriteCallback {
      *                           {@link com.ficat.easyble.BleErrorCodes#WRITE_UNSUPPORTED}
      *                           {@link com.ficat.easyble.BleErrorCodes#DATA_LENGTH_GREATER_THAN_MTU}
      *                           {@link com.ficat.easyble.BleErrorCodes#TIMEOUT}
+     *                           {@link com.ficat.easyble.BleErrorCodes#OPERATION_SUPERSEDED}
      *                           {@link com.ficat.easyble.BleErrorCodes#UNKNOWN}
      *                           Or it belongs to gatt error codes, like
      *                           {@link com.ficat.easyble.BleErrorCodes#GATT_INSUFFICIENT_AUTHORIZATION},
@@ -0,0 +1,47 @@
+package com.ficat.easyble.poll;
+
+import com.ficat.easyble.BleDevice;
+
+import java.util.UUID;
+
+public interface BlePollCallback {
+    /**
+     * A characteristic has been read by a {@link PollPlan.Builder#read(UUID, UUID)} step
+     *
+     * @param data               data read from the characteristic
+     * @param characteristicUuid target characteristic uuid
+     * @param device             the remote device
+     */
+    void onRead(byte[] data, UUID characteristicUuid, BleDevice device);
+
+    /**
+     * A notification has been received in a {@link PollPlan.Builder#notify(UUID, UUID, long)}
+     * step, notify steps are skipped on a connection owned by the app
+     *
+     * @param data               received data
+     * @param characteristicUuid target characteristic uuid
+     * @param device             the remote device
+     */
+    void onNotification(byte[] data, UUID characteristicUuid, BleDevice device);
+
+    /**
+     * All steps of the plan have been run on the device, it's disconnected unless it was
+     * connected before the poll
+     *
+     * @param device the remote device
+     * @param stats  statistics including this poll
+     */
+    void onPollSucceeded(BleDevice device, PollStats stats);
+
+    /**
+     * Failed to connect to the device or to run a step, the device is polled again after a
+     * backoff
+     *
+     * @param errorCode the error code of the failed connection or operation, see
+     *                  {@link com.ficat.easyble.gatt.callback.BleConnectCallback#onConnectionFailed(int, BleDevice)}
+     *                  and the callbacks of the operations
+     * @param device    the remote device
+     * @param stats     statistics including this poll
+     */
+    void onPollFailed(int errorCode, BleDevice device, PollStats stats);
+}
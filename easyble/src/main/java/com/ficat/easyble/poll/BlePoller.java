@@ -0,0 +1,557 @@
+package com.ficat.easyble.poll;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.ficat.easyble.BleDevice;
+import com.ficat.easyble.BleErrorCodes;
+import com.ficat.easyble.BleManager;
+import com.ficat.easyble.gatt.callback.BleConnectCallback;
+import com.ficat.easyble.gatt.callback.BleNotifyCallback;
+import com.ficat.easyble.gatt.callback.BleReadCallback;
+import com.ficat.easyble.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Polls a fleet of devices in turn, every poll connects to a device, runs its
+ * {@link PollPlan} and disconnects, so that more devices than the connection slots can be
+ * served by time-multiplexing them.
+ * <p>
+ * At most {@link PollOptions#maxConcurrentDevices(int)} devices are polled at the same time,
+ * a device that is due and has waited the longest goes first. After a successful poll a
+ * device is polled again after the poll interval, after a failed one it's polled again after
+ * a backoff which doubles with every consecutive failure. A device already connected by the
+ * app is polled over the existing connection, which is kept after the poll. Notify steps are
+ * skipped on such a connection, since enabling notification would replace the notification
+ * callback of the app, and disabling it afterwards would end the subscription of the app.
+ * </p>
+ * The poller runs on the worker thread of EasyBle, its methods can be called on any thread.
+ * It's bound to the worker looper when it's created, and {@link BleManager#destroy()} quits
+ * that looper, so a poller stops working once BleManager is destroyed: stop it before
+ * destroying BleManager, and create a new poller after {@link BleManager#init} if needed.
+ */
+public final class BlePoller {
+    private final PollOptions mOptions;
+    private final BlePollCallback mCallback;
+    private final Executor mCallbackExecutor;
+    private final Handler mHandler;
+    private final Executor mWorkerExecutor;
+    private final Map<String, Target> mTargets = new ConcurrentHashMap<>();
+    private final Runnable mPumpTask = this::pump;
+    private boolean mStarted;
+    private int mRunningCount;
+
+    /**
+     * Create a poller bound to the current worker looper of EasyBle, it can not be used
+     * after {@link BleManager#destroy()}
+     */
+    public BlePoller(PollOptions options, BlePollCallback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("BlePollCallback is null");
+        }
+        this.mOptions = options == null ? PollOptions.newInstance() : options;
+        this.mCallback = callback;
+        if (mOptions.mCallbackExecutor != null) {
+            this.mCallbackExecutor = mOptions.mCallbackExecutor;
+        } else {
+            Handler mainHandler = new Handler(Looper.getMainLooper());
+            this.mCallbackExecutor = mainHandler::post;
+        }
+        this.mHandler = new Handler(BleManager.getInstance().getWorkerLooper());
+        this.mWorkerExecutor = mHandler::post;
+    }
+
+    private static final class Target {
+        final String mAddress;
+        PollPlan mPlan;
+        volatile PollStats mStats;
+        int mAttemptCount;
+        int mSuccessCount;
+        int mConsecutiveFailureCount;
+        int mLastErrorCode;
+        long mNextPollTime;
+        // State of the current poll
+        boolean mRunning;
+        int mCycle;
+        List<PollPlan.Step> mSteps;
+        int mStepIndex;
+        BleDevice mDevice;
+        boolean mOwnsConnection;
+        boolean mConnecting; // The poller's connection is being established or established
+        PollPlan.Step mNotifying;
+
+        Target(String address, PollPlan plan, long nextPollTime) {
+            this.mAddress = address;
+            this.mPlan = plan;
+            this.mNextPollTime = nextPollTime;
+            this.mStats = new PollStats(address, 0, 0, 0, 0, nextPollTime);
+        }
+    }
+
+    /**
+     * Add a device to poll, or replace the plan of a device already added, the new plan
+     * takes effect from the next poll
+     *
+     * @param address device address
+     * @param plan    operations run on every poll
+     */
+    public void addDevice(final String address, final PollPlan plan) {
+        if (!BleManager.isValidAddress(address)) {
+            throw new IllegalArgumentException("Invalid address: " + address);
+        }
+        if (plan == null) {
+            throw new IllegalArgumentException("PollPlan is null");
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Target target = mTargets.get(address);
+                if (target != null) {
+                    target.mPlan = plan;
+                    return;
+                }
+                mTargets.put(address, new Target(address, plan, SystemClock.uptimeMillis()));
+                pump();
+            }
+        });
+    }
+
+    /**
+     * Remove a device, if it's being polled the poll is abandoned without callback
+     */
+    public void removeDevice(final String address) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Target target = mTargets.remove(address);
+                if (target != null && target.mRunning) {
+                    abort(target);
+                    pump();
+                }
+            }
+        });
+    }
+
+    public void start() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mStarted = true;
+                pump();
+            }
+        });
+    }
+
+    /**
+     * Stop polling, the polls in progress are abandoned without callback and the devices
+     * connected by the poller are disconnected. Statistics are kept and polling resumes on
+     * {@link #start()}.
+     */
+    public void stop() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mStarted = false;
+                mHandler.removeCallbacks(mPumpTask);
+                for (Target t : mTargets.values()) {
+                    if (t.mRunning) {
+                        abort(t);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the poll statistics of a device
+     *
+     * @return statistics as of the last finished poll, or null if the device is not added
+     */
+    public PollStats getStats(String address) {
+        Target target = mTargets.get(address);
+        return target == null ? null : target.mStats;
+    }
+
+    public List<PollStats> getAllStats() {
+        List<PollStats> list = new ArrayList<>(mTargets.size());
+        for (Target t : mTargets.values()) {
+            list.add(t.mStats);
+        }
+        return list;
+    }
+
+    private void pump() {
+        mHandler.removeCallbacks(mPumpTask);
+        if (!mStarted) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        while (mRunningCount < mOptions.mMaxConcurrentDevices) {
+            Target next = null;
+            for (Target t : mTargets.values()) {
+                if (!t.mRunning && t.mNextPollTime <= now
+                        && (next == null || t.mNextPollTime < next.mNextPollTime)) {
+                    next = t;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            startPoll(next);
+        }
+        if (mRunningCount >= mOptions.mMaxConcurrentDevices) {
+            // Pumped again when a poll finishes
+            return;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (Target t : mTargets.values()) {
+            if (!t.mRunning && t.mNextPollTime < earliest) {
+                earliest = t.mNextPollTime;
+            }
+        }
+        if (earliest != Long.MAX_VALUE) {
+            mHandler.postDelayed(mPumpTask, Math.max(earliest - now, 0));
+        }
+    }
+
+    private void startPoll(final Target target) {
+        target.mRunning = true;
+        target.mSteps = target.mPlan.getSteps();
+        target.mStepIndex = 0;
+        target.mConnecting = false;
+        target.mNotifying = null;
+        mRunningCount++;
+        final int cycle = ++target.mCycle;
+        BleDevice connected = findConnectedDevice(target.mAddress);
+        if (connected != null) {
+            target.mDevice = connected;
+            target.mOwnsConnection = false;
+            runStep(target, cycle);
+            return;
+        }
+        target.mDevice = null;
+        target.mOwnsConnection = true;
+        target.mConnecting = true;
+        BleManager.ConnectionOptions options = BleManager.ConnectionOptions.newInstance()
+                .connectionTimeout(mOptions.mConnectionTimeout)
+                .callbackExecutor(mWorkerExecutor);
+        BleManager.getInstance().connect(target.mAddress, options, new BleConnectCallback() {
+            @Override
+            public void onConnectionStarted(BleDevice device) {
+
+            }
+
+            @Override
+            public void onConnected(BleDevice device) {
+                if (target.mCycle != cycle) {
+                    return;
+                }
+                target.mDevice = device;
+                runStep(target, cycle);
+            }
+
+            @Override
+            public void onDisconnected(BleDevice device, int status) {
+                if (target.mCycle != cycle) {
+                    return;
+                }
+                target.mConnecting = false;
+                finishPoll(target, status != 0 ? status : BleErrorCodes.CONNECTION_NOT_ESTABLISHED);
+            }
+
+            @Override
+            public void onConnectionFailed(int errCode, BleDevice device) {
+                if (target.mCycle != cycle) {
+                    return;
+                }
+                target.mDevice = device;
+                target.mConnecting = false;
+                finishPoll(target, errCode);
+            }
+        });
+    }
+
+    private void runStep(final Target target, final int cycle) {
+        if (target.mStepIndex >= target.mSteps.size()) {
+            finishPoll(target, 0);
+            return;
+        }
+        final PollPlan.Step step = target.mSteps.get(target.mStepIndex);
+        if (step.mType == PollPlan.STEP_NOTIFY && !target.mOwnsConnection) {
+            // Leave the notification of the connection owned by the app alone
+            target.mStepIndex++;
+            runStep(target, cycle);
+            return;
+        }
+        final BleDevice device = target.mDevice;
+        BleManager.OperationOptions options = BleManager.OperationOptions.newInstance()
+                .callbackExecutor(mWorkerExecutor);
+        if (step.mType == PollPlan.STEP_READ) {
+            BleManager.getInstance().read(device, step.mServiceUuid, step.mCharacteristicUuid, options,
+                    new BleReadCallback() {
+                        @Override
+                        public void onReadSuccess(final byte[] readData, final UUID characteristicUuid,
+                                                  BleDevice device) {
+                            if (target.mCycle != cycle) {
+                                return;
+                            }
+                            final BleDevice d = target.mDevice;
+                            mCallbackExecutor.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    mCallback.onRead(readData, characteristicUuid, d);
+                                }
+                            });
+                            target.mStepIndex++;
+                            runStep(target, cycle);
+                        }
+
+                        @Override
+                        public void onReadFailed(int errorCode, UUID characteristicUuid, BleDevice device) {
+                            if (target.mCycle != cycle) {
+                                return;
+                            }
+                            finishPoll(target, errorCode);
+                        }
+                    });
+            return;
+        }
+        BleManager.getInstance().notify(device, step.mServiceUuid, step.mCharacteristicUuid, options,
+                new BleNotifyCallback() {
+                    @Override
+                    public void onCharacteristicChanged(final byte[] receivedData, final UUID characteristicUuid,
+                                                        final BleDevice device) {
+                        if (target.mCycle != cycle || target.mNotifying != step) {
+                            return;
+                        }
+                        mCallbackExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                mCallback.onNotification(receivedData, characteristicUuid, device);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onNotifySuccess(UUID characteristicUuid, BleDevice device) {
+                        if (target.mCycle != cycle) {
+                            return;
+                        }
+                        target.mNotifying = step;
+                        mHandler.postDelayed(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (target.mCycle != cycle) {
+                                    return;
+                                }
+                                // The connection is owned by the poller and closed after the
+                                // poll, so notification is left enabled until then
+                                target.mNotifying = null;
+                                target.mStepIndex++;
+                                runStep(target, cycle);
+                            }
+                        }, step.mWindowMillis);
+                    }
+
+                    @Override
+                    public void onNotifyFailed(int errorCode, UUID characteristicUuid, BleDevice device) {
+                        if (target.mCycle != cycle) {
+                            return;
+                        }
+                        finishPoll(target, errorCode);
+                    }
+                });
+    }
+
+    private void finishPoll(Target target, int errorCode) {
+        endPoll(target);
+        long now = SystemClock.uptimeMillis();
+        target.mAttemptCount++;
+        if (errorCode == 0) {
+            target.mSuccessCount++;
+            target.mConsecutiveFailureCount = 0;
+            target.mNextPollTime = now + mOptions.mPollInterval;
+        } else {
+            target.mConsecutiveFailureCount++;
+            target.mLastErrorCode = errorCode;
+            target.mNextPollTime = now + getBackoff(target.mConsecutiveFailureCount);
+            Logger.d("Poll of " + target.mAddress + " failed, errorCode=" + errorCode
+                    + ", retry in " + (target.mNextPollTime - now) + "ms");
+        }
+        final PollStats stats = new PollStats(target.mAddress, target.mAttemptCount, target.mSuccessCount,
+                target.mConsecutiveFailureCount, target.mLastErrorCode, target.mNextPollTime);
+        target.mStats = stats;
+        final BleDevice device = target.mDevice;
+        final int code = errorCode;
+        if (device != null) {
+            mCallbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (code == 0) {
+                        mCallback.onPollSucceeded(device, stats);
+                    } else {
+                        mCallback.onPollFailed(code, device, stats);
+                    }
+                }
+            });
+        }
+        pump();
+    }
+
+    private void abort(Target target) {
+        endPoll(target);
+        // Poll again as soon as it's resumed
+        target.mNextPollTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Release the connection used by the current poll and invalidate its pending callbacks
+     */
+    private void endPoll(Target target) {
+        target.mCycle++;
+        target.mRunning = false;
+        mRunningCount--;
+        if (target.mOwnsConnection && target.mConnecting) {
+            // Disconnect, or cancel the connection attempt
+            BleManager.getInstance().disconnect(target.mAddress);
+        }
+        target.mNotifying = null;
+        target.mSteps = null;
+    }
+
+    private long getBackoff(int consecutiveFailures) {
+        int shift = Math.min(consecutiveFailures - 1, 30);
+        // Shifting a bit into the sign bit or beyond overflows, the backoff is capped then
+        if (shift >= Long.numberOfLeadingZeros(mOptions.mInitialBackoff)) {
+            return mOptions.mMaxBackoff;
+        }
+        return Math.min(mOptions.mInitialBackoff << shift, mOptions.mMaxBackoff);
+    }
+
+    private static BleDevice findConnectedDevice(String address) {
+        BleManager manager = BleManager.getInstance();
+        if (!manager.isConnected(address)) {
+            return null;
+        }
+        for (BleDevice d : manager.getConnectedDevices()) {
+            if (d.getAddress().equals(address)) {
+                return d;
+            }
+        }
+        return null;
+    }
+
+    public static final class PollOptions {
+        private int mMaxConcurrentDevices = 1;
+        private long mPollInterval = 60000;
+        private long mInitialBackoff = 5000;
+        private long mMaxBackoff = 300000;
+        private long mConnectionTimeout = 10000;
+        private Executor mCallbackExecutor;
+
+        private PollOptions() {
+
+        }
+
+        public static PollOptions newInstance() {
+            return new PollOptions();
+        }
+
+        /**
+         * Set how many devices can be polled at the same time, note that it's also limited by
+         * the connection slots and scheduling of {@link BleManager}, see
+         * {@link BleManager#setConnectionSlots(int, int)} and
+         * {@link BleManager#setConnectionScheduling(int, long)}
+         *
+         * @param max max number of devices polled at the same time, default 1
+         */
+        public PollOptions maxConcurrentDevices(int max) {
+            if (max <= 0) {
+                throw new IllegalArgumentException("Invalid max concurrent devices: " + max);
+            }
+            this.mMaxConcurrentDevices = max;
+            return this;
+        }
+
+        /**
+         * Set how long to wait after a successful poll before polling the device again
+         *
+         * @param millis poll interval, default 60s
+         */
+        public PollOptions pollInterval(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("Invalid poll interval: " + millis);
+            }
+            this.mPollInterval = millis;
+            return this;
+        }
+
+        /**
+         * Set the backoff after failed polls, the first failure waits the initial backoff and
+         * every consecutive failure doubles it, up to the max backoff
+         *
+         * @param initialMillis backoff after the first failure, default 5s
+         * @param maxMillis     max backoff, default 5min
+         */
+        public PollOptions backoff(long initialMillis, long maxMillis) {
+            if (initialMillis <= 0 || maxMillis < initialMillis) {
+                throw new IllegalArgumentException("Invalid backoff: " + initialMillis + ", " + maxMillis);
+            }
+            this.mInitialBackoff = initialMillis;
+            this.mMaxBackoff = maxMillis;
+            return this;
+        }
+
+        /**
+         * Set the connection timeout of every poll, see
+         * {@link BleManager.ConnectionOptions#connectionTimeout(long)}
+         */
+        public PollOptions connectionTimeout(long millis) {
+            if (millis > 0) {
+                this.mConnectionTimeout = millis;
+            }
+            return this;
+        }
+
+        /**
+         * Set the executor that runs {@link BlePollCallback}
+         *
+         * @param executor callback executor, null means the main thread
+         */
+        public PollOptions callbackExecutor(Executor executor) {
+            this.mCallbackExecutor = executor;
+            return this;
+        }
+
+        public int getMaxConcurrentDevices() {
+            return mMaxConcurrentDevices;
+        }
+
+        public long getPollInterval() {
+            return mPollInterval;
+        }
+
+        public long getInitialBackoff() {
+            return mInitialBackoff;
+        }
+
+        public long getMaxBackoff() {
+            return mMaxBackoff;
+        }
+
+        public long getConnectionTimeout() {
+            return mConnectionTimeout;
+        }
+
+        public Executor getCallbackExecutor() {
+            return mCallbackExecutor;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.ficat.easyble.poll;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The gatt operations run on a device every time it's polled by {@link BlePoller}, in the
+ * order they are added.
+ */
+public final class PollPlan {
+    static final int STEP_READ = 0;
+    static final int STEP_NOTIFY = 1;
+
+    private final List<Step> mSteps;
+
+    private PollPlan(List<Step> steps) {
+        this.mSteps = Collections.unmodifiableList(steps);
+    }
+
+    List<Step> getSteps() {
+        return mSteps;
+    }
+
+    static final class Step {
+        final int mType;
+        final UUID mServiceUuid;
+        final UUID mCharacteristicUuid;
+        final long mWindowMillis;
+
+        Step(int type, UUID serviceUuid, UUID characteristicUuid, long windowMillis) {
+            this.mType = type;
+            this.mServiceUuid = serviceUuid;
+            this.mCharacteristicUuid = characteristicUuid;
+            this.mWindowMillis = windowMillis;
+        }
+    }
+
+    public static final class Builder {
+        private final List<Step> mSteps = new ArrayList<>();
+
+        /**
+         * Read a characteristic, see {@link BlePollCallback#onRead(byte[], java.util.UUID, com.ficat.easyble.BleDevice)}
+         */
+        public Builder read(UUID serviceUuid, UUID characteristicUuid) {
+            checkUuid(serviceUuid, characteristicUuid);
+            mSteps.add(new Step(STEP_READ, serviceUuid, characteristicUuid, 0));
+            return this;
+        }
+
+        /**
+         * Enable notification of a characteristic and receive notifications for a while, see
+         * {@link BlePollCallback#onNotification(byte[], java.util.UUID, com.ficat.easyble.BleDevice)}.
+         * The step is skipped if the device is already connected by the app, so that the
+         * notification callback of the app is not replaced
+         *
+         * @param windowMillis how long to receive notifications before the next step
+         */
+        public Builder notify(UUID serviceUuid, UUID characteristicUuid, long windowMillis) {
+            checkUuid(serviceUuid, characteristicUuid);
+            if (windowMillis <= 0) {
+                throw new IllegalArgumentException("Invalid notification window: " + windowMillis);
+            }
+            mSteps.add(new Step(STEP_NOTIFY, serviceUuid, characteristicUuid, windowMillis));
+            return this;
+        }
+
+        public PollPlan build() {
+            if (mSteps.isEmpty()) {
+                throw new IllegalArgumentException("PollPlan has no step");
+            }
+            return new PollPlan(new ArrayList<>(mSteps));
+        }
+
+        private static void checkUuid(UUID serviceUuid, UUID characteristicUuid) {
+            if (serviceUuid == null || characteristicUuid == null) {
+                throw new IllegalArgumentException("UUID is null");
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.ficat.easyble.poll;
+
+/**
+ * Poll statistics of a device, it's a snapshot taken when the last poll of the device
+ * finished.
+ */
+public final class PollStats {
+    private final String mAddress;
+    private final int mAttemptCount;
+    private final int mSuccessCount;
+    private final int mConsecutiveFailureCount;
+    private final int mLastErrorCode;
+    private final long mNextPollTime;
+
+    PollStats(String address, int attemptCount, int successCount, int consecutiveFailureCount,
+              int lastErrorCode, long nextPollTime) {
+        this.mAddress = address;
+        this.mAttemptCount = attemptCount;
+        this.mSuccessCount = successCount;
+        this.mConsecutiveFailureCount = consecutiveFailureCount;
+        this.mLastErrorCode = lastErrorCode;
+        this.mNextPollTime = nextPollTime;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * Get the number of finished polls
+     */
+    public int getAttemptCount() {
+        return mAttemptCount;
+    }
+
+    public int getSuccessCount() {
+        return mSuccessCount;
+    }
+
+    public int getFailureCount() {
+        return mAttemptCount - mSuccessCount;
+    }
+
+    /**
+     * Get the number of failed polls since the last successful one, it decides the backoff
+     * of the next poll
+     */
+    public int getConsecutiveFailureCount() {
+        return mConsecutiveFailureCount;
+    }
+
+    /**
+     * Get the ratio of successful polls, from 0 to 1, or 0 if the device has not been polled
+     */
+    public float getSuccessRate() {
+        return mAttemptCount == 0 ? 0 : (float) mSuccessCount / mAttemptCount;
+    }
+
+    /**
+     * Get the error code of the last failed poll, 0 if no poll has failed
+     */
+    public int getLastErrorCode() {
+        return mLastErrorCode;
+    }
+
+    /**
+     * Get the time the device will be polled next, based on
+     * {@link android.os.SystemClock#uptimeMillis()}
+     */
+    public long getNextPollTime() {
+        return mNextPollTime;
+    }
+
+    @Override
+    public String toString() {
+        return "PollStats{" +
+                "mAddress='" + mAddress + '\'' +
+                ", mAttemptCount=" + mAttemptCount +
+                ", mSuccessCount=" + mSuccessCount +
+                ", mConsecutiveFailureCount=" + mConsecutiveFailureCount +
+                ", mLastErrorCode=" + mLastErrorCode +
+                ", mNextPollTime=" + mNextPollTime +
+                '}';
+    }
+}
@@ -4,7 +4,8 @@ import java.util.List;
 
 
 public interface BleScan<T> {
-    void startScan(long scanPeriod, List<BleScanFilter> scanFilters, T callback);
+    void startScan(long scanPeriod, List<BleScanFilter> scanFilters, long reportInterval,
+                   int rssiChangeThreshold, boolean reportOnPayloadChange, T callback);
 
     void stopScan();
 
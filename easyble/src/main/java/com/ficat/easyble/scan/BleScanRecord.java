@@ -5,8 +5,6 @@ import android.os.ParcelUuid;
 import android.os.Parcelable;
 import android.util.SparseArray;
 
-import com.ficat.easyble.utils.Logger;
-
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
@@ -36,34 +34,34 @@ public class BleScanRecord implements Parcelable {
 
     private static final UUID BASE_UUID = UUID.fromString("00000000-0000-1000-8000-00805F9B34FB");
 
-    private final int mAdvertiseFlags;
-    private final List<ParcelUuid> mServiceUuids;
-    private final List<ParcelUuid> mServiceSolicitationUuids;
-    private final SparseArray<byte[]> mManufacturerSpecificData;
-    private final Map<ParcelUuid, byte[]> mServiceData;
-    private final int mTxPowerLevel;
-    private final String mDeviceName;
+    private static final int INDEX_TYPE = 0;
+    private static final int INDEX_OFFSET = 1;
+    private static final int INDEX_LENGTH = 2;
+    private static final int INDEX_SIZE = 3;
+    private static final int[] EMPTY_INDEX = new int[0];
+
     private final byte[] mBytes;
-    private final Map<Integer, List<byte[]>> mAdvertisingDataMap;
-
-    private BleScanRecord(List<ParcelUuid> serviceUuids, List<ParcelUuid> solicitationUuids,
-                          SparseArray<byte[]> manufacturerData, Map<ParcelUuid, byte[]> serviceData,
-                          int advertiseFlags, int txPowerLevel, String deviceName,
-                          Map<Integer, List<byte[]>> rawMap, byte[] bytes) {
-
-        this.mServiceUuids = serviceUuids;
-        this.mServiceSolicitationUuids = solicitationUuids;
-        this.mManufacturerSpecificData = manufacturerData;
-        this.mServiceData = serviceData;
-        this.mAdvertiseFlags = advertiseFlags;
-        this.mTxPowerLevel = txPowerLevel;
-        this.mDeviceName = deviceName;
-        this.mAdvertisingDataMap = rawMap;
+    // Type, payload offset and payload length of every AD structure in mBytes
+    private final int[] mIndex;
+    private final int mAdStructureCount;
+
+    // Decoded on first access
+    private volatile String mDeviceName;
+    private volatile List<ParcelUuid> mServiceUuids;
+    private volatile List<ParcelUuid> mServiceSolicitationUuids;
+    private volatile SparseArray<byte[]> mManufacturerSpecificData;
+    private volatile Map<ParcelUuid, byte[]> mServiceData;
+    private volatile Map<Integer, List<byte[]>> mAdvertisingDataMap;
+
+    private BleScanRecord(byte[] bytes) {
         this.mBytes = bytes;
+        this.mIndex = index(bytes);
+        this.mAdStructureCount = mIndex.length / INDEX_SIZE;
     }
 
     public int getAdvertiseFlags() {
-        return mAdvertiseFlags;
+        int i = find(DATA_TYPE_FLAGS);
+        return i < 0 ? -1 : mBytes[getAdDataOffset(i)] & 0xFF;
     }
 
     /**
@@ -73,7 +71,30 @@ public class BleScanRecord implements Parcelable {
      * </p>
      */
     public List<ParcelUuid> getServiceUuids() {
-        return mServiceUuids;
+        List<ParcelUuid> uuids = mServiceUuids;
+        if (uuids == null && mAdStructureCount > 0) {
+            uuids = new ArrayList<>();
+            for (int i = 0; i < mAdStructureCount; i++) {
+                switch (getAdType(i)) {
+                    case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+                    case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                        parseUuidList(i, UUID_LENGTH_2, uuids);
+                        break;
+                    case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+                    case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                        parseUuidList(i, UUID_LENGTH_4, uuids);
+                        break;
+                    case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+                    case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                        parseUuidList(i, UUID_LENGTH_16, uuids);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            mServiceUuids = uuids;
+        }
+        return uuids;
     }
 
     /**
@@ -83,7 +104,27 @@ public class BleScanRecord implements Parcelable {
      * </p>
      */
     public List<ParcelUuid> getServiceSolicitationUuids() {
-        return mServiceSolicitationUuids;
+        List<ParcelUuid> uuids = mServiceSolicitationUuids;
+        if (uuids == null && mAdStructureCount > 0) {
+            uuids = new ArrayList<>();
+            for (int i = 0; i < mAdStructureCount; i++) {
+                switch (getAdType(i)) {
+                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
+                        parseUuidList(i, UUID_LENGTH_2, uuids);
+                        break;
+                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
+                        parseUuidList(i, UUID_LENGTH_4, uuids);
+                        break;
+                    case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT:
+                        parseUuidList(i, UUID_LENGTH_16, uuids);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            mServiceSolicitationUuids = uuids;
+        }
+        return uuids;
     }
 
     /**
@@ -91,7 +132,17 @@ public class BleScanRecord implements Parcelable {
      * specific data.
      */
     public SparseArray<byte[]> getManufacturerSpecificData() {
-        return mManufacturerSpecificData;
+        SparseArray<byte[]> manufacturer = mManufacturerSpecificData;
+        if (manufacturer == null && mAdStructureCount > 0) {
+            manufacturer = new SparseArray<>();
+            for (int i = 0; i < mAdStructureCount; i++) {
+                if (getAdType(i) == DATA_TYPE_MANUFACTURER_SPECIFIC_DATA) {
+                    parseManufacturer(i, manufacturer);
+                }
+            }
+            mManufacturerSpecificData = manufacturer;
+        }
+        return manufacturer;
     }
 
     /**
@@ -99,10 +150,11 @@ public class BleScanRecord implements Parcelable {
      * {@code null} if the {@code manufacturerId} is not found.
      */
     public byte[] getManufacturerSpecificData(int manufacturerId) {
-        if (mManufacturerSpecificData == null) {
+        SparseArray<byte[]> manufacturer = getManufacturerSpecificData();
+        if (manufacturer == null) {
             return null;
         }
-        return mManufacturerSpecificData.get(manufacturerId);
+        return manufacturer.get(manufacturerId);
     }
 
     /**
@@ -112,21 +164,55 @@ public class BleScanRecord implements Parcelable {
      * </p>
      */
     public Map<ParcelUuid, byte[]> getServiceData() {
-        return mServiceData;
+        Map<ParcelUuid, byte[]> serviceData = mServiceData;
+        if (serviceData == null && mAdStructureCount > 0) {
+            serviceData = new HashMap<>();
+            for (int i = 0; i < mAdStructureCount; i++) {
+                switch (getAdType(i)) {
+                    case DATA_TYPE_SERVICE_DATA_16_BIT:
+                        parseServiceData(i, UUID_LENGTH_2, serviceData);
+                        break;
+                    case DATA_TYPE_SERVICE_DATA_32_BIT:
+                        parseServiceData(i, UUID_LENGTH_4, serviceData);
+                        break;
+                    case DATA_TYPE_SERVICE_DATA_128_BIT:
+                        parseServiceData(i, UUID_LENGTH_16, serviceData);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            mServiceData = serviceData;
+        }
+        return serviceData;
     }
 
     /**
      * Get the transmission power level (in dBm) included in the advertisement
      */
     public int getTxPowerLevel() {
-        return mTxPowerLevel;
+        int i = find(DATA_TYPE_TX_POWER_LEVEL);
+        return i < 0 ? Integer.MIN_VALUE : mBytes[getAdDataOffset(i)];
     }
 
     /**
      * Get device name parsed by scan result bytes
      */
     public String getDeviceName() {
-        return mDeviceName;
+        String name = mDeviceName;
+        if (name == null) {
+            // The last one wins if both short and complete names are present
+            for (int i = mAdStructureCount - 1; i >= 0; i--) {
+                int type = getAdType(i);
+                if ((type == DATA_TYPE_LOCAL_NAME_SHORT || type == DATA_TYPE_LOCAL_NAME_COMPLETE)
+                        && getAdDataLength(i) > 0) {
+                    name = new String(mBytes, getAdDataOffset(i), getAdDataLength(i));
+                    mDeviceName = name;
+                    break;
+                }
+            }
+        }
+        return name;
     }
 
     /**
@@ -134,11 +220,59 @@ public class BleScanRecord implements Parcelable {
      * are AD types defined by the Bluetooth specification, and the values are
      * the corresponding raw data payloads.
      * <p>
-     * Note that it may return null or empty map
+     * Note that it may return null or empty map. It copies every payload, use
+     * {@link #getAdStructureCount()} and the related methods to read the payloads in place.
      * </p>
      */
     public Map<Integer, List<byte[]>> getAdvertisingDataMap() {
-        return mAdvertisingDataMap;
+        Map<Integer, List<byte[]>> raw = mAdvertisingDataMap;
+        if (raw == null && mAdStructureCount > 0) {
+            raw = new HashMap<>();
+            for (int i = 0; i < mAdStructureCount; i++) {
+                List<byte[]> typeDataList = raw.get(getAdType(i));
+                if (typeDataList == null) {
+                    typeDataList = new ArrayList<>();
+                    raw.put(getAdType(i), typeDataList);
+                }
+                typeDataList.add(copyAdData(i, 0));
+            }
+            mAdvertisingDataMap = raw;
+        }
+        return raw;
+    }
+
+    /**
+     * Get the number of AD structures in the scan record
+     */
+    public int getAdStructureCount() {
+        return mAdStructureCount;
+    }
+
+    /**
+     * Get the AD type of an AD structure
+     *
+     * @param index index of the AD structure, from 0 to {@link #getAdStructureCount()} - 1
+     */
+    public int getAdType(int index) {
+        return mIndex[checkIndex(index) + INDEX_TYPE];
+    }
+
+    /**
+     * Get the offset of the payload of an AD structure in {@link #getBytes()}
+     *
+     * @param index index of the AD structure, from 0 to {@link #getAdStructureCount()} - 1
+     */
+    public int getAdDataOffset(int index) {
+        return mIndex[checkIndex(index) + INDEX_OFFSET];
+    }
+
+    /**
+     * Get the payload length of an AD structure
+     *
+     * @param index index of the AD structure, from 0 to {@link #getAdStructureCount()} - 1
+     */
+    public int getAdDataLength(int index) {
+        return mIndex[checkIndex(index) + INDEX_LENGTH];
     }
 
     /**
@@ -151,13 +285,13 @@ public class BleScanRecord implements Parcelable {
     @Override
     public String toString() {
         return "BleScanRecord{" +
-                "mAdvertiseFlags=" + mAdvertiseFlags +
-                ", mServiceUuids=" + mServiceUuids +
-                ", mServiceSolicitationUuids=" + mServiceSolicitationUuids +
-                ", mManufacturerSpecificData=" + toString(mManufacturerSpecificData) +
-                ", mServiceData=" + toString(mServiceData) +
-                ", mTxPowerLevel=" + mTxPowerLevel +
-                ", mDeviceName='" + mDeviceName +
+                "mAdvertiseFlags=" + getAdvertiseFlags() +
+                ", mServiceUuids=" + getServiceUuids() +
+                ", mServiceSolicitationUuids=" + getServiceSolicitationUuids() +
+                ", mManufacturerSpecificData=" + toString(getManufacturerSpecificData()) +
+                ", mServiceData=" + toString(getServiceData()) +
+                ", mTxPowerLevel=" + getTxPowerLevel() +
+                ", mDeviceName='" + getDeviceName() +
                 '}';
     }
 
@@ -226,204 +360,110 @@ public class BleScanRecord implements Parcelable {
 
     /**
      * Parse scan bytes
+     * <p>
+     * It only indexes the AD structures, every field is decoded on its first access
+     * </p>
      *
      * @param scanRecord original scan data
      * @return BleScanRecord
      */
     public static BleScanRecord parseFromBytes(byte[] scanRecord) {
-        BleScanRecord defaultResult = new BleScanRecord(null, null,
-                null, null, -1, Integer.MIN_VALUE,
-                null, null, scanRecord);
-
-        if (scanRecord == null || scanRecord.length == 0) {
-            return defaultResult;
-        }
+        return new BleScanRecord(scanRecord);
+    }
 
-        // Decode scan record
-        List<AdStructure> list = decode(scanRecord);
-        if (list == null || list.isEmpty()) {
-            return defaultResult;
+    private static int[] index(byte[] data) {
+        if (data == null || data.length == 0) {
+            return EMPTY_INDEX;
         }
-
-        int flags = -1;
-        int txPower = Integer.MIN_VALUE;
-        String name = null;
-        List<ParcelUuid> serviceUuids = new ArrayList<>();
-        List<ParcelUuid> solicitationUuids = new ArrayList<>();
-        SparseArray<byte[]> manufacturer = new SparseArray<>();
-        Map<ParcelUuid, byte[]> serviceData = new HashMap<>();
-        Map<Integer, List<byte[]>> raw = new HashMap<>();
-
-        for (AdStructure s : list) {
-            List<byte[]> typeDataList = raw.get(s.type);
-            if (typeDataList == null) {
-                typeDataList = new ArrayList<>();
-            }
-            typeDataList.add(s.data);
-            raw.put(s.type, typeDataList);
-            switch (s.type) {
-                case DATA_TYPE_FLAGS:
-                    if (s.data != null && s.data.length > 0) {
-                        flags = s.data[0] & 0xFF;
-                    }
-                    break;
-                case DATA_TYPE_LOCAL_NAME_SHORT:
-                case DATA_TYPE_LOCAL_NAME_COMPLETE:
-                    if (s.data != null && s.data.length > 0) {
-                        name = new String(s.data);
-                    }
-                    break;
-                case DATA_TYPE_TX_POWER_LEVEL:
-                    if (s.data != null && s.data.length > 0) {
-                        txPower = s.data[0];
-                    }
-                    break;
-                case DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
-                case DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
-                    parseUuidList(s.data, UUID_LENGTH_2, serviceUuids);
-                    break;
-                case DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
-                case DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
-                    parseUuidList(s.data, UUID_LENGTH_4, serviceUuids);
-                    break;
-                case DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
-                case DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
-                    parseUuidList(s.data, UUID_LENGTH_16, serviceUuids);
-                    break;
-                case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
-                    parseUuidList(s.data, UUID_LENGTH_2, solicitationUuids);
-                    break;
-                case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
-                    parseUuidList(s.data, UUID_LENGTH_4, solicitationUuids);
-                    break;
-                case DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT:
-                    parseUuidList(s.data, UUID_LENGTH_16, solicitationUuids);
-                    break;
-                case DATA_TYPE_SERVICE_DATA_16_BIT:
-                    parseServiceData(s.data, UUID_LENGTH_2, serviceData);
-                    break;
-                case DATA_TYPE_SERVICE_DATA_32_BIT:
-                    parseServiceData(s.data, UUID_LENGTH_4, serviceData);
-                    break;
-                case DATA_TYPE_SERVICE_DATA_128_BIT:
-                    parseServiceData(s.data, UUID_LENGTH_16, serviceData);
-                    break;
-                case DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
-                    parseManufacturer(s.data, manufacturer);
-                    break;
-                default:
-                    // ignore
-                    break;
+        // Count the AD structures first, so the index is allocated once
+        int count = 0;
+        for (int index = 0; index < data.length; ) {
+            int len = data[index] & 0xFF;
+            if (len == 0 || index + 1 + len > data.length) {
+                break;
             }
-
+            count++;
+            index += len + 1;
         }
-        return new BleScanRecord(
-                serviceUuids,
-                solicitationUuids,
-                manufacturer,
-                serviceData,
-                flags,
-                txPower,
-                name,
-                raw,
-                scanRecord);
-    }
-
-    private static List<AdStructure> decode(byte[] data) {
-        if (data == null || data.length == 0) {
-            return null;
+        if (count == 0) {
+            return EMPTY_INDEX;
         }
-        List<AdStructure> list = new ArrayList<>();
-        int index = 0;
-
-        while (index < data.length) {
-            int len = data[index++] & 0xFF;
-            if (len == 0) break;
-            if (index >= data.length) break;
+        int[] adIndex = new int[count * INDEX_SIZE];
+        for (int i = 0, index = 0; i < count; i++) {
+            int len = data[index] & 0xFF;
+            adIndex[i * INDEX_SIZE + INDEX_TYPE] = data[index + 1] & 0xFF;
+            adIndex[i * INDEX_SIZE + INDEX_OFFSET] = index + 2;
+            adIndex[i * INDEX_SIZE + INDEX_LENGTH] = len - 1;
+            index += len + 1;
+        }
+        return adIndex;
+    }
 
-            // type
-            int type = data[index] & 0xFF;
+    private int checkIndex(int index) {
+        if (index < 0 || index >= mAdStructureCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", AD structure count: " + mAdStructureCount);
+        }
+        return index * INDEX_SIZE;
+    }
 
-            // payload
-            int payloadLen = len - 1;
-            int payloadStart = index + 1;
-            if (payloadStart + payloadLen > data.length) {
-                break;
+    /**
+     * Find the last non-empty AD structure of a type, the last one wins if a type is repeated
+     *
+     * @return index of the AD structure, or -1 if not found
+     */
+    private int find(int type) {
+        for (int i = mAdStructureCount - 1; i >= 0; i--) {
+            if (getAdType(i) == type && getAdDataLength(i) > 0) {
+                return i;
             }
-            byte[] payload = new byte[payloadLen];
-            System.arraycopy(data, payloadStart, payload, 0, payloadLen);
-
-            list.add(new AdStructure(type, payload));
-            index += len;
         }
+        return -1;
+    }
 
-        return list;
+    private byte[] copyAdData(int index, int skip) {
+        int length = getAdDataLength(index) - skip;
+        byte[] value = new byte[length];
+        System.arraycopy(mBytes, getAdDataOffset(index) + skip, value, 0, length);
+        return value;
     }
 
     /**
      * Parse uuid list
      */
-    private static void parseUuidList(byte[] data, int size, List<ParcelUuid> out) {
-        // Check size length
-        if (size != UUID_LENGTH_2 && size != UUID_LENGTH_4 && size != UUID_LENGTH_16) {
-            return;
-        }
-        // Check data and out
-        if (data == null || data.length == 0 || out == null) {
-            return;
-        }
-        try {
-            for (int i = 0; i + size <= data.length; i += size) {
-                byte[] slice = new byte[size];
-                System.arraycopy(data, i, slice, 0, size);
-                out.add(parseUuid(slice));
-            }
-        } catch (Exception e) {
-            Logger.e("Failed to parse uuid list, data=" + Arrays.toString(data));
+    private void parseUuidList(int index, int size, List<ParcelUuid> out) {
+        int offset = getAdDataOffset(index);
+        int end = offset + getAdDataLength(index);
+        for (int i = offset; i + size <= end; i += size) {
+            out.add(parseUuid(mBytes, i, size));
         }
     }
 
     /**
      * Parse service data
      */
-    private static void parseServiceData(byte[] data, int uuidLen, Map<ParcelUuid, byte[]> out) {
-        if (data == null || data.length < uuidLen || out == null) {
-            return;
-        }
-        // UUID
-        byte[] uuidBytes = new byte[uuidLen];
-        System.arraycopy(data, 0, uuidBytes, 0, uuidLen);
-        ParcelUuid uuid = parseUuid(uuidBytes);
-
+    private void parseServiceData(int index, int uuidLen, Map<ParcelUuid, byte[]> out) {
         // Data
-        int valueLen = data.length - uuidLen;
-        if (valueLen <= 0) {
+        if (getAdDataLength(index) <= uuidLen) {
             return;
         }
-        byte[] value = new byte[valueLen];
-        System.arraycopy(data, uuidLen, value, 0, valueLen);
-
-        out.put(uuid, value);
+        // UUID
+        ParcelUuid uuid = parseUuid(mBytes, getAdDataOffset(index), uuidLen);
+        out.put(uuid, copyAdData(index, uuidLen));
     }
 
     /**
      * Parse manufacturer data
      */
-    private static void parseManufacturer(byte[] data, SparseArray<byte[]> out) {
-        // Check data and out
-        if (data == null || data.length < 2 || out == null) {
+    private void parseManufacturer(int index, SparseArray<byte[]> out) {
+        if (getAdDataLength(index) <= 2) {
             return;
         }
         // Manufacturer id
-        int id = ((data[1] & 0xFF) << 8) | (data[0] & 0xFF);
+        int offset = getAdDataOffset(index);
+        int id = ((mBytes[offset + 1] & 0xFF) << 8) | (mBytes[offset] & 0xFF);
 
         // Manufacturer data
-        int valueLen = data.length - 2;
-        if (valueLen <= 0) {
-            return;
-        }
-        byte[] value = new byte[valueLen];
-        System.arraycopy(data, 2, value, 0, valueLen);
+        byte[] value = copyAdData(index, 2);
 
         // If any existing data exists, merge it
         byte[] old = out.get(id);
@@ -440,26 +480,20 @@ public class BleScanRecord implements Parcelable {
     /**
      * Parse uuid bytes
      *
-     * @param uuidBytes uuid bytes
+     * @param data   bytes containing the uuid
+     * @param offset offset of the uuid
+     * @param length uuid length, 2, 4 or 16
      * @return ParcelUuid
      */
-    private static ParcelUuid parseUuid(byte[] uuidBytes) {
-        if (uuidBytes == null) {
-            throw new IllegalArgumentException("uuidBytes is null");
-        }
-        if (uuidBytes.length != UUID_LENGTH_2 && uuidBytes.length != UUID_LENGTH_4 &&
-                uuidBytes.length != UUID_LENGTH_16) {
-            throw new IllegalArgumentException("Invalid uuidBytes length: " + uuidBytes.length);
-        }
-
-        if (uuidBytes.length == UUID_LENGTH_16) {
-            ByteBuffer buf = ByteBuffer.wrap(uuidBytes).order(ByteOrder.LITTLE_ENDIAN);
-            return new ParcelUuid(new UUID(buf.getLong(8), buf.getLong(0)));
+    private static ParcelUuid parseUuid(byte[] data, int offset, int length) {
+        if (length == UUID_LENGTH_16) {
+            ByteBuffer buf = ByteBuffer.wrap(data, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+            return new ParcelUuid(new UUID(buf.getLong(offset + 8), buf.getLong(offset)));
         }
 
         long value = 0;
-        for (int i = 0; i < uuidBytes.length; i++) {
-            value |= (long) (uuidBytes[i] & 0xFF) << (8 * i);
+        for (int i = 0; i < length; i++) {
+            value |= (long) (data[offset + i] & 0xFF) << (8 * i);
         }
 
         return new ParcelUuid(new UUID(BASE_UUID.getMostSignificantBits() + (value << 32),
@@ -509,121 +543,14 @@ public class BleScanRecord implements Parcelable {
         return build.toString();
     }
 
-    private static class AdStructure {
-        final int type;
-        final byte[] data;
-
-        AdStructure(int type, byte[] data) {
-            this.type = type;
-            this.data = data;
-        }
-    }
-
     @Override
     public void writeToParcel(Parcel dest, int flags) {
-        dest.writeInt(mAdvertiseFlags);
-        dest.writeInt(mTxPowerLevel);
-        dest.writeString(mDeviceName);
-
-        // serviceUuids
-        dest.writeTypedList(mServiceUuids);
-
-        // solicitationUuids
-        dest.writeTypedList(mServiceSolicitationUuids);
-
-        // manufacturer
-        if (mManufacturerSpecificData != null) {
-            dest.writeInt(mManufacturerSpecificData.size());
-            for (int i = 0; i < mManufacturerSpecificData.size(); i++) {
-                dest.writeInt(mManufacturerSpecificData.keyAt(i));
-                dest.writeByteArray(mManufacturerSpecificData.valueAt(i));
-            }
-        } else {
-            dest.writeInt(-1);
-        }
-
-        // serviceData
-        if (mServiceData != null) {
-            dest.writeInt(mServiceData.size());
-            for (Map.Entry<ParcelUuid, byte[]> entry : mServiceData.entrySet()) {
-                dest.writeParcelable(entry.getKey(), flags);
-                dest.writeByteArray(entry.getValue());
-            }
-        } else {
-            dest.writeInt(-1);
-        }
-
-        // raw map (Map<Integer, List<byte[]>>)
-        if (mAdvertisingDataMap != null) {
-            dest.writeInt(mAdvertisingDataMap.size());
-            for (Map.Entry<Integer, List<byte[]>> entry : mAdvertisingDataMap.entrySet()) {
-                dest.writeInt(entry.getKey());
-                List<byte[]> list = entry.getValue();
-                dest.writeInt(list.size());
-                for (byte[] arr : list) {
-                    dest.writeByteArray(arr);
-                }
-            }
-        } else {
-            dest.writeInt(-1);
-        }
-
-        // bytes
+        // Every field is decoded from the bytes, so the bytes are enough
         dest.writeByteArray(mBytes);
     }
 
     protected BleScanRecord(Parcel in) {
-        mAdvertiseFlags = in.readInt();
-        mTxPowerLevel = in.readInt();
-        mDeviceName = in.readString();
-
-        mServiceUuids = in.createTypedArrayList(ParcelUuid.CREATOR);
-        mServiceSolicitationUuids = in.createTypedArrayList(ParcelUuid.CREATOR);
-
-        // manufacturer
-        int manuSize = in.readInt();
-        if (manuSize >= 0) {
-            mManufacturerSpecificData = new SparseArray<>();
-            for (int i = 0; i < manuSize; i++) {
-                int key = in.readInt();
-                byte[] value = in.createByteArray();
-                mManufacturerSpecificData.put(key, value);
-            }
-        } else {
-            mManufacturerSpecificData = null;
-        }
-
-        // serviceData
-        int serviceSize = in.readInt();
-        if (serviceSize >= 0) {
-            mServiceData = new HashMap<>();
-            for (int i = 0; i < serviceSize; i++) {
-                ParcelUuid key = in.readParcelable(ParcelUuid.class.getClassLoader());
-                byte[] value = in.createByteArray();
-                mServiceData.put(key, value);
-            }
-        } else {
-            mServiceData = null;
-        }
-
-        // advertisingDataMap
-        int rawSize = in.readInt();
-        if (rawSize >= 0) {
-            mAdvertisingDataMap = new HashMap<>();
-            for (int i = 0; i < rawSize; i++) {
-                int key = in.readInt();
-                int listSize = in.readInt();
-                List<byte[]> list = new ArrayList<>();
-                for (int j = 0; j < listSize; j++) {
-                    list.add(in.createByteArray());
-                }
-                mAdvertisingDataMap.put(key, list);
-            }
-        } else {
-            mAdvertisingDataMap = null;
-        }
-
-        mBytes = in.createByteArray();
+        this(in.createByteArray());
     }
 
     @Override
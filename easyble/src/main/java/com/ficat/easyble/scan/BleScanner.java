@@ -37,6 +37,7 @@ public final class BleScanner implements BleScan<BleScanCallback>, BleManager.Bl
     private BleScanCallback mBleScanCallback;//all sdk version uses this scan callback
     private BluetoothLeScanner mBluetoothLeScanner;
     private List<BleScanFilter> mScanFilters;
+    private volatile ScanReportLimiter mReportLimiter;//null if every scan result is reported
     private volatile boolean mScanning;
     private final Handler mHandler;
     private final Runnable mScanTimeoutRunnable = new Runnable() {
@@ -57,7 +58,8 @@ public final class BleScanner implements BleScan<BleScanCallback>, BleManager.Bl
     }
 
     @Override
-    public void startScan(long scanPeriod, List<BleScanFilter> scanFilters, final BleScanCallback callback) {
+    public void startScan(long scanPeriod, List<BleScanFilter> scanFilters, long reportInterval,
+                          int rssiChangeThreshold, boolean reportOnPayloadChange, final BleScanCallback callback) {
         if (!BleManager.isBluetoothEnabled()) {
             callback.onScanFailed(BleErrorCodes.BLUETOOTH_OFF);
             return;
@@ -73,6 +75,8 @@ public final class BleScanner implements BleScan<BleScanCallback>, BleManager.Bl
             }
             mBleScanCallback = callback;
             mScanFilters = scanFilters;
+            mReportLimiter = ScanReportLimiter.isRequired(reportInterval, rssiChangeThreshold, reportOnPayloadChange)
+                    ? new ScanReportLimiter(reportInterval, rssiChangeThreshold, reportOnPayloadChange) : null;
             mScanning = sdkVersionLowerThan21() ? scanByOldApi() : scanByNewApi();
             if (mBleScanCallback != null) {
                 if (mScanning) {
@@ -111,6 +115,7 @@ public final class BleScanner implements BleScan<BleScanCallback>, BleManager.Bl
             // reset params
             mScanning = false;
             mScanFilters = null;
+            mReportLimiter = null;
             if (mBleScanCallback != null) {
                 if (callbackScanFinished) {
                     mBleScanCallback.onScanFinished();
@@ -148,12 +153,22 @@ public final class BleScanner implements BleScan<BleScanCallback>, BleManager.Bl
             mLeScanCallback = new BluetoothAdapter.LeScanCallback() {
                 @Override
                 public void onLeScan(final BluetoothDevice device, final int rssi, final byte[] scanRecord) {
-                    BleScanRecord bleScanRecord = BleScanRecord.parseFromBytes(scanRecord);
-                    if (!matchFilterList(device.getName(), device.getAddress(), bleScanRecord.getServiceUuids())) {
+                    ScanReportLimiter limiter = mReportLimiter;
+                    if (limiter != null && !limiter.shouldReport(device.getAddress(), rssi, scanRecord)) {
+                        return;
+                    }
+                    // Service uuids are decoded only if a filter needs them
+                    List<ParcelUuid> serviceUuids = hasServiceUuidFilter()
+                            ? BleScanRecord.parseFromBytes(scanRecord).getServiceUuids() : null;
+                    if (!matchFilterList(device.getName(), device.getAddress(), serviceUuids)) {
+                        if (limiter != null) {
+                            limiter.onReject(device.getAddress(), rssi, scanRecord);
+                        }
                         return;
                     }
                     if (mBleScanCallback != null) {
-                        BleDevice bleDevice = BleDeviceAccessor.newBleDevice(device, mAccessorKey);
+                        BleDevice bleDevice = limiter != null ? limiter.onReport(device, rssi, scanRecord, mAccessorKey)
+                                : BleDeviceAccessor.newBleDevice(device, mAccessorKey);
                         mBleScanCallback.onScanning(bleDevice, rssi, scanRecord);
                     }
                 }
@@ -185,15 +200,23 @@ public final class BleScanner implements BleScan<BleScanCallback>, BleManager.Bl
                     super.onScanResult(callbackType, result);
                     ScanRecord scanRecord = result.getScanRecord();
                     BluetoothDevice device = result.getDevice();
+                    byte[] scanBytes = scanRecord == null ? new byte[]{} : scanRecord.getBytes();
+                    ScanReportLimiter limiter = mReportLimiter;
+                    if (limiter != null && !limiter.shouldReport(device.getAddress(), result.getRssi(), scanBytes)) {
+                        return;
+                    }
                     if (!matchFilterList(device.getName(), device.getAddress(),
                             scanRecord == null ? null : scanRecord.getServiceUuids())) {
+                        if (limiter != null) {
+                            limiter.onReject(device.getAddress(), result.getRssi(), scanBytes);
+                        }
                         return;
                     }
                     if (mBleScanCallback == null) {
                         return;
                     }
-                    byte[] scanBytes = (result.getScanRecord() == null) ? new byte[]{} : result.getScanRecord().getBytes();
-                    BleDevice bleDevice = BleDeviceAccessor.newBleDevice(result.getDevice(), mAccessorKey);
+                    BleDevice bleDevice = limiter != null ? limiter.onReport(device, result.getRssi(), scanBytes, mAccessorKey)
+                            : BleDeviceAccessor.newBleDevice(device, mAccessorKey);
                     mBleScanCallback.onScanning(bleDevice, result.getRssi(), scanBytes);
                 }
 
@@ -349,6 +372,19 @@ public final class BleScanner implements BleScan<BleScanCallback>, BleManager.Bl
         return false;
     }
 
+    private boolean hasServiceUuidFilter() {
+        List<BleScanFilter> scanFilters = mScanFilters;
+        if (scanFilters == null) {
+            return false;
+        }
+        for (BleScanFilter filter : scanFilters) {
+            if (filter.getServiceUuid() != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean sdkVersionLowerThan21() {
         return Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP;
     }
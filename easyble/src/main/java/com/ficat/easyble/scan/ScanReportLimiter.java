@@ -0,0 +1,98 @@
+package com.ficat.easyble.scan;
+
+import android.bluetooth.BluetoothDevice;
+import android.os.SystemClock;
+
+import com.ficat.easyble.BleDevice;
+import com.ficat.easyble.BleDeviceAccessor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * De-duplicates the scan results of a scan by device address, see
+ * {@link com.ficat.easyble.BleManager.ScanOptions#reportInterval(long)}.
+ * <p>
+ * It remembers the last report of every device, so a dropped scan result costs a map lookup
+ * only, and the {@link BleDevice} of a device is created once per scan. Scan results rejected
+ * by the scan filters are remembered as well, so the packets of a device that does not match
+ * are dropped by the same lookup rather than being parsed and filtered again.
+ * </p>
+ */
+final class ScanReportLimiter {
+    private final long mReportInterval;
+    private final int mRssiChangeThreshold;
+    private final boolean mReportOnPayloadChange;
+    private final Map<String, Report> mReports = new HashMap<>();
+
+    private static final class Report {
+        // Null if the last scan result of the device was rejected by the scan filters
+        BleDevice mDevice;
+        long mTime;
+        int mRssi;
+        byte[] mScanRecord;
+    }
+
+    ScanReportLimiter(long reportInterval, int rssiChangeThreshold, boolean reportOnPayloadChange) {
+        this.mReportInterval = reportInterval;
+        this.mRssiChangeThreshold = rssiChangeThreshold;
+        this.mReportOnPayloadChange = reportOnPayloadChange;
+    }
+
+    static boolean isRequired(long reportInterval, int rssiChangeThreshold, boolean reportOnPayloadChange) {
+        return reportInterval > 0 || rssiChangeThreshold > 0 || reportOnPayloadChange;
+    }
+
+    /**
+     * Check if a scan result should be reported, it's called before the scan result is
+     * parsed and filtered
+     */
+    synchronized boolean shouldReport(String address, int rssi, byte[] scanRecord) {
+        Report report = mReports.get(address);
+        if (report == null) {
+            return true;
+        }
+        if (mReportInterval > 0 && SystemClock.elapsedRealtime() - report.mTime >= mReportInterval) {
+            return true;
+        }
+        if (mRssiChangeThreshold > 0 && Math.abs(rssi - report.mRssi) >= mRssiChangeThreshold) {
+            return true;
+        }
+        return mReportOnPayloadChange && !Arrays.equals(scanRecord, report.mScanRecord);
+    }
+
+    /**
+     * Record a scan result that is going to be reported
+     *
+     * @return the BleDevice to report
+     */
+    synchronized BleDevice onReport(BluetoothDevice device, int rssi, byte[] scanRecord, Object accessKey) {
+        Report report = record(device.getAddress(), rssi, scanRecord);
+        if (report.mDevice == null) {
+            report.mDevice = BleDeviceAccessor.newBleDevice(device, accessKey);
+        }
+        return report.mDevice;
+    }
+
+    /**
+     * Record a scan result that is rejected by the scan filters, later scan results of the
+     * device are dropped by {@link #shouldReport(String, int, byte[])} until they are due to
+     * be filtered again
+     */
+    synchronized void onReject(String address, int rssi, byte[] scanRecord) {
+        record(address, rssi, scanRecord);
+    }
+
+    private Report record(String address, int rssi, byte[] scanRecord) {
+        Report report = mReports.get(address);
+        if (report == null) {
+            report = new Report();
+            mReports.put(address, report);
+        }
+        report.mTime = SystemClock.elapsedRealtime();
+        report.mRssi = rssi;
+        report.mScanRecord = scanRecord;
+        return report;
+    }
+}
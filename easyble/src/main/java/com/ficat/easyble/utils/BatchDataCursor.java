@@ -0,0 +1,194 @@
+package com.ficat.easyble.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * A lazy cursor used to split data into batches.
+ * <p>
+ * Unlike {@link BleDataUtils#getBatchData(byte[], int)}, it does not copy the whole data into
+ * batches up front, it just keeps a view over the original data and copies one batch at a time
+ * into a reusable buffer, so the returned batch is only valid until the next call to
+ * {@link #next(int)}.
+ * </p>
+ * <p>
+ * Data can also be pulled from an {@link InputStream} or a {@link ReadableByteChannel}
+ * incrementally, in this case only a small read-ahead window is kept in memory. Note that
+ * the cursor never closes the stream or the channel.
+ * </p>
+ * <p>
+ * Reading a stream or a channel may block, so EasyBle only reads such a cursor on its worker
+ * thread, see {@link #isStreaming()}. The channel must be blocking, a read that returns no
+ * data fails the cursor with an {@link IOException} rather than spinning.
+ * </p>
+ */
+public final class BatchDataCursor {
+    private static final int READ_AHEAD_SIZE = 4 * 1024;
+
+    private final byte[] mArray; // The original array if the cursor wraps a whole array
+    private final ByteBuffer mData; // All data, or the read-ahead window of the channel
+    private final ReadableByteChannel mChannel; // Null if all data is in memory
+    private final int mLength;
+    private int mPosition;
+    private int mReadLength; // The length of data that has been read from the channel
+    private byte[] mBuffer; // Reusable buffer for full batches
+
+    public BatchDataCursor(byte[] data) {
+        this(data, 0, data == null ? 0 : data.length);
+    }
+
+    public BatchDataCursor(byte[] data, int offset, int length) {
+        if (data == null) {
+            throw new IllegalArgumentException("Data is null");
+        }
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IllegalArgumentException("Invalid offset=" + offset + " or length=" + length);
+        }
+        this.mArray = (offset == 0 && length == data.length) ? data : null;
+        this.mData = ByteBuffer.wrap(data, offset, length);
+        this.mChannel = null;
+        this.mLength = length;
+    }
+
+    /**
+     * Wrap a buffer, like a {@link java.nio.MappedByteBuffer} mapped from a file region. The
+     * position and limit of the original buffer will not be changed.
+     */
+    public BatchDataCursor(ByteBuffer data) {
+        if (data == null) {
+            throw new IllegalArgumentException("Data is null");
+        }
+        this.mArray = null;
+        this.mData = data.duplicate();
+        this.mChannel = null;
+        this.mLength = mData.remaining();
+    }
+
+    /**
+     * Pull data from an input stream
+     *
+     * @param in     input stream
+     * @param length the length of data to read from the input stream
+     */
+    public BatchDataCursor(InputStream in, int length) {
+        this(in == null ? null : Channels.newChannel(in), length);
+    }
+
+    /**
+     * Pull data from a channel
+     *
+     * @param channel blocking channel
+     * @param length  the length of data to read from the channel
+     */
+    public BatchDataCursor(ReadableByteChannel channel, int length) {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel is null");
+        }
+        if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+            throw new IllegalArgumentException("Non-blocking channel is not supported");
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid length=" + length);
+        }
+        this.mArray = null;
+        this.mData = ByteBuffer.allocate(Math.min(READ_AHEAD_SIZE, Math.max(length, 1)));
+        this.mData.flip();
+        this.mChannel = channel;
+        this.mLength = length;
+    }
+
+    /**
+     * Get the original array
+     *
+     * @return the original array, or null if the cursor does not wrap a whole array
+     */
+    public byte[] array() {
+        return mArray;
+    }
+
+    /**
+     * Total data length
+     */
+    public int length() {
+        return mLength;
+    }
+
+    /**
+     * The length of data that has been taken by {@link #next(int)}
+     */
+    public int position() {
+        return mPosition;
+    }
+
+    public boolean hasRemaining() {
+        return mPosition < mLength;
+    }
+
+    /**
+     * Whether data is pulled from a stream or a channel, reading it may block
+     */
+    public boolean isStreaming() {
+        return mChannel != null;
+    }
+
+    /**
+     * Get the next batch
+     *
+     * @param maxLength max length of the batch
+     * @return the next batch whose length is not greater than maxLength, or null if there is
+     * no data remaining. Note that the returned array may be reused by the next call.
+     * @throws IOException if failed to read the stream or the channel
+     */
+    public byte[] next(int maxLength) throws IOException {
+        int len = Math.min(maxLength, mLength - mPosition);
+        if (len <= 0) {
+            return null;
+        }
+        byte[] batch;
+        if (mBuffer != null && mBuffer.length == len) {
+            batch = mBuffer;
+        } else {
+            batch = new byte[len];
+            // Only full batches are worth reusing, the last one is usually shorter
+            if (len == maxLength) {
+                mBuffer = batch;
+            }
+        }
+        int filled = 0;
+        while (filled < len) {
+            if (!mData.hasRemaining()) {
+                readAhead();
+            }
+            int n = Math.min(len - filled, mData.remaining());
+            mData.get(batch, filled, n);
+            filled += n;
+        }
+        mPosition += len;
+        return batch;
+    }
+
+    private void readAhead() throws IOException {
+        if (mChannel == null) {
+            throw new EOFException("No data remaining");
+        }
+        // Do not read more than the length we need
+        int unread = mLength - mReadLength;
+        mData.clear();
+        mData.limit(Math.min(mData.capacity(), unread));
+        int n = mChannel.read(mData);
+        if (n < 0) {
+            throw new EOFException("Unexpected end of data, " + unread + " bytes expected");
+        }
+        if (n == 0) {
+            // A blocking channel always reads at least one byte into a non-empty buffer
+            throw new IOException("No data read from the channel, it may be non-blocking");
+        }
+        mReadLength += mData.position();
+        mData.flip();
+    }
+}
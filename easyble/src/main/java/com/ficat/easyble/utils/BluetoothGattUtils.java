@@ -12,6 +12,10 @@ public class BluetoothGattUtils {
                 BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE)) > 0;
     }
 
+    public static boolean isCharacteristicWritableWithoutResponse(BluetoothGattCharacteristic characteristic) {
+        return characteristic != null && (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) > 0;
+    }
+
     public static boolean isCharacteristicNotifiable(BluetoothGattCharacteristic characteristic) {
         return characteristic != null && (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) > 0;
     }
@@ -0,0 +1,82 @@
+package com.ficat.easyble.utils;
+
+/**
+ * Decodes COBS (Consistent Overhead Byte Stuffing) frames delimited by 0x00. Emitted frames
+ * are decoded, and empty frames are skipped.
+ * <p>
+ * A frame that is not valid COBS or longer than the max frame length is discarded up to the
+ * next 0x00.
+ * </p>
+ */
+public final class CobsFrameDecoder extends FrameDecoder {
+    private boolean mDiscarding;
+
+    /**
+     * @param maxFrameLength max length of an encoded frame, excluding the 0x00 delimiter.
+     *                       An encoded frame is one byte longer than the decoded one for every
+     *                       254 bytes, plus one
+     */
+    public CobsFrameDecoder(int maxFrameLength) {
+        super(maxFrameLength);
+    }
+
+    @Override
+    public void decode(byte[] data, FrameOutput out) {
+        for (byte b : data) {
+            if (b == 0) {
+                if (!mDiscarding && bufferLength() > 0) {
+                    int length = decodeInPlace();
+                    if (length > 0) {
+                        out.onFrame(buffer(), 0, length);
+                    } else if (length < 0) {
+                        Logger.w("Invalid COBS frame, discard it");
+                    }
+                }
+                reset();
+                continue;
+            }
+            if (mDiscarding) {
+                continue;
+            }
+            if (!append(b)) {
+                Logger.w("Frame is longer than " + getMaxFrameLength() + " bytes, discard it");
+                clearBuffer();
+                mDiscarding = true;
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mDiscarding = false;
+    }
+
+    /**
+     * Decode the pending bytes in place, the decoded bytes are always behind the encoded ones
+     * being read, so no extra buffer is needed
+     *
+     * @return decoded length, or -1 if the frame is invalid
+     */
+    private int decodeInPlace() {
+        byte[] buffer = buffer();
+        int length = bufferLength();
+        int read = 0;
+        int write = 0;
+        while (read < length) {
+            int code = buffer[read++] & 0xFF;
+            if (read + code - 1 > length) {
+                return -1;
+            }
+            for (int i = 1; i < code; i++) {
+                buffer[write++] = buffer[read++];
+            }
+            // A code less than 0xFF is followed by a zero, except the one of the last block
+            if (code < 0xFF && read < length) {
+                buffer[write++] = 0;
+            }
+        }
+        setBufferLength(write);
+        return write;
+    }
+}
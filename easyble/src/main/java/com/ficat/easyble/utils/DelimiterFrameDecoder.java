@@ -0,0 +1,109 @@
+package com.ficat.easyble.utils;
+
+/**
+ * Splits frames by a delimiter, like "\r\n" for text lines. The delimiter is not included in
+ * emitted frames, and empty frames are skipped.
+ * <p>
+ * If a frame is longer than the max frame length, it's discarded up to the next delimiter.
+ * </p>
+ */
+public final class DelimiterFrameDecoder extends FrameDecoder {
+    private final byte[] mDelimiter;
+    private boolean mDiscarding;
+    private int mDiscardMatched; // The number of delimiter bytes matched while discarding
+
+    /**
+     * @param maxFrameLength max length of a frame, including the delimiter
+     * @param delimiter      delimiter bytes
+     */
+    public DelimiterFrameDecoder(int maxFrameLength, byte... delimiter) {
+        super(maxFrameLength);
+        if (delimiter == null || delimiter.length == 0) {
+            throw new IllegalArgumentException("Delimiter is empty");
+        }
+        if (delimiter.length >= maxFrameLength) {
+            throw new IllegalArgumentException("Delimiter must be shorter than max frame length");
+        }
+        this.mDelimiter = delimiter.clone();
+    }
+
+    @Override
+    public void decode(byte[] data, FrameOutput out) {
+        for (byte b : data) {
+            if (mDiscarding) {
+                skip(b);
+                continue;
+            }
+            if (!append(b)) {
+                Logger.w("Frame is longer than " + getMaxFrameLength() + " bytes, discard it");
+                // The buffer may end with a part of the delimiter, e.g. "\r" of "\r\n", carry
+                // it over so that the delimiter completed by this byte is not missed
+                mDiscardMatched = tailDelimiterMatch();
+                clearBuffer();
+                mDiscarding = true;
+                skip(b);
+                continue;
+            }
+            if (endsWithDelimiter()) {
+                int length = bufferLength() - mDelimiter.length;
+                if (length > 0) {
+                    out.onFrame(buffer(), 0, length);
+                }
+                clearBuffer();
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mDiscarding = false;
+        mDiscardMatched = 0;
+    }
+
+    private void skip(byte b) {
+        if (b == mDelimiter[mDiscardMatched]) {
+            mDiscardMatched++;
+        } else {
+            mDiscardMatched = b == mDelimiter[0] ? 1 : 0;
+        }
+        if (mDiscardMatched == mDelimiter.length) {
+            mDiscarding = false;
+            mDiscardMatched = 0;
+        }
+    }
+
+    /**
+     * The length of the longest buffer tail that is also a prefix of the delimiter
+     */
+    private int tailDelimiterMatch() {
+        int length = bufferLength();
+        byte[] buffer = buffer();
+        for (int matched = Math.min(length, mDelimiter.length - 1); matched > 0; matched--) {
+            int start = length - matched;
+            int i = 0;
+            while (i < matched && buffer[start + i] == mDelimiter[i]) {
+                i++;
+            }
+            if (i == matched) {
+                return matched;
+            }
+        }
+        return 0;
+    }
+
+    private boolean endsWithDelimiter() {
+        int length = bufferLength();
+        if (length < mDelimiter.length) {
+            return false;
+        }
+        byte[] buffer = buffer();
+        int start = length - mDelimiter.length;
+        for (int i = 0; i < mDelimiter.length; i++) {
+            if (buffer[start + i] != mDelimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,148 @@
+package com.ficat.easyble.utils;
+
+/**
+ * Reassembles frames that the remote device splits across several notifications, it's the
+ * receiving counterpart of {@link BatchDataCursor}.
+ * <p>
+ * A decoder is fed with every notification in arrival order and emits each complete frame
+ * to a {@link FrameOutput}. It keeps the incomplete part of a frame in a reusable buffer, so
+ * it's stateful: use one decoder per characteristic and do not share it between
+ * subscriptions. It's always called on one thread at a time.
+ * </p>
+ * Implement it to support a custom framing, the buffer helpers of this class keep the
+ * pending bytes without any allocation once the buffer has grown to the largest frame.
+ */
+public abstract class FrameDecoder {
+    private static final int INITIAL_BUFFER_SIZE = 64;
+
+    private final int mMaxFrameLength;
+    private byte[] mBuffer;
+    private int mLength;
+
+    /**
+     * Receives frames emitted by a {@link FrameDecoder}
+     */
+    public interface FrameOutput {
+        /**
+         * A complete frame has been decoded, the buffer is reused once this method returns,
+         * so copy the frame if it's needed later
+         *
+         * @param buffer buffer containing the frame
+         * @param offset offset of the frame in the buffer
+         * @param length length of the frame
+         */
+        void onFrame(byte[] buffer, int offset, int length);
+    }
+
+    /**
+     * @param maxFrameLength max number of pending bytes of a frame, see the subclass for what
+     *                       it covers. Bytes of a longer frame are discarded
+     */
+    protected FrameDecoder(int maxFrameLength) {
+        if (maxFrameLength <= 0) {
+            throw new IllegalArgumentException("Max frame length must be greater than 0");
+        }
+        this.mMaxFrameLength = maxFrameLength;
+        this.mBuffer = new byte[Math.min(maxFrameLength, INITIAL_BUFFER_SIZE)];
+    }
+
+    /**
+     * Decode the data of a notification
+     *
+     * @param data received data
+     * @param out  output of the complete frames
+     */
+    public abstract void decode(byte[] data, FrameOutput out);
+
+    /**
+     * Discard the pending bytes and any decoding state, it's called before the decoder is
+     * used for a new subscription
+     */
+    public void reset() {
+        clearBuffer();
+    }
+
+    public int getMaxFrameLength() {
+        return mMaxFrameLength;
+    }
+
+    /**
+     * Append a byte to the pending bytes
+     *
+     * @return false if the pending bytes would exceed the max frame length, in this case
+     * the byte is not appended
+     */
+    protected final boolean append(byte b) {
+        if (mLength >= mMaxFrameLength) {
+            return false;
+        }
+        ensureCapacity(mLength + 1);
+        mBuffer[mLength++] = b;
+        return true;
+    }
+
+    /**
+     * Append bytes to the pending bytes, the caller should make sure that they don't exceed
+     * the max frame length, otherwise only the part that fits is appended
+     *
+     * @return the number of bytes appended
+     */
+    protected final int append(byte[] src, int offset, int length) {
+        int count = Math.min(length, mMaxFrameLength - mLength);
+        if (count <= 0) {
+            return 0;
+        }
+        ensureCapacity(mLength + count);
+        System.arraycopy(src, offset, mBuffer, mLength, count);
+        mLength += count;
+        return count;
+    }
+
+    /**
+     * Remove the first bytes of the pending bytes, the rest is moved to the start of the buffer
+     */
+    protected final void discard(int count) {
+        if (count >= mLength) {
+            mLength = 0;
+            return;
+        }
+        System.arraycopy(mBuffer, count, mBuffer, 0, mLength - count);
+        mLength -= count;
+    }
+
+    protected final void clearBuffer() {
+        mLength = 0;
+    }
+
+    /**
+     * Get the buffer of the pending bytes, the pending bytes start at index 0
+     */
+    protected final byte[] buffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Get the number of pending bytes
+     */
+    protected final int bufferLength() {
+        return mLength;
+    }
+
+    /**
+     * Replace the pending bytes in place, e.g. after they have been unescaped, the length
+     * must not be greater than the current length
+     */
+    protected final void setBufferLength(int length) {
+        mLength = length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mBuffer.length) {
+            return;
+        }
+        int newSize = Math.min(Math.max(mBuffer.length * 2, capacity), mMaxFrameLength);
+        byte[] newBuffer = new byte[newSize];
+        System.arraycopy(mBuffer, 0, newBuffer, 0, mLength);
+        mBuffer = newBuffer;
+    }
+}
@@ -0,0 +1,111 @@
+package com.ficat.easyble.utils;
+
+import java.nio.ByteOrder;
+
+/**
+ * Splits frames by a length field in their header, it also covers most custom headers.
+ * <p>
+ * The frame length is lengthFieldOffset + lengthFieldLength + value of the length field +
+ * lengthAdjustment. For example, a frame of a 1-byte type, a 2-byte payload length and the
+ * payload is decoded by new LengthFieldFrameDecoder(512, 1, 2), and if the length field
+ * counts the whole frame instead of the payload, lengthAdjustment is -3.
+ * </p>
+ * A frame whose length is invalid or greater than the max frame length can not be skipped
+ * reliably, so all pending bytes are discarded, and decoding continues with the rest of the
+ * current notification, whose next byte is taken as the start of a new frame.
+ */
+public final class LengthFieldFrameDecoder extends FrameDecoder {
+    private final int mLengthFieldOffset;
+    private final int mLengthFieldLength;
+    private final int mLengthAdjustment;
+    private final int mInitialBytesToStrip;
+    private final boolean mBigEndian;
+
+    /**
+     * @param maxFrameLength    max length of a frame, including its header
+     * @param lengthFieldOffset offset of the length field in the frame
+     * @param lengthFieldLength length of the length field, 1, 2, 3 or 4 bytes in big-endian
+     */
+    public LengthFieldFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength) {
+        this(maxFrameLength, lengthFieldOffset, lengthFieldLength, 0, 0, ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * @param maxFrameLength      max length of a frame, including its header
+     * @param lengthFieldOffset   offset of the length field in the frame
+     * @param lengthFieldLength   length of the length field, 1, 2, 3 or 4 bytes
+     * @param lengthAdjustment    the value added to the length field to get the length of the
+     *                            rest of the frame after the length field
+     * @param initialBytesToStrip the number of leading bytes removed from an emitted frame,
+     *                            e.g. the header length to emit the payload only
+     * @param byteOrder           byte order of the length field
+     */
+    public LengthFieldFrameDecoder(int maxFrameLength, int lengthFieldOffset, int lengthFieldLength,
+                                   int lengthAdjustment, int initialBytesToStrip, ByteOrder byteOrder) {
+        super(maxFrameLength);
+        if (lengthFieldLength < 1 || lengthFieldLength > 4) {
+            throw new IllegalArgumentException("Length field length must be 1, 2, 3 or 4");
+        }
+        if (lengthFieldOffset < 0 || lengthFieldOffset + lengthFieldLength > maxFrameLength) {
+            throw new IllegalArgumentException("Invalid length field offset=" + lengthFieldOffset);
+        }
+        if (initialBytesToStrip < 0) {
+            throw new IllegalArgumentException("Initial bytes to strip must not be negative");
+        }
+        if (byteOrder == null) {
+            throw new IllegalArgumentException("Byte order is null");
+        }
+        this.mLengthFieldOffset = lengthFieldOffset;
+        this.mLengthFieldLength = lengthFieldLength;
+        this.mLengthAdjustment = lengthAdjustment;
+        this.mInitialBytesToStrip = initialBytesToStrip;
+        this.mBigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+    }
+
+    @Override
+    public void decode(byte[] data, FrameOutput out) {
+        int offset = 0;
+        while (offset < data.length) {
+            offset += append(data, offset, data.length - offset);
+            // Once the pending bytes reach the max frame length, at least one frame is
+            // complete or the pending bytes are discarded, so this loop always advances
+            while (decodeFrame(out)) {
+                // Emit all complete frames
+            }
+        }
+    }
+
+    private boolean decodeFrame(FrameOutput out) {
+        int headerLength = mLengthFieldOffset + mLengthFieldLength;
+        if (bufferLength() < headerLength) {
+            return false;
+        }
+        long frameLength = headerLength + readLengthField() + mLengthAdjustment;
+        if (frameLength < headerLength || frameLength > getMaxFrameLength() ||
+                frameLength < mInitialBytesToStrip) {
+            Logger.w("Invalid frame length " + frameLength + ", discard pending bytes");
+            clearBuffer();
+            return false;
+        }
+        if (bufferLength() < frameLength) {
+            return false;
+        }
+        out.onFrame(buffer(), mInitialBytesToStrip, (int) frameLength - mInitialBytesToStrip);
+        discard((int) frameLength);
+        return true;
+    }
+
+    private long readLengthField() {
+        byte[] buffer = buffer();
+        long value = 0;
+        for (int i = 0; i < mLengthFieldLength; i++) {
+            int b = buffer[mLengthFieldOffset + i] & 0xFF;
+            if (mBigEndian) {
+                value = (value << 8) | b;
+            } else {
+                value |= (long) b << (8 * i);
+            }
+        }
+        return value;
+    }
+}
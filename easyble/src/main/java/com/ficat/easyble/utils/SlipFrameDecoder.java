@@ -0,0 +1,76 @@
+package com.ficat.easyble.utils;
+
+/**
+ * Decodes SLIP (RFC 1055) frames. Frames end with END (0xC0), END and ESC (0xDB) in a frame
+ * are escaped as ESC ESC_END (0xDC) and ESC ESC_ESC (0xDD). Emitted frames are unescaped,
+ * and empty frames are skipped.
+ * <p>
+ * A frame with an invalid escape sequence or longer than the max frame length is discarded
+ * up to the next END.
+ * </p>
+ */
+public final class SlipFrameDecoder extends FrameDecoder {
+    private static final byte END = (byte) 0xC0;
+    private static final byte ESC = (byte) 0xDB;
+    private static final byte ESC_END = (byte) 0xDC;
+    private static final byte ESC_ESC = (byte) 0xDD;
+
+    private boolean mEscaping;
+    private boolean mDiscarding;
+
+    /**
+     * @param maxFrameLength max length of an unescaped frame
+     */
+    public SlipFrameDecoder(int maxFrameLength) {
+        super(maxFrameLength);
+    }
+
+    @Override
+    public void decode(byte[] data, FrameOutput out) {
+        for (byte b : data) {
+            if (b == END) {
+                if (!mDiscarding && !mEscaping && bufferLength() > 0) {
+                    out.onFrame(buffer(), 0, bufferLength());
+                }
+                reset();
+                continue;
+            }
+            if (mDiscarding) {
+                continue;
+            }
+            byte value = b;
+            if (mEscaping) {
+                mEscaping = false;
+                if (b == ESC_END) {
+                    value = END;
+                } else if (b == ESC_ESC) {
+                    value = ESC;
+                } else {
+                    Logger.w("Invalid SLIP escape sequence, discard the frame");
+                    discardFrame();
+                    continue;
+                }
+            } else if (b == ESC) {
+                mEscaping = true;
+                continue;
+            }
+            if (!append(value)) {
+                Logger.w("Frame is longer than " + getMaxFrameLength() + " bytes, discard it");
+                discardFrame();
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        mEscaping = false;
+        mDiscarding = false;
+    }
+
+    private void discardFrame() {
+        clearBuffer();
+        mEscaping = false;
+        mDiscarding = true;
+    }
+}
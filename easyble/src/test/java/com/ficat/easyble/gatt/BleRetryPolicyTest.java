@@ -0,0 +1,88 @@
+package com.ficat.easyble.gatt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BleRetryPolicyTest {
+    private static final int SAMPLES = 10000;
+
+    @Test
+    public void fixed_returnsSameDelay() {
+        BleRetryPolicy policy = new BleRetryPolicy.Fixed(300);
+
+        assertEquals(300, policy.getRetryDelay(1, 0));
+        assertEquals(300, policy.getRetryDelay(5, 300));
+    }
+
+    @Test
+    public void exponential_doublesUpToCap() {
+        BleRetryPolicy policy = new BleRetryPolicy.Exponential(100, 1000, false);
+
+        assertEquals(100, policy.getRetryDelay(1, 0));
+        assertEquals(200, policy.getRetryDelay(2, 100));
+        assertEquals(400, policy.getRetryDelay(3, 200));
+        assertEquals(800, policy.getRetryDelay(4, 400));
+        assertEquals(1000, policy.getRetryDelay(5, 800));
+        assertEquals(1000, policy.getRetryDelay(100, 1000));
+        assertEquals(1000, policy.getRetryDelay(Integer.MAX_VALUE, 1000));
+    }
+
+    @Test
+    public void exponential_clampsOverflow() {
+        // From the 22nd retry, the shift pushes bits into the sign bit and beyond
+        long initial = 5L << 40;
+        BleRetryPolicy policy = new BleRetryPolicy.Exponential(initial, Long.MAX_VALUE, false);
+
+        assertEquals(initial << 20, policy.getRetryDelay(21, 0));
+        assertEquals(Long.MAX_VALUE, policy.getRetryDelay(22, 0));
+        assertEquals(Long.MAX_VALUE, policy.getRetryDelay(23, 0));
+        assertEquals(Long.MAX_VALUE, policy.getRetryDelay(31, 0));
+    }
+
+    @Test
+    public void exponential_jitterWithinHalfAndFullDelay() {
+        BleRetryPolicy policy = new BleRetryPolicy.Exponential(100, 1000, true);
+
+        for (int retry = 1; retry <= 6; retry++) {
+            long delay = Math.min(100L << (retry - 1), 1000);
+            for (int i = 0; i < SAMPLES; i++) {
+                long jittered = policy.getRetryDelay(retry, 0);
+                assertTrue(jittered + " for retry " + retry, jittered >= delay / 2 && jittered <= delay);
+            }
+        }
+    }
+
+    @Test
+    public void decorrelatedJitter_withinBaseAndThreeTimesPrevious() {
+        BleRetryPolicy policy = new BleRetryPolicy.DecorrelatedJitter(100, 1000);
+
+        long previous = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            long upper = Math.min(Math.max(previous, 100) * 3, 1000);
+            long delay = policy.getRetryDelay(i + 1, previous);
+            assertTrue(delay + " after " + previous, delay >= 100 && delay <= upper);
+            previous = delay;
+        }
+    }
+
+    @Test
+    public void decorrelatedJitter_largePreviousDelayDoesNotOverflow() {
+        BleRetryPolicy policy = new BleRetryPolicy.DecorrelatedJitter(100, Long.MAX_VALUE);
+
+        for (int i = 0; i < SAMPLES; i++) {
+            assertTrue(policy.getRetryDelay(2, Long.MAX_VALUE / 2) >= 100);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void exponential_rejectsCapLessThanInitialDelay() {
+        new BleRetryPolicy.Exponential(1000, 100, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decorrelatedJitter_rejectsNonPositiveBaseDelay() {
+        new BleRetryPolicy.DecorrelatedJitter(0, 100);
+    }
+}
@@ -0,0 +1,165 @@
+package com.ficat.easyble.gatt;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationRingBufferTest {
+
+    @Test
+    public void constructor_roundsCapacityUpToPowerOfTwo() {
+        assertEquals(16, new NotificationRingBuffer(16).capacity());
+        assertEquals(32, new NotificationRingBuffer(17).capacity());
+        assertEquals(1, new NotificationRingBuffer(1).capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsNonPositiveCapacity() {
+        new NotificationRingBuffer(0);
+    }
+
+    @Test
+    public void poll_emptyBuffer() {
+        NotificationRingBuffer buffer = new NotificationRingBuffer(16);
+
+        assertTrue(buffer.isEmpty());
+        assertEquals(-1, buffer.nextLength());
+        assertEquals(-1, buffer.poll(new byte[16]));
+    }
+
+    @Test
+    public void offer_keepsOrderAndEmptyNotifications() {
+        NotificationRingBuffer buffer = new NotificationRingBuffer(32);
+        byte[] dst = new byte[16];
+
+        assertTrue(buffer.offer(bytes(1, 3)));
+        assertTrue(buffer.offer(new byte[0]));
+        assertTrue(buffer.offer(null));
+        assertTrue(buffer.offer(bytes(10, 1)));
+
+        assertEquals(3, buffer.nextLength());
+        assertEquals(3, buffer.poll(dst));
+        assertArrayEquals(bytes(1, 3), Arrays.copyOf(dst, 3));
+        assertEquals(0, buffer.poll(dst));
+        assertEquals(0, buffer.poll(dst));
+        assertEquals(1, buffer.poll(dst));
+        assertEquals(10, dst[0]);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void offer_wrapsRecordsAcrossBufferEnd() {
+        NotificationRingBuffer buffer = new NotificationRingBuffer(16);
+        byte[] dst = new byte[16];
+
+        // Move the positions to 11, so the next payload wraps at the end of the buffer
+        assertTrue(buffer.offer(bytes(0, 9)));
+        assertEquals(9, buffer.poll(dst));
+        assertTrue(buffer.offer(bytes(20, 8)));
+        assertEquals(8, buffer.poll(dst));
+        assertArrayEquals(bytes(20, 8), Arrays.copyOf(dst, 8));
+
+        // Walk the positions from 21 to 47, so the next header is split at the end
+        assertTrue(buffer.offer(bytes(40, 9)));
+        assertEquals(9, buffer.poll(dst));
+        assertArrayEquals(bytes(40, 9), Arrays.copyOf(dst, 9));
+        assertTrue(buffer.offer(bytes(60, 13)));
+        assertEquals(13, buffer.poll(dst));
+        assertTrue(buffer.offer(bytes(80, 5)));
+        assertEquals(5, buffer.nextLength());
+        assertEquals(5, buffer.poll(dst));
+        assertArrayEquals(bytes(80, 5), Arrays.copyOf(dst, 5));
+        assertEquals(0, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void offer_dropsWhenFull() {
+        NotificationRingBuffer buffer = new NotificationRingBuffer(16);
+        byte[] dst = new byte[16];
+
+        assertTrue(buffer.offer(bytes(0, 6)));   // 8 bytes
+        assertTrue(buffer.offer(bytes(10, 5)));  // 7 bytes, 1 byte left
+        assertFalse(buffer.offer(new byte[0]));  // needs 2 bytes
+        assertFalse(buffer.offer(bytes(20, 1)));
+        assertEquals(2, buffer.getDroppedCount());
+
+        // Polling frees the space of the oldest record, the new record wraps around the end
+        assertEquals(6, buffer.poll(dst));
+        assertTrue(buffer.offer(bytes(30, 7)));  // 9 bytes, the buffer is full now
+        assertFalse(buffer.offer(null));
+        assertEquals(3, buffer.getDroppedCount());
+
+        assertEquals(5, buffer.poll(dst));
+        assertArrayEquals(bytes(10, 5), Arrays.copyOf(dst, 5));
+        assertEquals(7, buffer.poll(dst));
+        assertArrayEquals(bytes(30, 7), Arrays.copyOf(dst, 7));
+        assertTrue(buffer.isEmpty());
+        assertEquals(3, buffer.getDroppedCount());
+    }
+
+    @Test
+    public void offer_dropsRecordLargerThanBuffer() {
+        NotificationRingBuffer buffer = new NotificationRingBuffer(16);
+
+        assertFalse(buffer.offer(new byte[15]));
+        assertEquals(1, buffer.getDroppedCount());
+        assertTrue(buffer.offer(new byte[14]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void poll_rejectsSmallDestination() {
+        NotificationRingBuffer buffer = new NotificationRingBuffer(16);
+
+        buffer.offer(bytes(0, 4));
+        buffer.poll(new byte[3]);
+    }
+
+    @Test
+    public void offerAndPoll_concurrentProducerAndConsumer() throws Exception {
+        final NotificationRingBuffer buffer = new NotificationRingBuffer(64);
+        final int count = 200000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++) {
+                    // Notifications of 1 to 7 bytes, every byte is the low byte of the sequence
+                    byte[] data = new byte[1 + i % 7];
+                    Arrays.fill(data, (byte) i);
+                    while (!buffer.offer(data)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        byte[] dst = new byte[8];
+        for (int i = 0; i < count; ) {
+            int length = buffer.poll(dst);
+            if (length < 0) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(1 + i % 7, length);
+            for (int j = 0; j < length; j++) {
+                assertEquals((byte) i, dst[j]);
+            }
+            i++;
+        }
+        producer.join();
+        assertTrue(buffer.isEmpty());
+    }
+
+    private static byte[] bytes(int start, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (start + i);
+        }
+        return bytes;
+    }
+}
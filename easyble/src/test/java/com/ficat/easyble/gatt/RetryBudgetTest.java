@@ -0,0 +1,62 @@
+package com.ficat.easyble.gatt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void tryAcquire_usesUpBurst() {
+        RetryBudget budget = new RetryBudget(3, 1000);
+
+        assertEquals(3, budget.getAvailableRetries(0));
+        assertTrue(budget.tryAcquire(0));
+        assertTrue(budget.tryAcquire(0));
+        assertTrue(budget.tryAcquire(0));
+        assertFalse(budget.tryAcquire(0));
+        assertEquals(0, budget.getAvailableRetries(999));
+    }
+
+    @Test
+    public void refill_oneTokenPerInterval() {
+        RetryBudget budget = new RetryBudget(3, 1000);
+        for (int i = 0; i < 3; i++) {
+            budget.tryAcquire(10_000);
+        }
+
+        assertEquals(0, budget.getAvailableRetries(10_999));
+        assertEquals(1, budget.getAvailableRetries(11_000));
+        assertTrue(budget.tryAcquire(11_500));
+        // The partial interval since the last refill is kept
+        assertEquals(1, budget.getAvailableRetries(12_000));
+        assertEquals(2, budget.getAvailableRetries(13_999));
+        assertEquals(3, budget.getAvailableRetries(14_000));
+    }
+
+    @Test
+    public void refill_stopsAtMax() {
+        RetryBudget budget = new RetryBudget(2, 1000);
+        budget.tryAcquire(0);
+        budget.tryAcquire(0);
+
+        assertEquals(2, budget.getAvailableRetries(1_000_000));
+        // Time spent full does not accumulate tokens
+        assertTrue(budget.tryAcquire(1_000_000));
+        assertTrue(budget.tryAcquire(1_000_000));
+        assertFalse(budget.tryAcquire(1_000_999));
+        assertTrue(budget.tryAcquire(1_001_000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsNonPositiveMaxRetries() {
+        new RetryBudget(0, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsNonPositiveRefillInterval() {
+        new RetryBudget(1, 0);
+    }
+}
@@ -0,0 +1,259 @@
+package com.ficat.easyble.scan;
+
+import android.os.ParcelUuid;
+import android.util.SparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class BleScanRecordTest {
+    private static final int[] AD_TYPES = {
+            BleScanRecord.DATA_TYPE_FLAGS,
+            BleScanRecord.DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL,
+            BleScanRecord.DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE,
+            BleScanRecord.DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL,
+            BleScanRecord.DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE,
+            BleScanRecord.DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL,
+            BleScanRecord.DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE,
+            BleScanRecord.DATA_TYPE_LOCAL_NAME_SHORT,
+            BleScanRecord.DATA_TYPE_LOCAL_NAME_COMPLETE,
+            BleScanRecord.DATA_TYPE_TX_POWER_LEVEL,
+            BleScanRecord.DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT,
+            BleScanRecord.DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT,
+            BleScanRecord.DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT,
+            BleScanRecord.DATA_TYPE_SERVICE_DATA_16_BIT,
+            BleScanRecord.DATA_TYPE_SERVICE_DATA_32_BIT,
+            BleScanRecord.DATA_TYPE_SERVICE_DATA_128_BIT,
+            BleScanRecord.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA,
+            0x19, // Appearance, not decoded
+    };
+
+    @Test
+    public void parseFromBytes_nullOrEmpty() {
+        for (byte[] bytes : new byte[][]{null, {}, {0x00, 0x05}}) {
+            BleScanRecord record = BleScanRecord.parseFromBytes(bytes);
+            assertEquals(0, record.getAdStructureCount());
+            assertEquals(-1, record.getAdvertiseFlags());
+            assertEquals(Integer.MIN_VALUE, record.getTxPowerLevel());
+            assertNull(record.getDeviceName());
+            assertNull(record.getServiceUuids());
+            assertNull(record.getServiceSolicitationUuids());
+            assertNull(record.getManufacturerSpecificData());
+            assertNull(record.getServiceData());
+            assertNull(record.getAdvertisingDataMap());
+            assertArrayEquals(bytes, record.getBytes());
+        }
+    }
+
+    @Test
+    public void parseFromBytes_fields() {
+        byte[] bytes = concat(
+                ad(BleScanRecord.DATA_TYPE_FLAGS, 0x06),
+                ad(BleScanRecord.DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE, 0x0D, 0x18, 0x0F, 0x18),
+                ad(BleScanRecord.DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE, 0x78, 0x56, 0x34, 0x12),
+                ad(BleScanRecord.DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE,
+                        0xFB, 0x34, 0x9B, 0x5F, 0x80, 0x00, 0x00, 0x80, 0x00, 0x10, 0x00, 0x00, 0xAA, 0xBB, 0xCC, 0xDD),
+                ad(BleScanRecord.DATA_TYPE_TX_POWER_LEVEL, 0xF4),
+                ad(BleScanRecord.DATA_TYPE_SERVICE_DATA_16_BIT, 0x0F, 0x18, 0x64),
+                ad(BleScanRecord.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA, 0x4C, 0x00, 0x01, 0x02),
+                ad(BleScanRecord.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA, 0x4C, 0x00, 0x03),
+                ad(BleScanRecord.DATA_TYPE_LOCAL_NAME_SHORT, 'a', 'b'),
+                ad(BleScanRecord.DATA_TYPE_LOCAL_NAME_COMPLETE, 'a', 'b', 'c'));
+        BleScanRecord record = BleScanRecord.parseFromBytes(bytes);
+
+        assertEquals(10, record.getAdStructureCount());
+        assertEquals(0x06, record.getAdvertiseFlags());
+        assertEquals(-12, record.getTxPowerLevel());
+        assertEquals("abc", record.getDeviceName());
+        assertEquals(Arrays.asList(
+                uuid16(0x180D),
+                uuid16(0x180F),
+                uuid16(0x12345678L),
+                new ParcelUuid(UUID.fromString("DDCCBBAA-0000-1000-8000-00805F9B34FB"))),
+                record.getServiceUuids());
+        assertArrayEquals(new byte[]{0x64}, record.getServiceData().get(uuid16(0x180F)));
+        assertArrayEquals(new byte[]{0x01, 0x02, 0x03}, record.getManufacturerSpecificData(0x004C));
+        assertEquals(2, record.getAdvertisingDataMap().get(BleScanRecord.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA).size());
+
+        assertEquals(BleScanRecord.DATA_TYPE_TX_POWER_LEVEL, record.getAdType(4));
+        assertEquals(1, record.getAdDataLength(4));
+        assertEquals((byte) 0xF4, bytes[record.getAdDataOffset(4)]);
+    }
+
+    @Test
+    public void parseFromBytes_stopsAtTruncatedStructure() {
+        byte[] bytes = concat(
+                ad(BleScanRecord.DATA_TYPE_FLAGS, 0x06),
+                // The length claims 5 bytes but only 2 follow
+                new byte[]{0x05, BleScanRecord.DATA_TYPE_LOCAL_NAME_COMPLETE, 'a'});
+        BleScanRecord record = BleScanRecord.parseFromBytes(bytes);
+
+        assertEquals(1, record.getAdStructureCount());
+        assertEquals(0x06, record.getAdvertiseFlags());
+        assertNull(record.getDeviceName());
+    }
+
+    @Test
+    public void parseFromBytes_stopsAtZeroLength() {
+        byte[] bytes = concat(
+                ad(BleScanRecord.DATA_TYPE_TX_POWER_LEVEL, 0x04),
+                new byte[]{0x00},
+                ad(BleScanRecord.DATA_TYPE_LOCAL_NAME_COMPLETE, 'a'));
+        BleScanRecord record = BleScanRecord.parseFromBytes(bytes);
+
+        assertEquals(1, record.getAdStructureCount());
+        assertEquals(4, record.getTxPowerLevel());
+        assertNull(record.getDeviceName());
+    }
+
+    @Test
+    public void parseFromBytes_ignoresShortPayloads() {
+        byte[] bytes = concat(
+                ad(BleScanRecord.DATA_TYPE_FLAGS),
+                ad(BleScanRecord.DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE, 0x0D),
+                ad(BleScanRecord.DATA_TYPE_SERVICE_DATA_16_BIT, 0x0F, 0x18),
+                ad(BleScanRecord.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA, 0x4C, 0x00),
+                ad(BleScanRecord.DATA_TYPE_LOCAL_NAME_COMPLETE, 'a'),
+                ad(BleScanRecord.DATA_TYPE_LOCAL_NAME_SHORT));
+        BleScanRecord record = BleScanRecord.parseFromBytes(bytes);
+
+        assertEquals(6, record.getAdStructureCount());
+        assertEquals(-1, record.getAdvertiseFlags());
+        assertTrue(record.getServiceUuids().isEmpty());
+        assertTrue(record.getServiceData().isEmpty());
+        assertEquals(0, record.getManufacturerSpecificData().size());
+        assertEquals("a", record.getDeviceName());
+    }
+
+    @Test
+    public void parseFromBytes_matchesLegacyParser() {
+        Random random = new Random(0x5EED);
+        for (int i = 0; i < 20000; i++) {
+            byte[] bytes = randomScanRecord(random);
+            assertMatchesLegacy(bytes, BleScanRecord.parseFromBytes(bytes), LegacyScanRecordParser.parse(bytes));
+        }
+    }
+
+    private static void assertMatchesLegacy(byte[] bytes, BleScanRecord actual, LegacyScanRecordParser expected) {
+        String message = Arrays.toString(bytes);
+        assertEquals(message, expected.advertiseFlags, actual.getAdvertiseFlags());
+        assertEquals(message, expected.txPowerLevel, actual.getTxPowerLevel());
+        assertEquals(message, expected.deviceName, actual.getDeviceName());
+        assertEquals(message, expected.serviceUuids, actual.getServiceUuids());
+        assertEquals(message, expected.serviceSolicitationUuids, actual.getServiceSolicitationUuids());
+        assertSparseArrayEquals(message, expected.manufacturerSpecificData, actual.getManufacturerSpecificData());
+        assertMapEquals(message, expected.serviceData, actual.getServiceData());
+        assertMapEquals(message, expected.advertisingDataMap, actual.getAdvertisingDataMap());
+    }
+
+    private static void assertSparseArrayEquals(String message, SparseArray<byte[]> expected, SparseArray<byte[]> actual) {
+        if (expected == null) {
+            assertNull(message, actual);
+            return;
+        }
+        assertNotNull(message, actual);
+        assertEquals(message, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(message, expected.keyAt(i), actual.keyAt(i));
+            assertArrayEquals(message, expected.valueAt(i), actual.valueAt(i));
+        }
+    }
+
+    private static <K> void assertMapEquals(String message, Map<K, ?> expected, Map<K, ?> actual) {
+        if (expected == null) {
+            assertNull(message, actual);
+            return;
+        }
+        assertNotNull(message, actual);
+        assertEquals(message, expected.keySet(), actual.keySet());
+        for (Map.Entry<K, ?> entry : expected.entrySet()) {
+            Object value = actual.get(entry.getKey());
+            if (entry.getValue() instanceof byte[]) {
+                assertArrayEquals(message, (byte[]) entry.getValue(), (byte[]) value);
+            } else {
+                List<?> expectedList = (List<?>) entry.getValue();
+                List<?> actualList = (List<?>) value;
+                assertEquals(message, expectedList.size(), actualList.size());
+                for (int i = 0; i < expectedList.size(); i++) {
+                    assertArrayEquals(message, (byte[]) expectedList.get(i), (byte[]) actualList.get(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * A scan record of well-formed AD structures of the decoded types, which sometimes ends
+     * with a zero length, a truncated structure or random bytes
+     */
+    private static byte[] randomScanRecord(Random random) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int count = random.nextInt(8);
+        for (int i = 0; i < count; i++) {
+            int type = AD_TYPES[random.nextInt(AD_TYPES.length)];
+            byte[] payload = new byte[random.nextInt(20)];
+            random.nextBytes(payload);
+            // Reuse a few manufacturer ids and service uuids, so repeated keys are merged or replaced
+            if (payload.length >= 2 && random.nextBoolean()) {
+                payload[0] = (byte) random.nextInt(3);
+                payload[1] = 0;
+            }
+            out.write(payload.length + 1);
+            out.write(type);
+            out.write(payload, 0, payload.length);
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                out.write(0);
+                break;
+            case 1:
+                out.write(random.nextInt(30) + 2);
+                out.write(AD_TYPES[random.nextInt(AD_TYPES.length)]);
+                break;
+            case 2:
+                byte[] tail = new byte[random.nextInt(10)];
+                random.nextBytes(tail);
+                out.write(tail, 0, tail.length);
+                break;
+            default:
+                break;
+        }
+        return out.toByteArray();
+    }
+
+    private static ParcelUuid uuid16(long value) {
+        return new ParcelUuid(new UUID(0x0000000000001000L + (value << 32), 0x800000805F9B34FBL));
+    }
+
+    private static byte[] ad(int type, int... payload) {
+        byte[] bytes = new byte[payload.length + 2];
+        bytes[0] = (byte) (payload.length + 1);
+        bytes[1] = (byte) type;
+        for (int i = 0; i < payload.length; i++) {
+            bytes[i + 2] = (byte) payload[i];
+        }
+        return bytes;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] array : arrays) {
+            out.write(array, 0, array.length);
+        }
+        return out.toByteArray();
+    }
+}
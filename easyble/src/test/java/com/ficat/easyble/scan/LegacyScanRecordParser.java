@@ -0,0 +1,181 @@
+package com.ficat.easyble.scan;
+
+import android.os.ParcelUuid;
+import android.util.SparseArray;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The eager scan record parser that {@link BleScanRecord} used before its fields were decoded
+ * lazily, kept as the reference of {@link BleScanRecordTest}
+ */
+final class LegacyScanRecordParser {
+    private static final UUID BASE_UUID = UUID.fromString("00000000-0000-1000-8000-00805F9B34FB");
+
+    int advertiseFlags = -1;
+    int txPowerLevel = Integer.MIN_VALUE;
+    String deviceName;
+    List<ParcelUuid> serviceUuids;
+    List<ParcelUuid> serviceSolicitationUuids;
+    SparseArray<byte[]> manufacturerSpecificData;
+    Map<ParcelUuid, byte[]> serviceData;
+    Map<Integer, List<byte[]>> advertisingDataMap;
+
+    private LegacyScanRecordParser() {
+    }
+
+    static LegacyScanRecordParser parse(byte[] scanRecord) {
+        LegacyScanRecordParser result = new LegacyScanRecordParser();
+        if (scanRecord == null || scanRecord.length == 0) {
+            return result;
+        }
+        List<Integer> types = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        int index = 0;
+        while (index < scanRecord.length) {
+            int len = scanRecord[index++] & 0xFF;
+            if (len == 0) break;
+            if (index >= scanRecord.length) break;
+            int type = scanRecord[index] & 0xFF;
+            int payloadLen = len - 1;
+            int payloadStart = index + 1;
+            if (payloadStart + payloadLen > scanRecord.length) {
+                break;
+            }
+            byte[] payload = new byte[payloadLen];
+            System.arraycopy(scanRecord, payloadStart, payload, 0, payloadLen);
+            types.add(type);
+            payloads.add(payload);
+            index += len;
+        }
+        if (types.isEmpty()) {
+            return result;
+        }
+
+        result.serviceUuids = new ArrayList<>();
+        result.serviceSolicitationUuids = new ArrayList<>();
+        result.manufacturerSpecificData = new SparseArray<>();
+        result.serviceData = new HashMap<>();
+        result.advertisingDataMap = new HashMap<>();
+        for (int i = 0; i < types.size(); i++) {
+            int type = types.get(i);
+            byte[] data = payloads.get(i);
+            List<byte[]> typeDataList = result.advertisingDataMap.get(type);
+            if (typeDataList == null) {
+                typeDataList = new ArrayList<>();
+                result.advertisingDataMap.put(type, typeDataList);
+            }
+            typeDataList.add(data);
+            switch (type) {
+                case BleScanRecord.DATA_TYPE_FLAGS:
+                    if (data.length > 0) {
+                        result.advertiseFlags = data[0] & 0xFF;
+                    }
+                    break;
+                case BleScanRecord.DATA_TYPE_LOCAL_NAME_SHORT:
+                case BleScanRecord.DATA_TYPE_LOCAL_NAME_COMPLETE:
+                    if (data.length > 0) {
+                        result.deviceName = new String(data);
+                    }
+                    break;
+                case BleScanRecord.DATA_TYPE_TX_POWER_LEVEL:
+                    if (data.length > 0) {
+                        result.txPowerLevel = data[0];
+                    }
+                    break;
+                case BleScanRecord.DATA_TYPE_SERVICE_UUIDS_16_BIT_PARTIAL:
+                case BleScanRecord.DATA_TYPE_SERVICE_UUIDS_16_BIT_COMPLETE:
+                    parseUuidList(data, 2, result.serviceUuids);
+                    break;
+                case BleScanRecord.DATA_TYPE_SERVICE_UUIDS_32_BIT_PARTIAL:
+                case BleScanRecord.DATA_TYPE_SERVICE_UUIDS_32_BIT_COMPLETE:
+                    parseUuidList(data, 4, result.serviceUuids);
+                    break;
+                case BleScanRecord.DATA_TYPE_SERVICE_UUIDS_128_BIT_PARTIAL:
+                case BleScanRecord.DATA_TYPE_SERVICE_UUIDS_128_BIT_COMPLETE:
+                    parseUuidList(data, 16, result.serviceUuids);
+                    break;
+                case BleScanRecord.DATA_TYPE_SERVICE_SOLICITATION_UUIDS_16_BIT:
+                    parseUuidList(data, 2, result.serviceSolicitationUuids);
+                    break;
+                case BleScanRecord.DATA_TYPE_SERVICE_SOLICITATION_UUIDS_32_BIT:
+                    parseUuidList(data, 4, result.serviceSolicitationUuids);
+                    break;
+                case BleScanRecord.DATA_TYPE_SERVICE_SOLICITATION_UUIDS_128_BIT:
+                    parseUuidList(data, 16, result.serviceSolicitationUuids);
+                    break;
+                case BleScanRecord.DATA_TYPE_SERVICE_DATA_16_BIT:
+                    parseServiceData(data, 2, result.serviceData);
+                    break;
+                case BleScanRecord.DATA_TYPE_SERVICE_DATA_32_BIT:
+                    parseServiceData(data, 4, result.serviceData);
+                    break;
+                case BleScanRecord.DATA_TYPE_SERVICE_DATA_128_BIT:
+                    parseServiceData(data, 16, result.serviceData);
+                    break;
+                case BleScanRecord.DATA_TYPE_MANUFACTURER_SPECIFIC_DATA:
+                    parseManufacturer(data, result.manufacturerSpecificData);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return result;
+    }
+
+    private static void parseUuidList(byte[] data, int size, List<ParcelUuid> out) {
+        for (int i = 0; i + size <= data.length; i += size) {
+            byte[] slice = new byte[size];
+            System.arraycopy(data, i, slice, 0, size);
+            out.add(parseUuid(slice));
+        }
+    }
+
+    private static void parseServiceData(byte[] data, int uuidLen, Map<ParcelUuid, byte[]> out) {
+        if (data.length <= uuidLen) {
+            return;
+        }
+        byte[] uuidBytes = new byte[uuidLen];
+        System.arraycopy(data, 0, uuidBytes, 0, uuidLen);
+        byte[] value = new byte[data.length - uuidLen];
+        System.arraycopy(data, uuidLen, value, 0, value.length);
+        out.put(parseUuid(uuidBytes), value);
+    }
+
+    private static void parseManufacturer(byte[] data, SparseArray<byte[]> out) {
+        if (data.length <= 2) {
+            return;
+        }
+        int id = ((data[1] & 0xFF) << 8) | (data[0] & 0xFF);
+        byte[] value = new byte[data.length - 2];
+        System.arraycopy(data, 2, value, 0, value.length);
+        byte[] old = out.get(id);
+        if (old != null) {
+            byte[] merged = new byte[old.length + value.length];
+            System.arraycopy(old, 0, merged, 0, old.length);
+            System.arraycopy(value, 0, merged, old.length, value.length);
+            out.put(id, merged);
+        } else {
+            out.put(id, value);
+        }
+    }
+
+    private static ParcelUuid parseUuid(byte[] uuidBytes) {
+        if (uuidBytes.length == 16) {
+            ByteBuffer buf = ByteBuffer.wrap(uuidBytes).order(ByteOrder.LITTLE_ENDIAN);
+            return new ParcelUuid(new UUID(buf.getLong(8), buf.getLong(0)));
+        }
+        long value = 0;
+        for (int i = 0; i < uuidBytes.length; i++) {
+            value |= (long) (uuidBytes[i] & 0xFF) << (8 * i);
+        }
+        return new ParcelUuid(new UUID(BASE_UUID.getMostSignificantBits() + (value << 32),
+                BASE_UUID.getLeastSignificantBits()));
+    }
+}
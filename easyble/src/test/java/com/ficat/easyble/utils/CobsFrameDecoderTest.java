@@ -0,0 +1,78 @@
+package com.ficat.easyble.utils;
+
+import org.junit.Test;
+
+import static com.ficat.easyble.utils.FrameCollector.bytes;
+
+public class CobsFrameDecoderTest {
+
+    @Test
+    public void decode_frameSplitAcrossNotifications() {
+        CobsFrameDecoder decoder = new CobsFrameDecoder(16);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(0x03, 0x11), out);
+        out.assertFrames();
+        decoder.decode(bytes(0x22, 0x02, 0x33), out);
+        out.assertFrames();
+        decoder.decode(bytes(0x00, 0x01, 0x01, 0x00), out);
+        out.assertFrames(bytes(0x11, 0x22, 0x00, 0x33), bytes(0x00));
+    }
+
+    @Test
+    public void decode_skipsEmptyFrames() {
+        CobsFrameDecoder decoder = new CobsFrameDecoder(16);
+        FrameCollector out = new FrameCollector();
+
+        // 0x01 alone decodes to an empty frame
+        decoder.decode(bytes(0x00, 0x01, 0x00, 0x02, 0x44, 0x00), out);
+        out.assertFrames(bytes(0x44));
+    }
+
+    @Test
+    public void decode_fullBlockHasNoTrailingZero() {
+        byte[] encoded = new byte[256];
+        byte[] expected = new byte[254];
+        encoded[0] = (byte) 0xFF;
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) (i + 1);
+            encoded[i + 1] = expected[i];
+        }
+        CobsFrameDecoder decoder = new CobsFrameDecoder(300);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(encoded, out);
+        out.assertFrames(expected);
+    }
+
+    @Test
+    public void decode_invalidCodeDiscardsFrame() {
+        CobsFrameDecoder decoder = new CobsFrameDecoder(16);
+        FrameCollector out = new FrameCollector();
+
+        // Code 0x05 needs 4 more bytes but the frame ends after 2
+        decoder.decode(bytes(0x05, 0x11, 0x22, 0x00, 0x02, 0x44, 0x00), out);
+        out.assertFrames(bytes(0x44));
+    }
+
+    @Test
+    public void decode_overflowThenResync() {
+        CobsFrameDecoder decoder = new CobsFrameDecoder(3);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(0x05, 0x11, 0x22), out);
+        decoder.decode(bytes(0x33, 0x44, 0x00, 0x02, 0x55, 0x00), out);
+        out.assertFrames(bytes(0x55));
+    }
+
+    @Test
+    public void reset_discardsPendingBytes() {
+        CobsFrameDecoder decoder = new CobsFrameDecoder(16);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(0x03, 0x11), out);
+        decoder.reset();
+        decoder.decode(bytes(0x02, 0x44, 0x00), out);
+        out.assertFrames(bytes(0x44));
+    }
+}
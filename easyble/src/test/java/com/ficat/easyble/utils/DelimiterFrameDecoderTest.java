@@ -0,0 +1,84 @@
+package com.ficat.easyble.utils;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+public class DelimiterFrameDecoderTest {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void decode_frameSplitAcrossNotifications() {
+        DelimiterFrameDecoder decoder = newDecoder(16);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(ascii("ab"), out);
+        out.assertFrames();
+        decoder.decode(ascii("c\r"), out);
+        out.assertFrames();
+        // The delimiter is split across notifications
+        decoder.decode(ascii("\nde\r\nf"), out);
+        out.assertFrames(ascii("abc"), ascii("de"));
+        decoder.decode(ascii("\r\n"), out);
+        out.assertFrames(ascii("f"));
+    }
+
+    @Test
+    public void decode_skipsEmptyFrames() {
+        DelimiterFrameDecoder decoder = newDecoder(16);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(ascii("\r\n\r\na\r\n"), out);
+        out.assertFrames(ascii("a"));
+    }
+
+    @Test
+    public void decode_overflowThenResync() {
+        DelimiterFrameDecoder decoder = newDecoder(4);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(ascii("abcdef"), out);
+        decoder.decode(ascii("gh\r\nxy\r\n"), out);
+        out.assertFrames(ascii("xy"));
+    }
+
+    @Test
+    public void decode_delimiterSplitAtOverflowBoundary() {
+        DelimiterFrameDecoder decoder = newDecoder(4);
+        FrameCollector out = new FrameCollector();
+
+        // "abc\r" fills the buffer, the "\n" that completes the delimiter overflows it
+        decoder.decode(ascii("abc\r"), out);
+        decoder.decode(ascii("\nxy\r\n"), out);
+        out.assertFrames(ascii("xy"));
+    }
+
+    @Test
+    public void decode_partialDelimiterWhileDiscarding() {
+        DelimiterFrameDecoder decoder = newDecoder(4);
+        FrameCollector out = new FrameCollector();
+
+        // "\r\r\n" ends the discarded frame even though the first "\r" is not followed by "\n"
+        decoder.decode(ascii("abcde\r\r\nxy\r\n"), out);
+        out.assertFrames(ascii("xy"));
+    }
+
+    @Test
+    public void reset_discardsPendingBytes() {
+        DelimiterFrameDecoder decoder = newDecoder(4);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(ascii("abcdef"), out);
+        decoder.reset();
+        decoder.decode(ascii("xy\r\n"), out);
+        out.assertFrames(ascii("xy"));
+    }
+
+    private static DelimiterFrameDecoder newDecoder(int maxFrameLength) {
+        return new DelimiterFrameDecoder(maxFrameLength, (byte) '\r', (byte) '\n');
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(ASCII);
+    }
+}
@@ -0,0 +1,39 @@
+package com.ficat.easyble.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Copies every frame emitted by a {@link FrameDecoder}
+ */
+final class FrameCollector implements FrameDecoder.FrameOutput {
+    final List<byte[]> frames = new ArrayList<>();
+
+    @Override
+    public void onFrame(byte[] buffer, int offset, int length) {
+        frames.add(Arrays.copyOfRange(buffer, offset, offset + length));
+    }
+
+    /**
+     * Assert the frames emitted so far, and forget them
+     */
+    void assertFrames(byte[]... expected) {
+        assertEquals(expected.length, frames.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals("frame " + i, expected[i], frames.get(i));
+        }
+        frames.clear();
+    }
+
+    static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
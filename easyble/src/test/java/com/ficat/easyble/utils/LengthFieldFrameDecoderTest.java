@@ -0,0 +1,98 @@
+package com.ficat.easyble.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteOrder;
+
+import static com.ficat.easyble.utils.FrameCollector.bytes;
+
+public class LengthFieldFrameDecoderTest {
+
+    @Test
+    public void decode_frameSplitAcrossNotifications() {
+        // 1-byte type, 2-byte payload length, payload
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(16, 1, 2);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(0x01, 0x00), out);
+        out.assertFrames();
+        decoder.decode(bytes(0x03, 0xA1), out);
+        out.assertFrames();
+        decoder.decode(bytes(0xA2, 0xA3, 0x02), out);
+        out.assertFrames(bytes(0x01, 0x00, 0x03, 0xA1, 0xA2, 0xA3));
+        decoder.decode(bytes(0x00, 0x00), out);
+        out.assertFrames(bytes(0x02, 0x00, 0x00));
+    }
+
+    @Test
+    public void decode_severalFramesInOneNotification() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(16, 0, 1);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(0x01, 0xA1, 0x02, 0xB1, 0xB2, 0x03, 0xC1), out);
+        out.assertFrames(bytes(0x01, 0xA1), bytes(0x02, 0xB1, 0xB2));
+        decoder.decode(bytes(0xC2, 0xC3), out);
+        out.assertFrames(bytes(0x03, 0xC1, 0xC2, 0xC3));
+    }
+
+    @Test
+    public void decode_overflowThenResync() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(4, 0, 1);
+        FrameCollector out = new FrameCollector();
+
+        // The first frame claims 9 bytes, the 4 pending bytes are discarded and the rest of
+        // the notification is taken as a new frame
+        decoder.decode(bytes(0x09, 0x01, 0x02, 0x03, 0x01, 0xA1), out);
+        out.assertFrames(bytes(0x01, 0xA1));
+
+        // A whole notification of an invalid frame is discarded, the next one starts a frame
+        decoder.decode(bytes(0x20, 0x01), out);
+        out.assertFrames();
+        decoder.decode(bytes(0x02, 0xB1, 0xB2), out);
+        out.assertFrames(bytes(0x02, 0xB1, 0xB2));
+    }
+
+    @Test
+    public void decode_lengthAdjustmentAndStrip() {
+        // The little-endian length field counts the whole frame, the 3-byte header is stripped
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(16, 1, 2, -3, 3,
+                ByteOrder.LITTLE_ENDIAN);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(0x7F, 0x05, 0x00, 0xA1), out);
+        out.assertFrames();
+        // A frame of the header only is emitted as an empty payload
+        decoder.decode(bytes(0xA2, 0x7F, 0x03, 0x00), out);
+        out.assertFrames(bytes(0xA1, 0xA2), bytes());
+        decoder.decode(bytes(0x7F, 0x04, 0x00, 0xB1), out);
+        out.assertFrames(bytes(0xB1));
+    }
+
+    @Test
+    public void decode_frameShorterThanHeaderIsDiscarded() {
+        // A length field of 1 with adjustment -3 gives a frame shorter than its header
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(16, 0, 1, -3, 0,
+                ByteOrder.BIG_ENDIAN);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(0x01), out);
+        decoder.decode(bytes(0x05, 0xA1, 0xA2), out);
+        out.assertFrames(bytes(0x05, 0xA1, 0xA2));
+    }
+
+    @Test
+    public void reset_discardsPendingBytes() {
+        LengthFieldFrameDecoder decoder = new LengthFieldFrameDecoder(16, 0, 1);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(0x03, 0xA1), out);
+        decoder.reset();
+        decoder.decode(bytes(0x01, 0xB1), out);
+        out.assertFrames(bytes(0x01, 0xB1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsInvalidLengthField() {
+        new LengthFieldFrameDecoder(16, 0, 5);
+    }
+}
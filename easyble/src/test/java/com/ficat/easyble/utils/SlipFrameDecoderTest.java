@@ -0,0 +1,75 @@
+package com.ficat.easyble.utils;
+
+import org.junit.Test;
+
+import static com.ficat.easyble.utils.FrameCollector.bytes;
+
+public class SlipFrameDecoderTest {
+    private static final int END = 0xC0;
+    private static final int ESC = 0xDB;
+    private static final int ESC_END = 0xDC;
+    private static final int ESC_ESC = 0xDD;
+
+    @Test
+    public void decode_frameSplitAcrossNotifications() {
+        SlipFrameDecoder decoder = new SlipFrameDecoder(16);
+        FrameCollector out = new FrameCollector();
+
+        // The escape sequence is split across notifications
+        decoder.decode(bytes(0x01, ESC), out);
+        out.assertFrames();
+        decoder.decode(bytes(ESC_END, 0x02, ESC, ESC_ESC), out);
+        out.assertFrames();
+        decoder.decode(bytes(END, 0x03, END), out);
+        out.assertFrames(bytes(0x01, END, 0x02, ESC), bytes(0x03));
+    }
+
+    @Test
+    public void decode_skipsEmptyFrames() {
+        SlipFrameDecoder decoder = new SlipFrameDecoder(16);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(END, END, 0x01, END), out);
+        out.assertFrames(bytes(0x01));
+    }
+
+    @Test
+    public void decode_invalidEscapeDiscardsFrame() {
+        SlipFrameDecoder decoder = new SlipFrameDecoder(16);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(0x01, ESC, 0x05, 0x02, END, 0x03, END), out);
+        out.assertFrames(bytes(0x03));
+    }
+
+    @Test
+    public void decode_escapeBeforeEndDiscardsFrame() {
+        SlipFrameDecoder decoder = new SlipFrameDecoder(16);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(0x01, ESC, END, 0x03, END), out);
+        out.assertFrames(bytes(0x03));
+    }
+
+    @Test
+    public void decode_overflowThenResync() {
+        SlipFrameDecoder decoder = new SlipFrameDecoder(2);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(0x01, 0x02, 0x03), out);
+        decoder.decode(bytes(0x04, END, 0x05, ESC, ESC_END, END), out);
+        out.assertFrames(bytes(0x05, END));
+    }
+
+    @Test
+    public void reset_discardsPendingBytes() {
+        SlipFrameDecoder decoder = new SlipFrameDecoder(16);
+        FrameCollector out = new FrameCollector();
+
+        decoder.decode(bytes(0x01, ESC), out);
+        decoder.reset();
+        // The escape is dropped, so ESC_END is not unescaped
+        decoder.decode(bytes(ESC_END, END), out);
+        out.assertFrames(bytes(ESC_END));
+    }
+}